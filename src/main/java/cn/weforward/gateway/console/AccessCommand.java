@@ -20,7 +20,9 @@ import cn.weforward.common.util.NumberUtil;
 import cn.weforward.common.util.StringUtil;
 import cn.weforward.gateway.console.exception.ArgumentException;
 import cn.weforward.gateway.console.exception.CommonException;
+import cn.weforward.gateway.console.keeper.ResultPages;
 import cn.weforward.gateway.console.util.FitTable;
+import cn.weforward.gateway.console.util.RecordWriter;
 import cn.weforward.protocol.Access;
 import cn.weforward.protocol.gateway.Keeper;
 import cn.weforward.protocol.ops.AccessExt;
@@ -33,6 +35,9 @@ import cn.weforward.protocol.ops.AccessExt;
  */
 public class AccessCommand extends Command {
 
+	/** 获取全部凭证时的每页项数 */
+	static final int LIST_ALL_PAGE_SIZE = 100;
+
 	Option m_Print;
 	Option m_ListGroups;
 	Option m_Add;
@@ -128,17 +133,28 @@ public class AccessCommand extends Command {
 		Keeper keeper = getKeeper();
 		ResultPage<AccessExt> rp = keeper.listAccess(kind, group, keyword);
 		if (0 == rp.getCount()) {
-			getPrintStream().println("总项数：" + rp.getCount());
+			if (!isRecordOutput()) {
+				getPrintStream().println("总项数：" + rp.getCount());
+			}
 			return;
 		}
 		int page = NumberUtil.toInt(pageStr, 1);
 		int pageSize = NumberUtil.toInt(pageSizeStr, 10);
 		rp.setPageSize(pageSize);
-		rp.gotoPage(page);
-		getPrintStream().println("总项数：" + rp.getCount() + "，当前页：" + page + "，每页项数：" + pageSize);
+		ResultPages.gotoPage(rp, page);
+		if (!isRecordOutput()) {
+			getPrintStream().println("总项数：" + rp.getCount() + "，当前页：" + page + "，每页项数：" + pageSize);
+		}
 		show(rp);
 	}
 
+	/**
+	 * 逐页获取某类型的全部访问凭证
+	 */
+	static List<AccessExt> listAll(Keeper keeper, String kind) {
+		return ResultPages.toList(keeper.listAccess(kind, null, null), LIST_ALL_PAGE_SIZE);
+	}
+
 	void listGroups() {
 		List<String> groups = getKeeper().listAccessGroup(Access.KIND_SERVICE);
 		PrintStream ps = getPrintStream();
@@ -185,6 +201,15 @@ public class AccessCommand extends Command {
 	}
 
 	void show(Iterable<AccessExt> accesses) {
+		RecordWriter writer = openRecordWriter("id", "key", "group", "valid", "summary");
+		if (null != writer) {
+			for (AccessExt acc : accesses) {
+				writer.write(acc.getAccessId(), acc.getAccessKeyHex(), acc.getGroupId(), acc.isValid(),
+						acc.getSummary());
+			}
+			writer.flush();
+			return;
+		}
 		show(accesses, getPrintStream());
 	}
 
@@ -10,6 +10,8 @@
  */
 package cn.weforward.gateway.console;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import cn.weforward.common.util.ComparatorExt;
@@ -99,6 +101,15 @@ public class Argument {
 		return null;
 	}
 
+	public static List<String> getValues(List<Argument> args, Option op) {
+		int idx = ListUtil.binarySearch(args, op.getKey(), Argument.CMP_BY_NAME);
+		if (idx >= 0) {
+			Argument arg = args.get(idx);
+			return Arrays.asList(arg.m_Values).subList(0, arg.getValueSize());
+		}
+		return Collections.emptyList();
+	}
+
 	public static Boolean getBooleanValue(List<Argument> args, Option op) {
 		int idx = ListUtil.binarySearch(args, op.getKey(), Argument.CMP_BY_NAME);
 		if (idx >= 0) {
@@ -0,0 +1,189 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.console;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Future;
+
+import cn.weforward.gateway.console.exception.ArgumentException;
+import cn.weforward.gateway.console.exception.CommonException;
+import cn.weforward.gateway.console.keeper.AsyncKeeper;
+import cn.weforward.gateway.console.registry.ServiceInstance;
+import cn.weforward.gateway.console.registry.ServiceRegistryCache;
+import cn.weforward.gateway.console.util.ConfigArchive;
+import cn.weforward.protocol.Access;
+import cn.weforward.protocol.gateway.Keeper;
+import cn.weforward.protocol.ops.AccessExt;
+import cn.weforward.protocol.ops.secure.RightTable;
+import cn.weforward.protocol.ops.secure.RightTableItem;
+import cn.weforward.protocol.ops.traffic.TrafficTable;
+import cn.weforward.protocol.ops.traffic.TrafficTableItem;
+
+/**
+ * 'backup'命令
+ * 
+ * @author zhangpengji
+ *
+ */
+public class BackupCommand extends Command {
+
+	/** 默认同时备份的微服务数，每个微服务同时获取流量表及权限表 */
+	static final int PARALLEL_DEFAULT = 4;
+	/** 备份的访问凭证类型 */
+	static final String[] ACCESS_KINDS = { Access.KIND_SERVICE, Access.KIND_USER };
+
+	Option m_File;
+	Option m_Keyword;
+	Option m_Parallel;
+	List<Option> m_Options;
+
+	protected BackupCommand(Console console) {
+		super(console);
+
+		m_File = new Option("file").setSecondOption(true).setValues("file").setDesc("备份文件（gzip压缩的JSON行）");
+		m_Keyword = new Option("keyword").setSecondOption(true).setValues("keyword").setDesc("只备份搜索到的微服务");
+		m_Parallel = new Option("parallel").setSecondOption(true).setValues("count")
+				.setDesc("同时备份的微服务数，默认为" + PARALLEL_DEFAULT + "，最大为" + AsyncKeeper.THREADS_MAX);
+		m_Options = Arrays.asList(m_File, m_Keyword, m_Parallel);
+	}
+
+	@Override
+	String getName() {
+		return "backup";
+	}
+
+	@Override
+	boolean isNodeCommand() {
+		return false;
+	}
+
+	@Override
+	String getSynopsis() {
+		return "备份网关配置：访问凭证及各微服务的流量表、权限表";
+	}
+
+	@Override
+	List<String> getUsages() {
+		return Arrays.asList("backup --file file [--keyword keyword] [--parallel 4]");
+	}
+
+	@Override
+	List<Option> getOptions() {
+		return m_Options;
+	}
+
+	@Override
+	void executeInner(List<Argument> args) {
+		String path = Argument.getValue(args, m_File);
+		if (null == path) {
+			throw ArgumentException.missArgument(m_File);
+		}
+		int parallel = toParallel(Argument.getValue(args, m_Parallel), PARALLEL_DEFAULT);
+		backup(new File(path), Argument.getValue(args, m_Keyword), parallel);
+	}
+
+	/**
+	 * 按名称的顺序同时获取各微服务的流量表及权限表，同时进行的不超过parallel个，获取一个写入一个
+	 */
+	void backup(File file, String keyword, int parallel) {
+		long begin = System.currentTimeMillis();
+		Keeper keeper = getKeeper();
+		Set<String> names = new TreeSet<String>();
+		for (ServiceInstance s : ServiceRegistryCache.load(keeper, keyword, ServiceCommand.ALL_PAGE_SIZE_DEFAULT)
+				.values()) {
+			names.add(s.getName());
+		}
+		List<String> list = new ArrayList<String>(names);
+		AsyncKeeper async = getAsyncKeeper(parallel);
+		List<Future<TrafficTable>> traffics = new ArrayList<Future<TrafficTable>>(list.size());
+		List<Future<RightTable>> rights = new ArrayList<Future<RightTable>>(list.size());
+		ConfigArchive.Writer writer = null;
+		int accesses = 0;
+		try {
+			writer = new ConfigArchive.Writer(file);
+			for (String kind : ACCESS_KINDS) {
+				for (AccessExt acc : AccessCommand.listAll(keeper, kind)) {
+					writer.write(toEntry(kind, acc));
+					accesses++;
+				}
+			}
+			int submitted = 0;
+			for (int i = 0; i < list.size(); i++) {
+				while (submitted < list.size() && submitted - i < parallel) {
+					String name = list.get(submitted++);
+					traffics.add(async.getTrafficTable(name));
+					rights.add(async.getRightTable(name));
+				}
+				TrafficTable tt = AsyncKeeper.join(traffics.get(i));
+				traffics.set(i, null);
+				RightTable rt = AsyncKeeper.join(rights.get(i));
+				rights.set(i, null);
+				writer.write(toEntry(list.get(i), tt));
+				writer.write(toEntry(list.get(i), rt));
+			}
+			writer.finish();
+		} catch (IOException e) {
+			throw new CommonException("写入备份文件出错，" + e.toString());
+		} finally {
+			AsyncKeeper.cancel(traffics);
+			AsyncKeeper.cancel(rights);
+			ServiceCommand.close(writer);
+		}
+		getPrintStream().println("已备份" + list.size() + "个微服务、" + accesses + "个访问凭证到" + file + "，耗时"
+				+ (System.currentTimeMillis() - begin) + "ms");
+	}
+
+	/**
+	 * 访问凭证只记录标识及可修改的项，密钥不备份
+	 */
+	static Map<String, Object> toEntry(String kind, AccessExt acc) {
+		Map<String, Object> entry = ConfigArchive.entry(ConfigArchive.TYPE_ACCESS);
+		entry.put("kind", kind);
+		entry.put("id", acc.getAccessId());
+		entry.put("group", acc.getGroupId());
+		entry.put("summary", acc.getSummary());
+		entry.put("valid", acc.isValid());
+		return entry;
+	}
+
+	static Map<String, Object> toEntry(String service, TrafficTable tt) {
+		Map<String, Object> entry = ConfigArchive.entry(ConfigArchive.TYPE_TRAFFIC);
+		entry.put("service", service);
+		List<Map<String, Object>> items = new ArrayList<Map<String, Object>>();
+		if (null != tt && null != tt.getItems()) {
+			for (TrafficTableItem item : tt.getItems()) {
+				items.add(TrafficCommand.toMap(item));
+			}
+		}
+		entry.put("items", items);
+		return entry;
+	}
+
+	static Map<String, Object> toEntry(String service, RightTable rt) {
+		Map<String, Object> entry = ConfigArchive.entry(ConfigArchive.TYPE_RIGHT);
+		entry.put("service", service);
+		List<Map<String, Object>> items = new ArrayList<Map<String, Object>>();
+		if (null != rt && null != rt.getItems()) {
+			for (RightTableItem item : rt.getItems()) {
+				items.add(RightCommand.toMap(item));
+			}
+		}
+		entry.put("items", items);
+		return entry;
+	}
+}
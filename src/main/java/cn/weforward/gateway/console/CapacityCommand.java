@@ -0,0 +1,228 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.console;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Future;
+
+import cn.weforward.gateway.console.keeper.AsyncKeeper;
+import cn.weforward.gateway.console.registry.ServiceInstance;
+import cn.weforward.gateway.console.registry.ServiceRegistryCache;
+import cn.weforward.gateway.console.traffic.ServiceCapacity;
+import cn.weforward.gateway.console.util.FitTable;
+import cn.weforward.gateway.console.util.RecordWriter;
+import cn.weforward.protocol.ops.traffic.TrafficTable;
+import cn.weforward.protocol.ops.traffic.TrafficTableItem;
+
+/**
+ * 'capacity'命令
+ * 
+ * @author zhangpengji
+ *
+ */
+public class CapacityCommand extends Command {
+
+	/** 默认同时获取流量表的数量 */
+	static final int PARALLEL_DEFAULT = 4;
+
+	Option m_Keyword;
+	Option m_Detail;
+	Option m_Parallel;
+	List<Option> m_Options;
+
+	protected CapacityCommand(Console console) {
+		super(console);
+
+		m_Keyword = new Option("keyword").setSecondOption(true).setValues("keyword").setDesc("微服务的搜索关键字");
+		m_Detail = new Option("detail").setSecondOption(true).setDesc("列出各实例对应的规则、权重及分担流量的比例");
+		m_Parallel = new Option("parallel").setSecondOption(true).setValues("count")
+				.setDesc("同时获取流量表的数量，默认为" + PARALLEL_DEFAULT + "，最大为" + AsyncKeeper.THREADS_MAX);
+		m_Options = Arrays.asList(m_Keyword, m_Detail, m_Parallel);
+	}
+
+	@Override
+	String getName() {
+		return "capacity";
+	}
+
+	@Override
+	String getShortName() {
+		return "cap";
+	}
+
+	@Override
+	String getSynopsis() {
+		return "容量报告：对应各微服务的流量表与在线实例，统计分担流量的实例、总并发上限及失效的规则";
+	}
+
+	@Override
+	List<String> getUsages() {
+		return Arrays.asList("cap [--keyword keyword] [--detail] [--parallel 4]");
+	}
+
+	@Override
+	List<Option> getOptions() {
+		return m_Options;
+	}
+
+	@Override
+	void executeInner(List<Argument> args) {
+		int parallel = toParallel(Argument.getValue(args, m_Parallel), PARALLEL_DEFAULT);
+		List<ServiceCapacity> report = load(Argument.getValue(args, m_Keyword), parallel);
+		if (Argument.contain(args, m_Detail)) {
+			showDetail(report);
+		} else {
+			show(report);
+		}
+	}
+
+	/**
+	 * 逐页获取实例并按名称分组，同时按名称的顺序获取流量表，同时进行的不超过parallel个
+	 */
+	List<ServiceCapacity> load(String keyword, int parallel) {
+		Map<String, List<ServiceInstance>> services = new TreeMap<String, List<ServiceInstance>>();
+		for (ServiceInstance s : ServiceRegistryCache
+				.load(getKeeper(), keyword, ServiceCommand.ALL_PAGE_SIZE_DEFAULT).values()) {
+			List<ServiceInstance> list = services.get(s.getName());
+			if (null == list) {
+				list = new ArrayList<ServiceInstance>();
+				services.put(s.getName(), list);
+			}
+			list.add(s);
+		}
+		List<String> names = new ArrayList<String>(services.keySet());
+		AsyncKeeper async = getAsyncKeeper(parallel);
+		List<Future<TrafficTable>> futures = new ArrayList<Future<TrafficTable>>(names.size());
+		List<ServiceCapacity> report = new ArrayList<ServiceCapacity>(names.size());
+		try {
+			int submitted = 0;
+			for (int i = 0; i < names.size(); i++) {
+				while (submitted < names.size() && submitted - i < parallel) {
+					futures.add(async.getTrafficTable(names.get(submitted++)));
+				}
+				TrafficTable table = AsyncKeeper.join(futures.get(i));
+				futures.set(i, null);
+				List<TrafficTableItem> items = (null == table) ? null : table.getItems();
+				report.add(new ServiceCapacity(names.get(i), items, services.get(names.get(i))));
+			}
+		} finally {
+			AsyncKeeper.cancel(futures);
+		}
+		return report;
+	}
+
+	void show(List<ServiceCapacity> report) {
+		RecordWriter writer = openRecordWriter("name", "instances", "healthy", "serving", "backups", "masked",
+				"unmatched", "rules", "max_concurrent", "stale_rules");
+		if (null != writer) {
+			for (ServiceCapacity c : report) {
+				writer.write(c.getName(), c.getInstances(), c.getHealthy(), c.getServing(), c.getBackups(),
+						c.getMasked(), c.getUnmatched(), c.getRules().size(),
+						ServiceCapacity.UNLIMITED == c.getMaxConcurrent() ? null : c.getMaxConcurrent(),
+						c.getStaleRules());
+			}
+			writer.flush();
+			return;
+		}
+		PrintStream ps = getPrintStream();
+		ps.println("微服务数：" + report.size());
+		FitTable table = new FitTable(true, 1, 1);
+		table.addCell("名称");
+		table.addCell("实例");
+		table.addCell("正常");
+		table.addCell("分担");
+		table.addCell("后备");
+		table.addCell("屏蔽");
+		table.addCell("无规则");
+		table.addCell("规则");
+		table.addCell("总并发上限");
+		table.addCell("失效规则");
+		List<String> stale = new ArrayList<String>();
+		for (ServiceCapacity c : report) {
+			table.nextRow();
+			table.addCell(c.getName());
+			table.addCell(String.valueOf(c.getInstances()));
+			table.addCell(String.valueOf(c.getHealthy()));
+			table.addCell(String.valueOf(c.getServing()));
+			table.addCell(String.valueOf(c.getBackups()));
+			table.addCell(String.valueOf(c.getMasked()));
+			table.addCell(String.valueOf(c.getUnmatched()));
+			table.addCell(c.getRules().isEmpty() ? "默认" : String.valueOf(c.getRules().size()));
+			table.addCell(toString(c.getMaxConcurrent()));
+			table.addCell(c.getStaleRules().isEmpty() ? "" : c.getStaleRules().toString());
+			for (int i : c.getStaleRules()) {
+				TrafficTableItem item = c.getRules().get(i);
+				stale.add(c.getName() + " #" + i + " no=" + item.getServiceNo() + " version="
+						+ item.getServiceVersion());
+			}
+		}
+		table.print(ps);
+		if (!stale.isEmpty()) {
+			ps.println("没有匹配在线实例的规则：");
+			for (String s : stale) {
+				ps.println("  " + s);
+			}
+		}
+	}
+
+	void showDetail(List<ServiceCapacity> report) {
+		RecordWriter writer = openRecordWriter("name", "no", "version", "state", "rule", "weight", "max_concurrent",
+				"share");
+		if (null != writer) {
+			for (ServiceCapacity c : report) {
+				for (ServiceCapacity.Binding b : c.getBindings()) {
+					ServiceInstance s = b.getInstance();
+					writer.write(c.getName(), s.getNo(), s.getVersion(), ServiceInstance.getStateText(s.getState(), ' '),
+							b.getRule() < 0 ? null : b.getRule(), b.getWeight(), b.getMaxConcurrent(), b.getShare());
+				}
+			}
+			writer.flush();
+			return;
+		}
+		FitTable table = new FitTable(true, 1, 1);
+		table.addCell("名称");
+		table.addCell("编号");
+		table.addCell("版本");
+		table.addCell("状态");
+		table.addCell("规则");
+		table.addCell("权重");
+		table.addCell("最大并发");
+		table.addCell("分担");
+		for (ServiceCapacity c : report) {
+			for (ServiceCapacity.Binding b : c.getBindings()) {
+				ServiceInstance s = b.getInstance();
+				table.nextRow();
+				table.addCell(c.getName());
+				table.addCell(s.getNo());
+				table.addCell(s.getVersion());
+				table.addCell(ServiceInstance.getStateText(s.getState(), '\n'));
+				if (b.getRule() >= 0) {
+					table.addCell(String.valueOf(b.getRule()));
+				} else {
+					table.addCell(c.getRules().isEmpty() ? "默认" : "无");
+				}
+				table.addCell(String.valueOf(b.getWeight()));
+				table.addCell(toString(b.getMaxConcurrent() == 0 ? ServiceCapacity.UNLIMITED : b.getMaxConcurrent()));
+				table.addCell(String.format("%.1f%%", b.getShare() * 100));
+			}
+		}
+		table.print(getPrintStream());
+	}
+
+	static String toString(int maxConcurrent) {
+		return (ServiceCapacity.UNLIMITED == maxConcurrent) ? "不限" : String.valueOf(maxConcurrent);
+	}
+}
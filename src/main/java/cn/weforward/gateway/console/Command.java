@@ -17,10 +17,15 @@ import java.util.Comparator;
 import java.util.List;
 
 import cn.weforward.common.util.ListUtil;
+import cn.weforward.common.util.NumberUtil;
 import cn.weforward.common.util.StringUtil;
 import cn.weforward.gateway.console.exception.ArgumentException;
 import cn.weforward.gateway.console.exception.CommonException;
+import cn.weforward.gateway.console.keeper.AsyncKeeper;
+import cn.weforward.gateway.console.keeper.Deadline;
 import cn.weforward.gateway.console.util.FitTable;
+import cn.weforward.gateway.console.util.Metrics;
+import cn.weforward.gateway.console.util.RecordWriter;
 import cn.weforward.protocol.gateway.Keeper;
 import cn.weforward.protocol.gateway.exception.KeeperException;
 
@@ -90,6 +95,15 @@ public abstract class Command {
 	// */
 	// abstract List<String> getExamples();
 
+	/**
+	 * 是否可以在多个网关节点上执行（--all-nodes）
+	 * 
+	 * @return
+	 */
+	boolean isNodeCommand() {
+		return true;
+	}
+
 	public PrintStream getPrintStream() {
 		return m_Console.getPrintStream();
 	}
@@ -102,6 +116,89 @@ public abstract class Command {
 		return m_Console.getKeeper();
 	}
 
+	public AsyncKeeper getAsyncKeeper() {
+		return m_Console.getAsyncKeeper();
+	}
+
+	/**
+	 * 同时进行不超过parallel个调用的异步keeper
+	 */
+	public AsyncKeeper getAsyncKeeper(int parallel) {
+		return m_Console.getAsyncKeeper(parallel);
+	}
+
+	/**
+	 * 解析并发数（--parallel）
+	 * 
+	 * @param value
+	 *            参数值，为空时使用默认值
+	 * @param def
+	 *            默认值
+	 * @return
+	 */
+	static int toParallel(String value, int def) {
+		int parallel = NumberUtil.toInt(value, def);
+		if (parallel <= 0) {
+			throw new ArgumentException("无效的并发数：" + value);
+		}
+		if (parallel > AsyncKeeper.THREADS_MAX) {
+			throw new ArgumentException("并发数不能超过" + AsyncKeeper.THREADS_MAX + "：" + value);
+		}
+		return parallel;
+	}
+
+	/**
+	 * 指定了输出格式（--output）时，创建记录输出器
+	 * 
+	 * @param fields
+	 *            字段名
+	 * @return 未指定时返回null，应输出表格
+	 */
+	public RecordWriter openRecordWriter(String... fields) {
+		String format = m_Console.getOutputFormat();
+		if (null == format) {
+			return null;
+		}
+		return new RecordWriter(format, getPrintStream(), fields);
+	}
+
+	/**
+	 * 是否指定了输出格式（--output），此时不输出提示性的文字
+	 * 
+	 * @return
+	 */
+	public boolean isRecordOutput() {
+		return null != m_Console.getOutputFormat();
+	}
+
+	/**
+	 * 持续执行的命令在两次执行之间等待
+	 * <p>
+	 * 在终端按回车键（由控制台读取输入）、命令到期限或线程被中断时提前结束。输入不是终端时（如管道），只能以--deadline结束。
+	 * 
+	 * @param millis
+	 * @return 按了回车键、命令已到期限或线程被中断时返回false
+	 */
+	public boolean await(long millis) {
+		Long deadline = Deadline.current();
+		if (null != deadline) {
+			long left = deadline - System.currentTimeMillis();
+			if (left <= 0) {
+				return false;
+			}
+			millis = Math.min(millis, left);
+		}
+		try {
+			if (m_Console.awaitStop(millis)) {
+				return false;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		return null == deadline || System.currentTimeMillis() < deadline;
+	}
+
 	void showHelpInfo() {
 		PrintStream ps = getPrintStream();
 		ps.print(getName());
@@ -168,6 +265,7 @@ public abstract class Command {
 	 * @throws Exception
 	 */
 	private void execute0(List<String> argList) throws Exception {
+		long begin = System.nanoTime();
 		List<Argument> args = Collections.emptyList();
 		if (!ListUtil.isEmpty(argList)) {
 			List<Option> options = getOptions();
@@ -223,6 +321,7 @@ public abstract class Command {
 		if (args.size() > 1) {
 			Collections.sort(args, Argument.CMP_BY_NAME);
 		}
+		Metrics.record(Metrics.PARSE, System.nanoTime() - begin);
 		executeInner(args);
 	}
 
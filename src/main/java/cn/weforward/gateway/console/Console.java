@@ -11,6 +11,7 @@
 package cn.weforward.gateway.console;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -24,17 +25,32 @@ import java.net.JarURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
 import java.security.CodeSource;
-import java.security.NoSuchAlgorithmException;
 import java.security.ProtectionDomain;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
 
+import cn.weforward.common.util.NumberUtil;
 import cn.weforward.common.util.StringUtil;
+import cn.weforward.gateway.console.exception.ArgumentException;
 import cn.weforward.gateway.console.exception.CommonException;
+import cn.weforward.gateway.console.keeper.AsyncKeeper;
+import cn.weforward.gateway.console.keeper.Deadline;
+import cn.weforward.gateway.console.registry.ServiceRegistryCache;
+import cn.weforward.gateway.console.keeper.KeeperTransport;
+import cn.weforward.gateway.console.util.Metrics;
+import cn.weforward.gateway.console.util.RecordWriter;
+import cn.weforward.gateway.console.util.Trace;
 import cn.weforward.protocol.gateway.Keeper;
-import cn.weforward.protocol.gateway.http.HttpKeeper;
 
 /**
  * 网关控制台主程序
@@ -51,6 +67,21 @@ public class Console {
 	static final String CONFIG_ACCESS_ID = "id";
 	static final String CONFIG_ACCESS_KEY = "key";
 	static final String CONFIG_SECRET = "secret";
+	static final String CONFIG_CLUSTER_PREFIX = "cluster.";
+	static final String CONFIG_CONNECT_TIMEOUT = "connect-timeout";
+	static final String CONFIG_READ_TIMEOUT = "read-timeout";
+	static final String CONFIG_COMPRESS = "compress";
+
+	/** 在url所配置的全部节点上执行命令 */
+	static final String OPTION_ALL_NODES = "--all-nodes";
+	/** 在指定集群的全部节点上执行命令 */
+	static final String OPTION_CLUSTER = "--cluster";
+	/** 输出命令各环节的耗时 */
+	static final String OPTION_TRACE = "--trace";
+	/** 命令的期限（毫秒），超过时取消未完成的keeper调用 */
+	static final String OPTION_DEADLINE = "--deadline";
+	/** 以机器可读的格式输出列表（jsonl、csv、tsv） */
+	static final String OPTION_OUTPUT = "--output";
 
 	String m_HomeDir;
 
@@ -63,8 +94,28 @@ public class Console {
 	String m_AccessKey;
 	String m_Secret;
 	Keeper m_Keeper;
+	/** 命名的集群，值为逗号分隔的keeper接口链接 */
+	Map<String, String> m_Clusters;
+	/** 当前线程执行命令的上下文，在多个节点上并发执行时使用 */
+	final ThreadLocal<Context> m_Context = new ThreadLocal<Context>();
+	KeeperTransport m_Transport;
+	volatile ExecutorService m_Executor;
+	/** 各keeper的微服务注册表缓存 */
+	final Map<Keeper, ServiceRegistryCache> m_RegistryCaches = new HashMap<Keeper, ServiceRegistryCache>();
+	/** 当前命令的输出格式，为null时输出表格（绑定在执行命令的线程上） */
+	final ThreadLocal<String> m_OutputFormat = new ThreadLocal<String>();
+	/** 是否在执行交互输入的命令，此时在终端按回车键请求停止 */
+	volatile boolean m_Executing;
+	/** 是否已请求停止当前命令（由m_StopLock保护） */
+	boolean m_StopRequested;
+	final Object m_StopLock = new Object();
+
+	/** 输入结束的标记 */
+	static final String END_OF_INPUT = new String();
 
 	Console() throws IOException {
+		m_Transport = new KeeperTransport();
+		m_Clusters = new TreeMap<String, String>();
 		m_Help = new HelpCommand(this);
 		m_Quit = new QuitCommand(this);
 
@@ -81,8 +132,16 @@ public class Console {
 		cmds.add(right);
 		TrafficCommand traffic = new TrafficCommand(this);
 		cmds.add(traffic);
+		CapacityCommand capacity = new CapacityCommand(this);
+		cmds.add(capacity);
+		BackupCommand backup = new BackupCommand(this);
+		cmds.add(backup);
+		RestoreCommand restore = new RestoreCommand(this);
+		cmds.add(restore);
 		ServiceDebugCommand serviceDebug = new ServiceDebugCommand(this);
 		cmds.add(serviceDebug);
+		StatsCommand stats = new StatsCommand(this);
+		cmds.add(stats);
 		cmds.add(m_Help);
 		cmds.add(m_Quit);
 
@@ -125,6 +184,9 @@ public class Console {
 		} catch (IOException e) {
 			// 忽略
 		}
+		for (String url : getNodeUrls()) {
+			m_Transport.warmUp(url);
+		}
 	}
 
 	File loadProperties(String filePath) throws FileNotFoundException, IOException {
@@ -158,6 +220,18 @@ public class Console {
 		if (!StringUtil.isEmpty(secret)) {
 			setSecret(secret);
 		}
+		int connectTimeout = NumberUtil.toInt(prop.getProperty(CONFIG_CONNECT_TIMEOUT), getConnectTimeout());
+		int readTimeout = NumberUtil.toInt(prop.getProperty(CONFIG_READ_TIMEOUT), getReadTimeout());
+		setTimeouts(connectTimeout, readTimeout);
+		String compress = prop.getProperty(CONFIG_COMPRESS);
+		if (!StringUtil.isEmpty(compress)) {
+			setCompress(Boolean.parseBoolean(compress));
+		}
+		for (String key : prop.stringPropertyNames()) {
+			if (key.startsWith(CONFIG_CLUSTER_PREFIX)) {
+				setCluster(key.substring(CONFIG_CLUSTER_PREFIX.length()), prop.getProperty(key));
+			}
+		}
 		return file;
 	}
 
@@ -176,6 +250,18 @@ public class Console {
 		if (!StringUtil.isEmpty(m_Secret)) {
 			prop.setProperty(CONFIG_SECRET, m_Secret);
 		}
+		if (getConnectTimeout() > 0) {
+			prop.setProperty(CONFIG_CONNECT_TIMEOUT, String.valueOf(getConnectTimeout()));
+		}
+		if (getReadTimeout() > 0) {
+			prop.setProperty(CONFIG_READ_TIMEOUT, String.valueOf(getReadTimeout()));
+		}
+		if (isCompress()) {
+			prop.setProperty(CONFIG_COMPRESS, "true");
+		}
+		for (Map.Entry<String, String> e : m_Clusters.entrySet()) {
+			prop.setProperty(CONFIG_CLUSTER_PREFIX + e.getKey(), e.getValue());
+		}
 		OutputStream out = null;
 		try {
 			out = new FileOutputStream(file);
@@ -209,10 +295,19 @@ public class Console {
 		getPrintStream().println("'" + m_Quit.getName() + "'退出");
 		getPrintStream().println();
 
-		BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
+		BlockingQueue<String> lines = new LinkedBlockingQueue<String>();
+		readInput(new BufferedReader(new InputStreamReader(System.in)), lines, null != System.console());
 		StringBuilder argBuffer = new StringBuilder();
 		while (true) {
-			String line = reader.readLine();
+			String line;
+			try {
+				line = lines.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			if (END_OF_INPUT == line) {
+				return;
+			}
 			if (StringUtil.isEmpty(line)) {
 				continue;
 			}
@@ -238,22 +333,281 @@ public class Console {
 				continue;
 			}
 
-			execute(args);
+			synchronized (m_StopLock) {
+				m_StopRequested = false;
+			}
+			m_Executing = true;
+			try {
+				execute(args);
+			} finally {
+				m_Executing = false;
+			}
 
 			getPrintStream().println();
 		}
 	}
 
+	/**
+	 * 由单独的线程读取输入，命令只经{@linkplain #awaitStop(long)}得知是否按了回车键，不直接读System.in
+	 * 
+	 * @param reader
+	 * @param lines
+	 *            读到的命令行，输入结束时放入{@linkplain #END_OF_INPUT}
+	 * @param interactive
+	 *            输入是否来自终端，是则命令执行期间输入的行作为停止请求；否则（如管道）只作为下一个命令
+	 */
+	void readInput(final BufferedReader reader, final BlockingQueue<String> lines, final boolean interactive) {
+		Thread t = new Thread("console-input") {
+			@Override
+			public void run() {
+				try {
+					String line;
+					while (null != (line = reader.readLine())) {
+						if (interactive && m_Executing) {
+							requestStop();
+							continue;
+						}
+						lines.add(line);
+					}
+				} catch (IOException e) {
+					getErrorStream().println("读取输入失败：" + e.getMessage());
+				} finally {
+					lines.add(END_OF_INPUT);
+				}
+			}
+		};
+		t.setDaemon(true);
+		t.start();
+	}
+
+	/**
+	 * 请求停止当前命令
+	 */
+	public void requestStop() {
+		synchronized (m_StopLock) {
+			m_StopRequested = true;
+			m_StopLock.notifyAll();
+		}
+	}
+
+	/**
+	 * 等待停止请求（在终端按回车键）
+	 * 
+	 * @param millis
+	 *            最长等待的毫秒数
+	 * @return 收到停止请求返回true，超时返回false
+	 * @throws InterruptedException
+	 */
+	public boolean awaitStop(long millis) throws InterruptedException {
+		long until = System.currentTimeMillis() + millis;
+		synchronized (m_StopLock) {
+			while (!m_StopRequested) {
+				long left = until - System.currentTimeMillis();
+				if (left <= 0) {
+					return false;
+				}
+				m_StopLock.wait(left);
+			}
+			return true;
+		}
+	}
+
 	void execute(List<String> args) {
+		args = new ArrayList<String>(args);
+		boolean trace = args.remove(OPTION_TRACE);
+		if (!trace) {
+			executeSafely(args);
+			return;
+		}
+		Trace.start();
+		try {
+			executeSafely(args);
+		} finally {
+			Trace t = Trace.stop();
+			PrintStream ps = getPrintStream();
+			ps.println();
+			ps.println("---- trace ----");
+			t.print(ps);
+		}
+	}
+
+	/**
+	 * 执行命令，全局选项（如--deadline、--output）的错误与命令的参数错误一样输出，不中断控制台
+	 */
+	private void executeSafely(List<String> args) {
+		try {
+			execute0(args);
+		} catch (CommonException e) {
+			getErrorStream().println(e.getMessage());
+		}
+	}
+
+	private void execute0(List<String> args) {
+		String deadline = takeOptionValue(args, OPTION_DEADLINE);
+		if (null == deadline) {
+			execute1(args);
+			return;
+		}
+		long millis = NumberUtil.toInt(deadline, 0);
+		if (millis <= 0) {
+			getPrintStream().println("无效的期限：" + deadline);
+			return;
+		}
+		Deadline.start(millis);
+		try {
+			execute1(args);
+		} finally {
+			Deadline.clear();
+		}
+	}
+
+	private void execute1(List<String> args) {
+		String output = takeOptionValue(args, OPTION_OUTPUT);
+		if (null == output) {
+			execute2(args);
+			return;
+		}
+		if (!RecordWriter.isFormat(output)) {
+			getPrintStream().println("无效的输出格式：" + output + "，可选：" + RecordWriter.FORMAT_JSONL + "、"
+					+ RecordWriter.FORMAT_CSV + "、" + RecordWriter.FORMAT_TSV);
+			return;
+		}
+		m_OutputFormat.set(output);
+		try {
+			execute2(args);
+		} finally {
+			m_OutputFormat.remove();
+		}
+	}
+
+	private void execute2(List<String> args) {
+		boolean allNodes = args.remove(OPTION_ALL_NODES);
+		String cluster = takeOptionValue(args, OPTION_CLUSTER);
+		if (args.isEmpty()) {
+			getPrintStream().println("缺少命令");
+			return;
+		}
 		Command cmd = find(args.get(0));
 		if (null == cmd) {
 			getPrintStream().println("无效命令：" + args.get(0));
+			return;
+		}
+		List<String> cmdArgs = args.subList(1, args.size());
+		if ((!allNodes && null == cluster) || !cmd.isNodeCommand()) {
+			cmd.execute(cmdArgs);
+			return;
+		}
+		List<String> nodes;
+		if (null != cluster) {
+			String urls = m_Clusters.get(cluster);
+			if (null == urls) {
+				getPrintStream().println("未配置集群：" + cluster);
+				return;
+			}
+			nodes = splitUrls(urls);
 		} else {
-			cmd.execute(args.subList(1, args.size()));
+			nodes = getNodeUrls();
+		}
+		executeOnNodes(cmd, cmdArgs, nodes);
+	}
+
+	/**
+	 * 在多个节点上并发执行命令，执行完成后按节点顺序输出
+	 * 
+	 * @param cmd
+	 * @param args
+	 * @param nodes
+	 */
+	void executeOnNodes(final Command cmd, final List<String> args, List<String> nodes) {
+		if (nodes.isEmpty()) {
+			getPrintStream().println("请使用setting命令设置url参数");
+			return;
+		}
+		final Trace trace = Trace.current();
+		final Long deadline = Deadline.current();
+		final String outputFormat = m_OutputFormat.get();
+		List<Thread> threads = new ArrayList<Thread>(nodes.size());
+		final List<ByteArrayOutputStream> outputs = new ArrayList<ByteArrayOutputStream>(nodes.size());
+		for (int i = 0; i < nodes.size(); i++) {
+			final String url = nodes.get(i);
+			final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			outputs.add(buffer);
+			Thread t = new Thread("node-" + i) {
+				@Override
+				public void run() {
+					PrintStream out = new PrintStream(buffer, true);
+					m_Context.set(new Context(url, out));
+					Trace.attach(trace);
+					Deadline.attach(deadline);
+					if (null != outputFormat) {
+						m_OutputFormat.set(outputFormat);
+					}
+					try {
+						cmd.execute(args);
+					} finally {
+						Trace.detach();
+						Deadline.clear();
+						m_OutputFormat.remove();
+						m_Context.remove();
+						out.flush();
+					}
+				}
+			};
+			t.setDaemon(true);
+			threads.add(t);
+			t.start();
+		}
+		PrintStream ps = getPrintStream();
+		for (int i = 0; i < threads.size(); i++) {
+			try {
+				threads.get(i).join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				ps.println("执行被中断");
+				return;
+			}
+			ps.println("==== [" + (i + 1) + "/" + nodes.size() + "] " + nodes.get(i) + " ====");
+			ByteArrayOutputStream buffer = outputs.get(i);
+			ps.write(buffer.toByteArray(), 0, buffer.size());
+			ps.println();
+		}
+	}
+
+	/**
+	 * 取出并移除选项的值
+	 * 
+	 * @param args
+	 * @param option
+	 * @return 没有此选项时返回null
+	 */
+	static String takeOptionValue(List<String> args, String option) {
+		int idx = args.indexOf(option);
+		if (-1 == idx) {
+			return null;
+		}
+		args.remove(idx);
+		if (idx >= args.size()) {
+			throw new ArgumentException("缺少选项'" + option + "'的值");
 		}
+		return args.remove(idx);
+	}
+
+	static List<String> splitUrls(String urls) {
+		if (StringUtil.isEmpty(urls)) {
+			return Collections.emptyList();
+		}
+		List<String> result = new ArrayList<String>();
+		for (String url : urls.split(",")) {
+			url = url.trim();
+			if (!url.isEmpty()) {
+				result.add(url);
+			}
+		}
+		return result;
 	}
 
 	void stop() {
+		m_Transport.close();
 		System.exit(0);
 	}
 
@@ -332,6 +686,77 @@ public class Console {
 		return m_ApiPreUrl;
 	}
 
+	/**
+	 * url所配置的全部节点，首个节点为默认节点
+	 * 
+	 * @return
+	 */
+	public List<String> getNodeUrls() {
+		return splitUrls(m_ApiPreUrl);
+	}
+
+	/**
+	 * 设置调用keeper的超时值
+	 * 
+	 * @param connectTimeout
+	 *            连接超时（毫秒），0表示不限制
+	 * @param readTimeout
+	 *            读取超时（毫秒），0表示不限制
+	 */
+	public void setTimeouts(int connectTimeout, int readTimeout) {
+		m_Transport.setTimeouts(connectTimeout, readTimeout);
+	}
+
+	public int getConnectTimeout() {
+		return m_Transport.getConnectTimeout();
+	}
+
+	public int getReadTimeout() {
+		return m_Transport.getReadTimeout();
+	}
+
+	public int getSocketConnectTimeout() {
+		return m_Transport.getSocketConnectTimeout();
+	}
+
+	public int getSocketReadTimeout() {
+		return m_Transport.getSocketReadTimeout();
+	}
+
+	/**
+	 * 设置是否要求keeper压缩响应
+	 * 
+	 * @param compress
+	 */
+	public void setCompress(boolean compress) {
+		m_Transport.setCompress(compress);
+		m_Keeper = null;
+	}
+
+	public boolean isCompress() {
+		return m_Transport.isCompress();
+	}
+
+	public Map<String, String> getClusters() {
+		return Collections.unmodifiableMap(m_Clusters);
+	}
+
+	/**
+	 * 设置命名的集群
+	 * 
+	 * @param name
+	 *            集群名
+	 * @param urls
+	 *            逗号分隔的keeper接口链接，为空时删除集群
+	 */
+	public void setCluster(String name, String urls) {
+		if (StringUtil.isEmpty(urls)) {
+			m_Clusters.remove(name);
+		} else {
+			m_Clusters.put(name, urls);
+		}
+	}
+
 	public void setApiPreUrl(String url) {
 		m_ApiPreUrl = url;
 		m_Keeper = null;
@@ -372,15 +797,49 @@ public class Console {
 		m_Commands = commands;
 	}
 
+	/**
+	 * 当前命令的输出格式
+	 * 
+	 * @return 为null时输出表格
+	 */
+	public String getOutputFormat() {
+		return m_OutputFormat.get();
+	}
+
+	public KeeperTransport getTransport() {
+		return m_Transport;
+	}
+
 	public PrintStream getPrintStream() {
+		Context ctx = m_Context.get();
+		if (null != ctx) {
+			return ctx.m_Out;
+		}
 		return System.out;
 	}
 
 	public PrintStream getErrorStream() {
+		Context ctx = m_Context.get();
+		if (null != ctx) {
+			return ctx.m_Out;
+		}
 		return System.err;
 	}
 
 	public Keeper getKeeper() {
+		long begin = System.nanoTime();
+		try {
+			return getKeeper0();
+		} finally {
+			Metrics.record(Metrics.GET_KEEPER, System.nanoTime() - begin);
+		}
+	}
+
+	private Keeper getKeeper0() {
+		Context ctx = m_Context.get();
+		if (null != ctx && null != ctx.m_Url) {
+			return m_Transport.open(ctx.m_Url, m_AccessId, m_AccessKey, m_Secret);
+		}
 		Keeper keeper = m_Keeper;
 		if (null != keeper) {
 			return keeper;
@@ -390,23 +849,90 @@ public class Console {
 			if (null != keeper) {
 				return keeper;
 			}
-			if (StringUtil.isEmpty(m_ApiPreUrl)) {
-				throw new CommonException("请使用setting命令设置url参数");
+			List<String> nodes = getNodeUrls();
+			m_Keeper = m_Transport.open(nodes.isEmpty() ? null : nodes.get(0), m_AccessId, m_AccessKey, m_Secret);
+			keeper = m_Keeper;
+		}
+		return keeper;
+	}
+
+	/**
+	 * 异步调用keeper所使用的线程池
+	 * 
+	 * @return
+	 */
+	public ExecutorService getExecutor() {
+		ExecutorService executor = m_Executor;
+		if (null != executor) {
+			return executor;
+		}
+		synchronized (this) {
+			if (null == m_Executor) {
+				m_Executor = AsyncKeeper.newExecutor(AsyncKeeper.THREADS_DEFAULT);
 			}
-			if (!StringUtil.isEmpty(m_Secret)) {
-				try {
-					m_Keeper = new HttpKeeper(m_ApiPreUrl, m_Secret);
-				} catch (NoSuchAlgorithmException e) {
-					throw new CommonException("初始keeper错误", e);
+			executor = m_Executor;
+		}
+		return executor;
+	}
+
+	/**
+	 * 异步调用keeper所使用的线程池，线程数不足parallel时扩充
+	 * 
+	 * @param parallel
+	 *            需要的并发数
+	 * @return
+	 */
+	public ExecutorService getExecutor(int parallel) {
+		ExecutorService executor = getExecutor();
+		AsyncKeeper.ensureThreads(executor, parallel);
+		return executor;
+	}
+
+	public AsyncKeeper getAsyncKeeper() {
+		return new AsyncKeeper(getKeeper(), getExecutor());
+	}
+
+	public AsyncKeeper getAsyncKeeper(int parallel) {
+		return new AsyncKeeper(getKeeper(), getExecutor(parallel));
+	}
+
+	/**
+	 * 获取当前keeper的微服务注册表缓存
+	 * 
+	 * @return
+	 */
+	public ServiceRegistryCache getRegistryCache() {
+		Keeper keeper = getKeeper();
+		synchronized (m_RegistryCaches) {
+			ServiceRegistryCache cache = m_RegistryCaches.get(keeper);
+			if (null == cache) {
+				// 顺便丢弃已闲置的（通常是切换url或凭证前的）
+				Iterator<ServiceRegistryCache> it = m_RegistryCaches.values().iterator();
+				while (it.hasNext()) {
+					if (it.next().isIdle()) {
+						it.remove();
+					}
 				}
-			} else if (!StringUtil.isEmpty(m_AccessId) && !StringUtil.isEmpty(m_AccessKey)) {
-				m_Keeper = new HttpKeeper(m_ApiPreUrl, m_AccessId, m_AccessKey);
-			} else {
-				throw new CommonException("请使用setting命令设置secret或access-id、access-key参数");
+				cache = new ServiceRegistryCache(keeper);
+				m_RegistryCaches.put(keeper, cache);
 			}
-			keeper = m_Keeper;
+			return cache;
+		}
+	}
+
+	/**
+	 * 执行命令的上下文
+	 */
+	static class Context {
+		/** 节点的keeper接口链接 */
+		final String m_Url;
+		/** 命令的输出 */
+		final PrintStream m_Out;
+
+		Context(String url, PrintStream out) {
+			m_Url = url;
+			m_Out = out;
 		}
-		return keeper;
 	}
 
 	public static void main(String[] args) throws IOException {
@@ -414,7 +940,11 @@ public class Console {
 		console.init();
 
 		if (null != args && args.length > 0) {
-			console.execute(Arrays.asList(args));
+			try {
+				console.execute(Arrays.asList(args));
+			} finally {
+				console.getTransport().close();
+			}
 		} else {
 			console.start();
 		}
@@ -39,6 +39,11 @@ public class HelpCommand extends Command {
 		return "help";
 	}
 
+	@Override
+	boolean isNodeCommand() {
+		return false;
+	}
+
 	@Override
 	String getSynopsis() {
 		return "显示命令的帮助信息";
@@ -92,5 +97,25 @@ public class HelpCommand extends Command {
 			table.nextRow();
 		}
 		table.print(getPrintStream());
+
+		ps.println();
+		ps.println("全局选项（可附加在任意命令后）：");
+		FitTable options = new FitTable();
+		options.addCell("  " + Console.OPTION_ALL_NODES);
+		options.addCell("    在url所配置的全部网关节点上并发执行");
+		options.nextRow();
+		options.addCell("  " + Console.OPTION_CLUSTER + " name");
+		options.addCell("    在指定集群的全部网关节点上并发执行");
+		options.nextRow();
+		options.addCell("  " + Console.OPTION_TRACE);
+		options.addCell("    输出命令各环节的耗时");
+		options.nextRow();
+		options.addCell("  " + Console.OPTION_DEADLINE + " millis");
+		options.addCell("    命令的期限，超过时取消未完成的keeper调用，已输出的结果保留");
+		options.nextRow();
+		options.addCell("  " + Console.OPTION_OUTPUT + " jsonl|csv|tsv");
+		options.addCell("    以机器可读的格式输出微服务、凭证、权限表、流量表等列表");
+		options.nextRow();
+		options.print(ps);
 	}
 }
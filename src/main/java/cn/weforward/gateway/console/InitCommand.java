@@ -11,12 +11,15 @@
 package cn.weforward.gateway.console;
 
 import java.io.PrintStream;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Future;
 
 import cn.weforward.common.ResultPage;
 import cn.weforward.common.util.ListUtil;
 import cn.weforward.common.util.ResultPageHelper;
+import cn.weforward.gateway.console.keeper.AsyncKeeper;
 import cn.weforward.protocol.Access;
 import cn.weforward.protocol.ServiceName;
 import cn.weforward.protocol.gateway.Keeper;
@@ -59,20 +62,29 @@ public class InitCommand extends Command {
 
 	@Override
 	void executeInner(List<Argument> args) {
-		AccessExt access = initDevopsServiceAccess();
-
-		initKeeperApiRightTable(access);
-
-		initDevopsServiceRightTable();
-
-		initServiceRegisterApiRightTable();
+		// 先并发查询现状，再按依赖顺序初始化
+		AsyncKeeper async = getAsyncKeeper();
+		Future<ResultPage<AccessExt>> accesses = async.listAccess(Access.KIND_SERVICE, null, "devops");
+		Future<RightTable> keeperTable = async.getRightTable(ServiceName.KEEPER.name);
+		Future<RightTable> devopsTable = async.getRightTable("devops");
+		Future<RightTable> registerTable = async.getRightTable(ServiceName.SERVICE_REGISTER.name);
+		try {
+			AccessExt access = initDevopsServiceAccess(AsyncKeeper.join(accesses));
+
+			initKeeperApiRightTable(access, AsyncKeeper.join(keeperTable));
+
+			initDevopsServiceRightTable(AsyncKeeper.join(devopsTable));
+
+			initServiceRegisterApiRightTable(AsyncKeeper.join(registerTable));
+		} finally {
+			AsyncKeeper.cancel(Arrays.asList(accesses, keeperTable, devopsTable, registerTable));
+		}
 	}
 
-	AccessExt initDevopsServiceAccess() {
+	AccessExt initDevopsServiceAccess(ResultPage<AccessExt> accesses) {
 		Keeper keeper = getKeeper();
 		String serviceName = "devops";
 		AccessExt serviceAccess = null;
-		ResultPage<AccessExt> accesses = keeper.listAccess(Access.KIND_SERVICE, null, serviceName);
 		for (AccessExt acc : ResultPageHelper.toForeach(accesses)) {
 			if (acc.getSummary().equals(serviceName)) {
 				serviceAccess = acc;
@@ -90,10 +102,9 @@ public class InitCommand extends Command {
 		return serviceAccess;
 	}
 
-	void initDevopsServiceRightTable() {
+	void initDevopsServiceRightTable(RightTable table) {
 		Keeper keeper = getKeeper();
 		String serviceName = "devops";
-		RightTable table = keeper.getRightTable(serviceName);
 		PrintStream ps = getPrintStream();
 		if (null == table || ListUtil.isEmpty(table.getItems())) {
 			RightTableItemVo ri = new RightTableItemVo();
@@ -115,10 +126,9 @@ public class InitCommand extends Command {
 		RightCommand.show(table, ps);
 	}
 
-	void initKeeperApiRightTable(AccessExt devopsAccess) {
+	void initKeeperApiRightTable(AccessExt devopsAccess, RightTable table) {
 		Keeper keeper = getKeeper();
 		String apiName = ServiceName.KEEPER.name;
-		RightTable table = keeper.getRightTable(apiName);
 		PrintStream ps = getPrintStream();
 		if (null != table && table.getItems().size() >= 2) {
 			ps.println("Api'" + apiName + "'权限表已存在");
@@ -134,10 +144,9 @@ public class InitCommand extends Command {
 		RightCommand.show(table, ps);
 	}
 
-	void initServiceRegisterApiRightTable() {
+	void initServiceRegisterApiRightTable(RightTable table) {
 		Keeper keeper = getKeeper();
 		String apiName = ServiceName.SERVICE_REGISTER.name;
-		RightTable table = keeper.getRightTable(apiName);
 		PrintStream ps = getPrintStream();
 		if (null == table || ListUtil.isEmpty(table.getItems())) {
 			RightTableItemVo vo = new RightTableItemVo();
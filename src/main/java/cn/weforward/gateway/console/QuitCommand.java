@@ -30,6 +30,11 @@ public class QuitCommand extends Command {
 		return "quit";
 	}
 
+	@Override
+	boolean isNodeCommand() {
+		return false;
+	}
+
 	@Override
 	String getSynopsis() {
 		return "退出";
@@ -0,0 +1,334 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.console;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import cn.weforward.gateway.console.exception.ArgumentException;
+import cn.weforward.gateway.console.exception.CommonException;
+import cn.weforward.gateway.console.keeper.AsyncKeeper;
+import cn.weforward.gateway.console.util.ConfigArchive;
+import cn.weforward.gateway.console.util.FitTable;
+import cn.weforward.gateway.console.util.RecordWriter;
+import cn.weforward.gateway.console.util.TableConverger;
+import cn.weforward.protocol.gateway.Keeper;
+import cn.weforward.protocol.ops.AccessExt;
+import cn.weforward.protocol.ops.secure.RightTableItem;
+import cn.weforward.protocol.ops.traffic.TrafficTableItem;
+
+/**
+ * 'restore'命令
+ * 
+ * @author zhangpengji
+ *
+ */
+public class RestoreCommand extends Command {
+
+	/** 默认同时恢复的微服务数，每个微服务依次调用，与keeper的线程数相同 */
+	static final int PARALLEL_DEFAULT = AsyncKeeper.THREADS_DEFAULT;
+
+	Option m_File;
+	Option m_DryRun;
+	Option m_Parallel;
+	List<Option> m_Options;
+
+	protected RestoreCommand(Console console) {
+		super(console);
+
+		m_File = new Option("file").setSecondOption(true).setValues("file").setDesc("backup命令生成的备份文件");
+		m_DryRun = new Option("dry-run").setSecondOption(true).setDesc("只列出要执行的修改");
+		m_Parallel = new Option("parallel").setSecondOption(true).setValues("count")
+				.setDesc("同时恢复的微服务数，默认为" + PARALLEL_DEFAULT + "，最大为" + AsyncKeeper.THREADS_MAX);
+		m_Options = Arrays.asList(m_File, m_DryRun, m_Parallel);
+	}
+
+	@Override
+	String getName() {
+		return "restore";
+	}
+
+	@Override
+	boolean isNodeCommand() {
+		return false;
+	}
+
+	@Override
+	String getSynopsis() {
+		return "按备份文件恢复网关配置，只执行最少的修改";
+	}
+
+	@Override
+	List<String> getUsages() {
+		return Arrays.asList("restore --file file [--dry-run] [--parallel " + PARALLEL_DEFAULT + "]");
+	}
+
+	@Override
+	List<Option> getOptions() {
+		return m_Options;
+	}
+
+	@Override
+	void executeInner(List<Argument> args) {
+		String path = Argument.getValue(args, m_File);
+		if (null == path) {
+			throw ArgumentException.missArgument(m_File);
+		}
+		int parallel = toParallel(Argument.getValue(args, m_Parallel), PARALLEL_DEFAULT);
+		restore(new File(path), Argument.contain(args, m_DryRun), parallel);
+	}
+
+	/**
+	 * 先完整读取并校验备份文件，再恢复访问凭证，最后同时恢复各微服务的流量表及权限表
+	 */
+	void restore(File file, boolean dryRun, int parallel) {
+		List<Map<String, Object>> entries;
+		try {
+			entries = ConfigArchive.read(file);
+		} catch (IOException e) {
+			throw new CommonException("读取备份文件出错，" + e.getMessage());
+		}
+		List<Map<String, Object>> accesses = new ArrayList<Map<String, Object>>();
+		Map<String, Result> services = new TreeMap<String, Result>();
+		for (int i = 0; i < entries.size(); i++) {
+			Map<String, Object> entry = entries.get(i);
+			Object type = entry.get("type");
+			if (ConfigArchive.TYPE_ACCESS.equals(type)) {
+				accesses.add(entry);
+				continue;
+			}
+			String name = TrafficCommand.toStr(entry.get("service"));
+			if (null == name) {
+				continue;
+			}
+			Result r = services.get(name);
+			if (null == r) {
+				r = new Result(name);
+				services.put(name, r);
+			}
+			if (ConfigArchive.TYPE_TRAFFIC.equals(type)) {
+				r.m_Traffic = new ArrayList<TrafficTableItem>();
+				for (Map<?, ?> m : getItems(entry, i)) {
+					try {
+						r.m_Traffic.add(TrafficCommand.toItem(m));
+					} catch (ArgumentException e) {
+						throw badEntry(entry, i, e.getMessage());
+					}
+				}
+			} else if (ConfigArchive.TYPE_RIGHT.equals(type)) {
+				r.m_Right = new ArrayList<RightTableItem>();
+				for (Map<?, ?> m : getItems(entry, i)) {
+					r.m_Right.add(RightCommand.toItem(m));
+				}
+			}
+		}
+
+		Keeper keeper = getKeeper();
+		long begin = System.currentTimeMillis();
+		restoreAccesses(keeper, accesses, dryRun);
+		List<Result> results = new ArrayList<Result>(services.values());
+		AsyncKeeper async = getAsyncKeeper(parallel);
+		List<Future<Result>> futures = new ArrayList<Future<Result>>(results.size());
+		try {
+			int submitted = 0;
+			for (int i = 0; i < results.size(); i++) {
+				while (submitted < results.size() && submitted - i < parallel) {
+					futures.add(async.submit(newTask(keeper, results.get(submitted++), dryRun)));
+				}
+				AsyncKeeper.join(futures.get(i));
+				futures.set(i, null);
+			}
+		} finally {
+			AsyncKeeper.cancel(futures);
+		}
+		show(results, dryRun, System.currentTimeMillis() - begin);
+	}
+
+	/**
+	 * 恢复一个微服务的任务，出错时记在结果中，不影响其它微服务
+	 */
+	static Callable<Result> newTask(final Keeper keeper, final Result r, final boolean dryRun) {
+		return new Callable<Result>() {
+
+			@Override
+			public Result call() {
+				try {
+					if (null != r.m_Traffic) {
+						r.m_TrafficEdits = TrafficCommand.converge(keeper, r.m_Name, r.m_Traffic, dryRun).getEdits();
+					}
+					if (null != r.m_Right) {
+						r.m_RightEdits = RightCommand.converge(keeper, r.m_Name, r.m_Right, dryRun);
+					}
+				} catch (RuntimeException e) {
+					r.m_Error = e;
+				}
+				return r;
+			}
+		};
+	}
+
+	/**
+	 * 访问凭证的密钥由网关生成，无法以原有的标识重建，只恢复现有凭证的描述及是否有效
+	 */
+	void restoreAccesses(Keeper keeper, List<Map<String, Object>> accesses, boolean dryRun) {
+		if (accesses.isEmpty()) {
+			return;
+		}
+		Map<String, AccessExt> current = new HashMap<String, AccessExt>();
+		for (String kind : BackupCommand.ACCESS_KINDS) {
+			for (AccessExt acc : AccessCommand.listAll(keeper, kind)) {
+				current.put(acc.getAccessId(), acc);
+			}
+		}
+		int same = 0;
+		List<String> updates = new ArrayList<String>();
+		List<String> missing = new ArrayList<String>();
+		for (Map<String, Object> m : accesses) {
+			String id = TrafficCommand.toStr(m.get("id"));
+			String summary = TrafficCommand.toStr(m.get("summary"));
+			boolean valid = Boolean.TRUE.equals(m.get("valid"));
+			AccessExt acc = current.get(id);
+			if (null == acc) {
+				missing.add(id);
+			} else if (TrafficCommand.eq(summary, acc.getSummary()) && valid == acc.isValid()) {
+				same++;
+			} else {
+				if (!dryRun) {
+					keeper.updateAccess(id, summary, valid);
+				}
+				updates.add(id);
+			}
+		}
+		if (isRecordOutput()) {
+			return;
+		}
+		PrintStream ps = getPrintStream();
+		ps.println("访问凭证：相同" + same + "个，" + (dryRun ? "需修改" : "已修改") + updates.size() + "个，网关中没有"
+				+ missing.size() + "个");
+		if (!updates.isEmpty()) {
+			ps.println("  修改：" + updates);
+		}
+		if (!missing.isEmpty()) {
+			ps.println("  没有（需用acc -A重新创建并更新使用方）：" + missing);
+		}
+	}
+
+	void show(List<Result> results, boolean dryRun, long elapsed) {
+		RecordWriter writer = openRecordWriter("service", "traffic_edits", "right_edits", "error");
+		if (null != writer) {
+			for (Result r : results) {
+				writer.write(r.m_Name, r.m_TrafficEdits.size(), r.m_RightEdits.size(), r.getErrorMessage());
+			}
+			writer.flush();
+			return;
+		}
+		PrintStream ps = getPrintStream();
+		int changed = 0;
+		int failed = 0;
+		FitTable table = new FitTable(true, 1, 1);
+		table.addCell("微服务");
+		table.addCell("流量表修改");
+		table.addCell("权限表修改");
+		table.addCell("错误");
+		for (Result r : results) {
+			if (null != r.m_Error) {
+				failed++;
+			} else if (r.m_TrafficEdits.isEmpty() && r.m_RightEdits.isEmpty()) {
+				continue;
+			} else {
+				changed++;
+			}
+			table.nextRow();
+			table.addCell(r.m_Name);
+			table.addCell(String.valueOf(r.m_TrafficEdits.size()));
+			table.addCell(String.valueOf(r.m_RightEdits.size()));
+			table.addCell(r.getErrorMessage());
+		}
+		ps.println("微服务：" + results.size() + "个，" + (dryRun ? "需修改" : "已修改") + changed + "个，失败" + failed
+				+ "个，耗时" + elapsed + "ms");
+		if (0 == changed + failed) {
+			return;
+		}
+		table.print(ps);
+		if (!dryRun) {
+			return;
+		}
+		for (Result r : results) {
+			for (TableConverger.Edit<TrafficTableItem> e : r.m_TrafficEdits) {
+				ps.println(r.m_Name + " 流量表 " + e);
+			}
+			for (TableConverger.Edit<RightTableItem> e : r.m_RightEdits) {
+				ps.println(r.m_Name + " 权限表 " + e);
+			}
+		}
+	}
+
+	/**
+	 * 备份项中的规则列表
+	 * 
+	 * @param entry
+	 *            流量表或权限表的备份项
+	 * @param index
+	 *            备份项的序号
+	 */
+	static List<Map<?, ?>> getItems(Map<String, Object> entry, int index) {
+		Object items = entry.get("items");
+		if (!(items instanceof List)) {
+			throw badEntry(entry, index, "items不是数组：" + items);
+		}
+		List<Map<?, ?>> result = new ArrayList<Map<?, ?>>(((List<?>) items).size());
+		for (Object v : (List<?>) items) {
+			if (!(v instanceof Map)) {
+				throw badEntry(entry, index, "规则不是JSON对象：" + v);
+			}
+			result.add((Map<?, ?>) v);
+		}
+		return result;
+	}
+
+	static CommonException badEntry(Map<String, Object> entry, int index, String message) {
+		return new CommonException("备份文件格式错误，第" + (index + 1) + "项（" + entry.get("type") + " "
+				+ entry.get("service") + "）" + message);
+	}
+
+	/**
+	 * 一个微服务的恢复结果
+	 */
+	static class Result {
+		final String m_Name;
+		List<TrafficTableItem> m_Traffic;
+		List<RightTableItem> m_Right;
+		List<TableConverger.Edit<TrafficTableItem>> m_TrafficEdits = Collections.emptyList();
+		List<TableConverger.Edit<RightTableItem>> m_RightEdits = Collections.emptyList();
+		RuntimeException m_Error;
+
+		Result(String name) {
+			m_Name = name;
+		}
+
+		String getErrorMessage() {
+			if (null == m_Error) {
+				return null;
+			}
+			return (null == m_Error.getMessage()) ? m_Error.toString() : m_Error.getMessage();
+		}
+	}
+}
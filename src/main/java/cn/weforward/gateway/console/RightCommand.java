@@ -12,13 +12,20 @@ package cn.weforward.gateway.console;
 
 import java.io.PrintStream;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import cn.weforward.common.util.ListUtil;
+import cn.weforward.common.util.StringUtil;
 import cn.weforward.gateway.console.exception.ArgumentException;
 import cn.weforward.gateway.console.util.FitTable;
+import cn.weforward.gateway.console.util.RecordWriter;
+import cn.weforward.gateway.console.util.TableConverger;
 import cn.weforward.protocol.Access;
 import cn.weforward.protocol.gateway.Keeper;
+import cn.weforward.protocol.gateway.exception.KeeperException;
 import cn.weforward.protocol.gateway.vo.RightTableItemVo;
 import cn.weforward.protocol.gateway.vo.RightTableItemWrap;
 import cn.weforward.protocol.ops.secure.RightTable;
@@ -32,6 +39,29 @@ import cn.weforward.protocol.ops.secure.RightTableItem;
  */
 public class RightCommand extends Command {
 
+	/** 各项设置都相同的规则视为相同 */
+	static final TableConverger<RightTableItem> CONVERGER = new TableConverger<RightTableItem>(
+			new TableConverger.Equality<RightTableItem>() {
+
+				@Override
+				public boolean equals(RightTableItem a, RightTableItem b) {
+					return TrafficCommand.eq(a.getName(), b.getName())
+							&& TrafficCommand.eq(a.getAccessId(), b.getAccessId())
+							&& TrafficCommand.eq(a.getAccessKind(), b.getAccessKind())
+							&& TrafficCommand.eq(a.getAccessGroup(), b.getAccessGroup()) && a.isAllow() == b.isAllow()
+							&& TrafficCommand.eq(a.getDescription(), b.getDescription());
+				}
+			}, new TableConverger.Describer<RightTableItem>() {
+
+				@Override
+				public String describe(RightTableItem item) {
+					return "access_id=" + StringUtil.toString(item.getAccessId()) + " access_kind="
+							+ StringUtil.toString(item.getAccessKind()) + " access_group="
+							+ StringUtil.toString(item.getAccessGroup()) + " allow=" + item.isAllow() + " name="
+							+ StringUtil.toString(item.getName());
+				}
+			});
+
 	Option m_Print;
 	Option m_Append;
 	Option m_Insert;
@@ -226,7 +256,105 @@ public class RightCommand extends Command {
 		show(serviceName, table);
 	}
 
+	/**
+	 * 把权限表修改为目标规则
+	 * 
+	 * @param dryRun
+	 *            只计算不执行
+	 * @return 需要（或已执行）的修改项
+	 */
+	static List<TableConverger.Edit<RightTableItem>> converge(final Keeper keeper, final String name,
+			List<RightTableItem> desired, boolean dryRun) {
+		RightTable table = keeper.getRightTable(name);
+		List<RightTableItem> current = (null == table || null == table.getItems())
+				? Collections.<RightTableItem> emptyList()
+				: table.getItems();
+		List<TableConverger.Edit<RightTableItem>> edits = CONVERGER.plan(current, desired);
+		if (dryRun || edits.isEmpty()) {
+			return edits;
+		}
+		final int[] size = { current.size() };
+		TableConverger.apply(edits, new TableConverger.Editor<RightTableItem>() {
+
+			@Override
+			public void insert(int index, RightTableItem item) {
+				// 插到末尾的用追加
+				if (index >= size[0]) {
+					keeper.appendRightRule(name, item);
+				} else {
+					keeper.insertRightRule(name, item, index);
+				}
+				size[0]++;
+			}
+
+			@Override
+			public void move(int from, int to) {
+				keeper.moveRightRule(name, from, to);
+			}
+
+			@Override
+			public void replace(int index, RightTableItem item, RightTableItem target) {
+				try {
+					keeper.replaceRightRule(name, item, index, target.getName());
+				} catch (KeeperException e) {
+					throw TrafficCommand.staleRule(name, index, target.getName(), e);
+				}
+			}
+
+			@Override
+			public void remove(int index, RightTableItem target) {
+				try {
+					keeper.removeRightRule(name, index, target.getName());
+				} catch (KeeperException e) {
+					throw TrafficCommand.staleRule(name, index, target.getName(), e);
+				}
+				size[0]--;
+			}
+		});
+		return edits;
+	}
+
+	/**
+	 * 由JSON对象生成规则，字段与记录输出的相同
+	 */
+	static RightTableItem toItem(Map<?, ?> m) {
+		RightTableItemVo item = new RightTableItemVo();
+		item.name = TrafficCommand.toStr(m.get("name"));
+		item.accessId = TrafficCommand.toStr(m.get("access_id"));
+		item.accessKind = TrafficCommand.toStr(m.get("access_kind"));
+		item.accessGroup = TrafficCommand.toStr(m.get("access_group"));
+		item.allow = Boolean.TRUE.equals(m.get("allow"));
+		item.description = TrafficCommand.toStr(m.get("description"));
+		return new RightTableItemWrap(item);
+	}
+
+	/**
+	 * 规则转为JSON对象，与{@link #toItem(Map)}对应
+	 */
+	static Map<String, Object> toMap(RightTableItem item) {
+		Map<String, Object> m = new LinkedHashMap<String, Object>();
+		m.put("name", item.getName());
+		m.put("access_id", item.getAccessId());
+		m.put("access_kind", item.getAccessKind());
+		m.put("access_group", item.getAccessGroup());
+		m.put("allow", item.isAllow());
+		m.put("description", item.getDescription());
+		return m;
+	}
+
 	void show(String serviceName, RightTable rt) {
+		RecordWriter writer = openRecordWriter("service", "index", "name", "access_id", "access_kind", "access_group",
+				"allow", "description");
+		if (null != writer) {
+			List<RightTableItem> items = (null == rt) ? null : rt.getItems();
+			for (int i = 0; null != items && i < items.size(); i++) {
+				RightTableItem item = items.get(i);
+				writer.write(serviceName, i, item.getName(), item.getAccessId(), item.getAccessKind(),
+						item.getAccessGroup(), item.isAllow(), item.getDescription());
+			}
+			writer.flush();
+			return;
+		}
 		PrintStream ps = getPrintStream();
 		ps.println(serviceName + "的权限表");
 		show(rt, ps);
@@ -10,15 +10,46 @@
  */
 package cn.weforward.gateway.console;
 
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 import cn.weforward.common.ResultPage;
 import cn.weforward.common.util.ListUtil;
 import cn.weforward.common.util.NumberUtil;
 import cn.weforward.common.util.TimeUtil;
 import cn.weforward.gateway.console.exception.ArgumentException;
+import cn.weforward.gateway.console.exception.CommonException;
+import cn.weforward.gateway.console.keeper.AsyncKeeper;
+import cn.weforward.gateway.console.keeper.ResultPages;
+import cn.weforward.gateway.console.registry.HeartbeatStats;
+import cn.weforward.gateway.console.registry.RegistrySnapshot;
+import cn.weforward.gateway.console.registry.ServiceIndex;
+import cn.weforward.gateway.console.registry.ServiceInstance;
+import cn.weforward.gateway.console.registry.ServiceRegistryCache;
+import cn.weforward.gateway.console.registry.ServiceSummary;
 import cn.weforward.gateway.console.util.FitTable;
+import cn.weforward.gateway.console.util.FixTable;
+import cn.weforward.gateway.console.util.Metrics;
+import cn.weforward.gateway.console.util.RecordWriter;
 import cn.weforward.protocol.gateway.Keeper;
 import cn.weforward.protocol.gateway.SearchServiceParams;
 import cn.weforward.protocol.ops.ServiceExt;
@@ -31,10 +62,39 @@ import cn.weforward.protocol.ops.ServiceExt;
  */
 public class ServiceCommand extends Command {
 
+	/** 逐页输出全部时，默认的页面项数 */
+	static final int ALL_PAGE_SIZE_DEFAULT = 100;
+	/** 监视时默认的查询间隔（秒） */
+	static final int WATCH_INTERVAL_DEFAULT = 5;
+	/** 没有变化时，查询间隔最多退避到的倍数 */
+	static final int WATCH_BACKOFF_MAX = 8;
+	/** 心跳时长的默认警戒值（秒） */
+	static final int HEARTBEAT_WARN_DEFAULT = 20;
+	/** 默认列出心跳最旧的实例数 */
+	static final int HEARTBEAT_TOP_DEFAULT = 10;
+	/** 多关键字查询时默认的并发数 */
+	static final int PARALLEL_DEFAULT = 4;
+	static final String[] HEADERS = { "名称", "编号", "版本", "心跳时间", "状态", "链接" };
+	static final String[] RECORD_FIELDS = { "name", "no", "version", "heartbeat", "inaccessible", "unavailable",
+			"overload", "timeout", "urls" };
+
 	Option m_Print;
 	Option m_Keyword;
 	Option m_Page;
 	Option m_PageSize;
+	Option m_All;
+	Option m_Watch;
+	Option m_Interval;
+	Option m_Summary;
+	Option m_Cached;
+	Option m_Heartbeat;
+	Option m_Warn;
+	Option m_Top;
+	Option m_Snapshot;
+	Option m_Diff;
+	Option m_Keywords;
+	Option m_KeywordFile;
+	Option m_Parallel;
 	List<Option> m_Options;
 
 	protected ServiceCommand(Console console) {
@@ -44,7 +104,35 @@ public class ServiceCommand extends Command {
 		m_Keyword = new Option("keyword").setSecondOption(true).setValues("keyword").setDesc("搜索关键字");
 		m_Page = new Option("page").setSecondOption(true).setValues("page").setDesc("分页数据集的当前页");
 		m_PageSize = new Option("page-size").setSecondOption(true).setValues("page-size").setDesc("分页数据集的页面项数");
-		m_Options = Arrays.asList(m_Print, m_Keyword, m_Page, m_PageSize);
+		m_All = new Option("all").setSecondOption(true)
+				.setDesc("逐页输出全部，输出当前页的同时在后台获取下一页。此时page-size默认为" + ALL_PAGE_SIZE_DEFAULT);
+		m_Watch = new Option("watch").setSecondOption(true)
+				.setDesc("监视微服务实例，定时查询并只输出变化（新增、移除、版本及状态变化），没有变化时逐渐放慢查询。按回车键停止");
+		m_Interval = new Option("interval").setSecondOption(true).setValues("seconds")
+				.setDesc("监视的查询间隔（秒），默认为" + WATCH_INTERVAL_DEFAULT);
+		m_Summary = new Option("summary").setSecondOption(true)
+				.setDesc("按微服务名称汇总各实例的状态、版本及最旧的心跳。此时page-size默认为" + ALL_PAGE_SIZE_DEFAULT);
+		m_Cached = new Option("cached").setSecondOption(true)
+				.setDesc("在本地缓存中查询（首次使用时加载，之后在后台定时刷新，刷新间隔可由interval指定，默认"
+						+ ServiceRegistryCache.REFRESH_INTERVAL_DEFAULT / 1000 + "秒）。关键字匹配名称、编号、版本及链接，以*结尾的按前缀匹配");
+		m_Heartbeat = new Option("heartbeat").setSecondOption(true)
+				.setDesc("统计全部实例距上次心跳的时长（分布、百分位、最旧的实例及各微服务），并标出将要超时的实例。逐页统计，不保留实例");
+		m_Warn = new Option("warn").setSecondOption(true).setValues("seconds")
+				.setDesc("心跳时长超过此值的实例视为将要超时，默认为" + HEARTBEAT_WARN_DEFAULT);
+		m_Top = new Option("top").setSecondOption(true).setValues("count")
+				.setDesc("列出心跳最旧的实例及微服务数，默认为" + HEARTBEAT_TOP_DEFAULT);
+		m_Snapshot = new Option("snapshot").setSecondOption(true).setValues("file")
+				.setDesc("把全部实例按名称+编号排序后保存为快照文件");
+		m_Diff = new Option("diff").setSecondOption(true).setValues("from", "to")
+				.setDesc("比较两个快照文件，列出新增、移除及版本、状态、链接有变化的实例");
+		m_Keywords = new Option("keywords").setSecondOption(true).setValues("k1,k2,...")
+				.setDesc("以逗号分隔的多个关键字，并发查询后按名称+编号去重合并输出");
+		m_KeywordFile = new Option("keyword-file").setSecondOption(true).setValues("file")
+				.setDesc("从文件读取多个关键字，每行一个，忽略空行及#开头的行");
+		m_Parallel = new Option("parallel").setSecondOption(true).setValues("count")
+				.setDesc("多关键字查询的并发数，默认为" + PARALLEL_DEFAULT + "，最大为" + AsyncKeeper.THREADS_MAX);
+		m_Options = Arrays.asList(m_Print, m_Keyword, m_Page, m_PageSize, m_All, m_Watch, m_Interval, m_Summary,
+				m_Cached, m_Heartbeat, m_Warn, m_Top, m_Snapshot, m_Diff, m_Keywords, m_KeywordFile, m_Parallel);
 	}
 
 	@Override
@@ -65,7 +153,15 @@ public class ServiceCommand extends Command {
 	@Override
 	List<String> getUsages() {
 		String list = "sc -P [--keyword keyword] [--page 1] [--page-size 10]";
-		return Arrays.asList(list);
+		String all = "svc -P --all [--keyword keyword] [--page-size 100]";
+		String watch = "svc --watch [--keyword keyword] [--interval 5]";
+		String summary = "svc --summary [--keyword keyword]";
+		String cached = "svc -P --cached [--keyword keyword] [--page 1] [--page-size 10] [--interval 10]";
+		String heartbeat = "svc --heartbeat [--keyword keyword] [--warn 20] [--top 10]";
+		String snapshot = "svc --snapshot file [--keyword keyword]";
+		String diff = "svc --diff from to";
+		String multi = "svc -P (--keywords k1,k2,... | --keyword-file file) [--parallel 4]";
+		return Arrays.asList(list, all, watch, summary, cached, heartbeat, snapshot, diff, multi);
 	}
 
 	@Override
@@ -79,13 +175,70 @@ public class ServiceCommand extends Command {
 		String page = Argument.getValue(args, m_Page);
 		String pageSize = Argument.getValue(args, m_PageSize);
 
-		if (Argument.contain(args, m_Print)) {
-			searchServices(keyword, page, pageSize);
+		if (Argument.contain(args, m_Summary)) {
+			summary(keyword, pageSize);
+		} else if (Argument.contain(args, m_Snapshot)) {
+			snapshot(Argument.getValue(args, m_Snapshot), keyword, pageSize);
+		} else if (Argument.contain(args, m_Diff)) {
+			List<String> files = Argument.getValues(args, m_Diff);
+			if (null == files || files.size() < 2) {
+				throw ArgumentException.missArgument(m_Diff);
+			}
+			diffSnapshot(files.get(0), files.get(1));
+		} else if (Argument.contain(args, m_Heartbeat)) {
+			heartbeat(keyword, pageSize, Argument.getValue(args, m_Warn), Argument.getValue(args, m_Top));
+		} else if (Argument.contain(args, m_Watch)) {
+			watch(keyword, Argument.getValue(args, m_Interval), pageSize);
+		} else if (Argument.contain(args, m_Print)) {
+			if (Argument.contain(args, m_Keywords) || Argument.contain(args, m_KeywordFile)) {
+				List<String> keywords = readKeywords(Argument.getValue(args, m_Keywords),
+						Argument.getValue(args, m_KeywordFile));
+				searchMulti(keywords, pageSize, Argument.getValue(args, m_Parallel));
+			} else if (Argument.contain(args, m_Cached)) {
+				searchCached(keyword, page, pageSize, Argument.getValue(args, m_Interval));
+			} else if (Argument.contain(args, m_All)) {
+				searchAllServices(keyword, pageSize);
+			} else {
+				searchServices(keyword, page, pageSize);
+			}
 		} else {
 			throw ArgumentException.help(getName());
 		}
 	}
 
+	/**
+	 * 在本地缓存中查询
+	 */
+	void searchCached(String keyword, String pageStr, String pageSizeStr, String intervalStr) {
+		ServiceRegistryCache cache = m_Console.getRegistryCache();
+		if (null != intervalStr) {
+			int interval = NumberUtil.toInt(intervalStr, 0);
+			if (interval <= 0) {
+				throw new ArgumentException("无效的刷新间隔：" + intervalStr);
+			}
+			cache.setInterval(interval * 1000L);
+		}
+		ServiceIndex index = cache.getIndex();
+		long begin = System.nanoTime();
+		List<ServiceInstance> result = index.search(keyword);
+		Metrics.record(Metrics.CACHE_SEARCH, System.nanoTime() - begin);
+		int page = Math.max(1, NumberUtil.toInt(pageStr, 1));
+		int pageSize = Math.max(1, NumberUtil.toInt(pageSizeStr, 10));
+		int from = Math.min(result.size(), (page - 1) * pageSize);
+		int to = Math.min(result.size(), from + pageSize);
+		if (!isRecordOutput()) {
+			StringBuilder sb = new StringBuilder();
+			sb.append("总项数：").append(result.size()).append("，当前页：").append(page).append("，每页项数：").append(pageSize);
+			sb.append("（本地缓存，").append((System.currentTimeMillis() - cache.getRefreshTime()) / 1000).append("秒前刷新");
+			if (null != cache.getLastError()) {
+				sb.append("，最近刷新失败：").append(cache.getLastError());
+			}
+			sb.append('）');
+			getPrintStream().println(sb);
+		}
+		showInstances(result.subList(from, to));
+	}
+
 	void searchServices(String keyword, String pageStr, String pageSizeStr) {
 		Keeper keeper = getKeeper();
 		SearchServiceParams searchParams = new SearchServiceParams();
@@ -94,59 +247,662 @@ public class ServiceCommand extends Command {
 		int page = NumberUtil.toInt(pageStr, 1);
 		int pageSize = NumberUtil.toInt(pageSizeStr, 10);
 		services.setPageSize(pageSize);
-		services.gotoPage(page);
-		getPrintStream().println("总项数：" + services.getCount() + "，当前页：" + page + "，每页项数：" + pageSize);
+		ResultPages.gotoPage(services, page);
+		if (!isRecordOutput()) {
+			getPrintStream().println("总项数：" + services.getCount() + "，当前页：" + page + "，每页项数：" + pageSize);
+		}
 		show(services);
 	}
 
-	void show(Iterable<ServiceExt> services) {
+	/**
+	 * 逐页获取并输出，只保留当前页及预取的下一页
+	 */
+	void searchAllServices(String keyword, String pageSizeStr) {
+		final int pageSize = NumberUtil.toInt(pageSizeStr, ALL_PAGE_SIZE_DEFAULT);
+		final PrintStream ps = getPrintStream();
+		final RecordWriter writer = openRecordWriter(RECORD_FIELDS);
+		final FixTable table = new FixTable(true, 1, 1);
+		for (String h : HEADERS) {
+			table.addCell(h);
+		}
+		walkPages(keyword, pageSize, new ResultPages.Visitor<ServiceExt>() {
+			StringBuilder m_Buffer = new StringBuilder();
+			String[] m_Cells = new String[HEADERS.length];
+
+			@Override
+			public void begin(int count, int pageCount, int firstPageSize) {
+				if (null == writer) {
+					ps.println("总项数：" + count + "，总页数：" + pageCount + "，每页项数：" + pageSize);
+				}
+				// 以表头及首页确定列宽（首页末行完成于下一行开始时，不计入，以免等待第二页）
+				table.setStreaming(ps, firstPageSize);
+			}
+
+			@Override
+			public void visit(List<ServiceExt> page) {
+				if (null != writer) {
+					for (ServiceExt sc : page) {
+						writer.write(toRecord(sc));
+					}
+					writer.flush();
+					return;
+				}
+				for (ServiceExt sc : page) {
+					table.nextRow();
+					for (String c : toCells(sc, m_Cells, m_Buffer)) {
+						table.addCell(c);
+					}
+				}
+			}
+		});
+		if (null == writer) {
+			table.print(ps);
+		}
+	}
+
+	/**
+	 * 按微服务名称汇总各实例的状态，逐页统计，不保留实例
+	 */
+	void summary(String keyword, String pageSizeStr) {
+		final Map<String, ServiceSummary> summaries = new TreeMap<String, ServiceSummary>();
+		walkPages(keyword, NumberUtil.toInt(pageSizeStr, ALL_PAGE_SIZE_DEFAULT), new ResultPages.Visitor<ServiceExt>() {
+
+			@Override
+			public void begin(int count, int pageCount, int firstPageSize) {
+			}
+
+			@Override
+			public void visit(List<ServiceExt> page) {
+				for (ServiceExt s : page) {
+					ServiceSummary summary = summaries.get(s.getName());
+					if (null == summary) {
+						summary = new ServiceSummary(s.getName());
+						summaries.put(s.getName(), summary);
+					}
+					summary.add(ServiceInstance.valueOf(s));
+				}
+			}
+		});
+		long now = System.currentTimeMillis();
+		RecordWriter writer = openRecordWriter("name", "instances", "healthy", "inaccessible", "unavailable",
+				"overload", "timeout", "versions", "oldest_heartbeat_age");
+		if (null != writer) {
+			for (ServiceSummary sum : summaries.values()) {
+				writer.write(sum.getName(), sum.getInstances(), sum.getHealthy(), sum.getInaccessible(),
+						sum.getUnavailable(), sum.getOverload(), sum.getTimeout(), sum.getVersions(),
+						toAgeSeconds(sum.getOldestHeartbeat(), now));
+			}
+			writer.flush();
+			return;
+		}
+		PrintStream ps = getPrintStream();
+		ps.println("微服务数：" + summaries.size());
 		FitTable table = new FitTable(true, 1, 1);
 		table.addCell("名称");
-		table.addCell("编号");
+		table.addCell("实例");
+		table.addCell("正常");
+		table.addCell("不可达");
+		table.addCell("不可用");
+		table.addCell("过载");
+		table.addCell("宕机");
 		table.addCell("版本");
-		table.addCell("心跳时间");
-		table.addCell("状态");
-		table.addCell("链接");
+		table.addCell("最旧心跳(秒前)");
 		StringBuilder sb = new StringBuilder();
-		for (ServiceExt sc : services) {
+		for (ServiceSummary sum : summaries.values()) {
 			table.nextRow();
-			table.addCell(sc.getName());
-			table.addCell(sc.getNo());
-			table.addCell(sc.getVersion());
-			table.addCell(TimeUtil.formatDateTime(sc.getHeartbeat()));
+			table.addCell(sum.getName());
+			table.addCell(String.valueOf(sum.getInstances()));
+			table.addCell(String.valueOf(sum.getHealthy()));
+			table.addCell(String.valueOf(sum.getInaccessible()));
+			table.addCell(String.valueOf(sum.getUnavailable()));
+			table.addCell(String.valueOf(sum.getOverload()));
+			table.addCell(String.valueOf(sum.getTimeout()));
+			sb.setLength(0);
+			for (String v : sum.getVersions()) {
+				if (sb.length() > 0) {
+					sb.append(' ');
+				}
+				sb.append(v);
+			}
+			table.addCell(sb.toString());
+			Long age = toAgeSeconds(sum.getOldestHeartbeat(), now);
+			table.addCell(null == age ? "" : String.valueOf(age));
+		}
+		table.print(ps);
+	}
+
+	/**
+	 * 合并逗号分隔的关键字及关键字文件，去掉重复的
+	 */
+	static List<String> readKeywords(String list, String path) {
+		Set<String> keywords = new LinkedHashSet<String>();
+		if (null != list) {
+			for (String k : list.split(",")) {
+				k = k.trim();
+				if (k.length() > 0) {
+					keywords.add(k);
+				}
+			}
+		}
+		if (null != path) {
+			BufferedReader reader = null;
+			try {
+				reader = new BufferedReader(new InputStreamReader(new FileInputStream(path), "UTF-8"));
+				String line;
+				while (null != (line = reader.readLine())) {
+					line = line.trim();
+					if (line.length() > 0 && '#' != line.charAt(0)) {
+						keywords.add(line);
+					}
+				}
+			} catch (IOException e) {
+				throw new CommonException("读取关键字文件出错，" + e.toString());
+			} finally {
+				close(reader);
+			}
+		}
+		if (keywords.isEmpty()) {
+			throw new ArgumentException("没有关键字");
+		}
+		return new ArrayList<String>(keywords);
+	}
+
+	/**
+	 * 并发查询多个关键字，按名称+编号去重后一次输出
+	 */
+	void searchMulti(List<String> keywords, String pageSizeStr, String parallelStr) {
+		int parallel = toParallel(parallelStr, PARALLEL_DEFAULT);
+		final Keeper keeper = getKeeper();
+		final int pageSize = NumberUtil.toInt(pageSizeStr, ALL_PAGE_SIZE_DEFAULT);
+		AsyncKeeper async = getAsyncKeeper(parallel);
+		// 按关键字的顺序提交及合并，同时进行的查询不超过parallel个
+		List<Future<Map<String, ServiceInstance>>> futures = new ArrayList<Future<Map<String, ServiceInstance>>>(
+				keywords.size());
+		Map<String, ServiceInstance> merged = new HashMap<String, ServiceInstance>();
+		List<String> unmatched = new ArrayList<String>();
+		int total = 0;
+		try {
+			int submitted = 0;
+			for (int i = 0; i < keywords.size(); i++) {
+				while (submitted < keywords.size() && submitted - i < parallel) {
+					final String keyword = keywords.get(submitted++);
+					futures.add(async.submit(new Callable<Map<String, ServiceInstance>>() {
+
+						@Override
+						public Map<String, ServiceInstance> call() throws Exception {
+							return ServiceRegistryCache.load(keeper, keyword, pageSize);
+						}
+					}));
+				}
+				Map<String, ServiceInstance> result = AsyncKeeper.join(futures.get(i));
+				futures.set(i, null);
+				if (result.isEmpty()) {
+					unmatched.add(keywords.get(i));
+				}
+				total += result.size();
+				merged.putAll(result);
+			}
+		} finally {
+			AsyncKeeper.cancel(futures);
+		}
+		List<ServiceInstance> instances = new ArrayList<ServiceInstance>(merged.values());
+		Collections.sort(instances, RegistrySnapshot.KEY_ORDER);
+		if (!isRecordOutput()) {
+			PrintStream ps = getPrintStream();
+			ps.println("关键字数：" + keywords.size() + "，实例数：" + instances.size() + "（去重前" + total + "）");
+			if (!unmatched.isEmpty()) {
+				ps.println("没有匹配实例的关键字：" + unmatched);
+			}
+		}
+		showInstances(instances);
+	}
+
+	/**
+	 * 保存快照
+	 */
+	void snapshot(String path, String keyword, String pageSizeStr) {
+		int pageSize = NumberUtil.toInt(pageSizeStr, ALL_PAGE_SIZE_DEFAULT);
+		long time = System.currentTimeMillis();
+		Map<String, ServiceInstance> instances = loadInstances(keyword, pageSize);
+		File file = new File(path);
+		try {
+			RegistrySnapshot.write(file, instances.values(), time);
+		} catch (IOException e) {
+			throw new CommonException("保存快照出错，" + e.toString());
+		}
+		getPrintStream().println("已保存快照：" + file + "，实例数：" + instances.size() + "，大小：" + file.length());
+	}
+
+	/**
+	 * 比较两个快照，逐个归并，不加载全部实例
+	 */
+	void diffSnapshot(String fromPath, String toPath) {
+		final PrintStream ps = getPrintStream();
+		final RecordWriter writer = openRecordWriter("change", "name", "no", "version", "state", "urls",
+				"old_version", "old_state", "old_urls");
+		final int[] counts = new int[3];
+		RegistrySnapshot.Reader from = null;
+		RegistrySnapshot.Reader to = null;
+		try {
+			from = new RegistrySnapshot.Reader(new File(fromPath));
+			to = new RegistrySnapshot.Reader(new File(toPath));
+			if (null == writer) {
+				SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+				ps.println("--- " + fromPath + "（" + format.format(new Date(from.getTime())) + "，实例数：" + from.getCount()
+						+ "）");
+				ps.println("+++ " + toPath + "（" + format.format(new Date(to.getTime())) + "，实例数：" + to.getCount()
+						+ "）");
+			}
+			long begin = System.nanoTime();
+			RegistrySnapshot.diff(from, to, new RegistrySnapshot.DiffVisitor() {
+
+				@Override
+				public void added(ServiceInstance now) {
+					counts[0]++;
+					if (null != writer) {
+						writer.write("added", now.getName(), now.getNo(), now.getVersion(),
+								ServiceInstance.getStateText(now.getState(), ' '), now.getUrls(), null, null, null);
+					} else {
+						ps.println("+ " + now);
+					}
+				}
+
+				@Override
+				public void removed(ServiceInstance old) {
+					counts[1]++;
+					if (null != writer) {
+						writer.write("removed", old.getName(), old.getNo(), null, null, null, old.getVersion(),
+								ServiceInstance.getStateText(old.getState(), ' '), old.getUrls());
+					} else {
+						ps.println("- " + old);
+					}
+				}
+
+				@Override
+				public void changed(ServiceInstance old, ServiceInstance now) {
+					counts[2]++;
+					if (null != writer) {
+						writer.write("changed", now.getName(), now.getNo(), now.getVersion(),
+								ServiceInstance.getStateText(now.getState(), ' '), now.getUrls(), old.getVersion(),
+								ServiceInstance.getStateText(old.getState(), ' '), old.getUrls());
+						return;
+					}
+					String prefix = "~ " + now.getName() + ' ' + now.getNo();
+					if (null == old.getVersion() ? null != now.getVersion()
+							: !old.getVersion().equals(now.getVersion())) {
+						ps.println(prefix + " 版本：" + old.getVersion() + " -> " + now.getVersion());
+					}
+					if (old.getState() != now.getState()) {
+						ps.println(prefix + " 状态：" + ServiceInstance.getStateText(old.getState()) + " -> "
+								+ ServiceInstance.getStateText(now.getState()));
+					}
+					if (!old.getUrls().equals(now.getUrls())) {
+						ps.println(prefix + " 链接：" + old.getUrls() + " -> " + now.getUrls());
+					}
+				}
+			});
+			long elapsed = System.nanoTime() - begin;
+			if (null != writer) {
+				writer.flush();
+			} else {
+				ps.println("新增：" + counts[0] + "，移除：" + counts[1] + "，变化：" + counts[2] + "，耗时："
+						+ (elapsed / 1000000) + "ms");
+			}
+		} catch (IOException e) {
+			throw new CommonException("比较快照出错，" + e.toString());
+		} finally {
+			close(from);
+			close(to);
+		}
+	}
+
+	static void close(Closeable c) {
+		if (null == c) {
+			return;
+		}
+		try {
+			c.close();
+		} catch (IOException e) {
+			// 只读的文件，忽略
+		}
+	}
+
+	/**
+	 * 统计心跳时长，逐页统计，不保留实例
+	 */
+	void heartbeat(String keyword, String pageSizeStr, String warnStr, String topStr) {
+		int warn = NumberUtil.toInt(warnStr, HEARTBEAT_WARN_DEFAULT);
+		if (warn <= 0) {
+			throw new ArgumentException("无效的警戒值：" + warnStr);
+		}
+		int top = NumberUtil.toInt(topStr, HEARTBEAT_TOP_DEFAULT);
+		if (top <= 0) {
+			throw new ArgumentException("无效的数量：" + topStr);
+		}
+		final HeartbeatStats stats = new HeartbeatStats(System.currentTimeMillis(), warn * 1000L, top);
+		walkPages(keyword, NumberUtil.toInt(pageSizeStr, ALL_PAGE_SIZE_DEFAULT), new ResultPages.Visitor<ServiceExt>() {
+
+			@Override
+			public void begin(int count, int pageCount, int firstPageSize) {
+			}
 
-			String state;
+			@Override
+			public void visit(List<ServiceExt> page) {
+				for (ServiceExt s : page) {
+					stats.add(ServiceInstance.valueOf(s));
+				}
+			}
+		});
+		RecordWriter writer = openRecordWriter("name", "instances", "over_warn", "timeout", "max_age", "oldest_no");
+		if (null != writer) {
+			// 每个微服务一行，便于定时任务收集
+			for (HeartbeatStats.Service s : stats.getServices()) {
+				writer.write(s.getName(), s.getInstances(), s.getWarn(), s.getTimeout(),
+						null == s.getOldestNo() ? null : s.getMaxAge() / 1000, s.getOldestNo());
+			}
+			writer.flush();
+			return;
+		}
+		PrintStream ps = getPrintStream();
+		ps.println("实例数：" + stats.getInstances() + "，超过" + warn + "秒：" + stats.getWarn() + "，已宕机："
+				+ stats.getTimeout() + "，无心跳时间：" + stats.getNoHeartbeat());
+		if (stats.getInstances() == stats.getNoHeartbeat()) {
+			return;
+		}
+		ps.println("心跳时长(秒) p50：" + toSeconds(stats.getPercentile(50)) + "，p90：" + toSeconds(stats.getPercentile(90))
+				+ "，p99：" + toSeconds(stats.getPercentile(99)) + "，最大：" + toSeconds(stats.getMax()));
+
+		FitTable table = new FitTable(true, 1, 1);
+		table.addCell("心跳时长");
+		table.addCell("实例");
+		table.addCell("");
+		long[] distribution = stats.getDistribution();
+		long max = 0;
+		int with = stats.getInstances() - stats.getNoHeartbeat();
+		for (long d : distribution) {
+			max = Math.max(max, d);
+		}
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < distribution.length; i++) {
+			table.nextRow();
 			sb.setLength(0);
-			if (sc.isInaccessible()) {
-				sb.append("不可达\n");
+			if (i < HeartbeatStats.BOUNDS.length) {
+				sb.append(i > 0 ? toSeconds(HeartbeatStats.BOUNDS[i - 1]) : "0").append('-')
+						.append(toSeconds(HeartbeatStats.BOUNDS[i])).append('秒');
+			} else {
+				sb.append('>').append(toSeconds(HeartbeatStats.BOUNDS[i - 1])).append('秒');
 			}
-			if (sc.isUnavailable()) {
-				sb.append("不可用\n");
+			table.addCell(sb.toString());
+			table.addCell(distribution[i] + " (" + (distribution[i] * 100 / with) + "%)");
+			sb.setLength(0);
+			for (long n = (0 == max ? 0 : (distribution[i] * 30 + max - 1) / max); n > 0; n--) {
+				sb.append('#');
 			}
-			if (sc.isOverload()) {
-				sb.append("过载\n");
+			table.addCell(sb.toString());
+		}
+		table.print(ps);
+
+		ps.println("心跳最旧的实例：");
+		table = new FitTable(true, 1, 1);
+		table.addCell("名称");
+		table.addCell("编号");
+		table.addCell("版本");
+		table.addCell("心跳(秒前)");
+		table.addCell("状态");
+		for (ServiceInstance s : stats.getWorst()) {
+			table.nextRow();
+			table.addCell(s.getName());
+			table.addCell(s.getNo());
+			table.addCell(s.getVersion());
+			long age = stats.getAge(s);
+			table.addCell(toSeconds(age) + (age >= stats.getWarnMillis() ? " !" : ""));
+			table.addCell(ServiceInstance.getStateText(s.getState()));
+		}
+		table.print(ps);
+
+		ps.println("心跳最旧的微服务：");
+		table = new FitTable(true, 1, 1);
+		table.addCell("名称");
+		table.addCell("实例");
+		table.addCell("超过" + warn + "秒");
+		table.addCell("宕机");
+		table.addCell("最旧实例");
+		table.addCell("心跳(秒前)");
+		List<HeartbeatStats.Service> services = stats.getServices();
+		for (HeartbeatStats.Service s : services.subList(0, Math.min(top, services.size()))) {
+			table.nextRow();
+			table.addCell(s.getName());
+			table.addCell(String.valueOf(s.getInstances()));
+			table.addCell(String.valueOf(s.getWarn()));
+			table.addCell(String.valueOf(s.getTimeout()));
+			table.addCell(null == s.getOldestNo() ? "" : s.getOldestNo());
+			table.addCell(null == s.getOldestNo() ? "" : toSeconds(s.getMaxAge()));
+		}
+		table.print(ps);
+	}
+
+	/** 毫秒转为秒，保留一位小数 */
+	static String toSeconds(long millis) {
+		if (0 == millis % 1000) {
+			return String.valueOf(millis / 1000);
+		}
+		return String.format("%.1f", millis / 1000.0);
+	}
+
+	static Long toAgeSeconds(long time, long now) {
+		if (0 == time) {
+			return null;
+		}
+		return Math.max(0, now - time) / 1000;
+	}
+
+	/**
+	 * 逐页获取全部实例，处理当前页的同时在后台获取下一页
+	 */
+	void walkPages(String keyword, int pageSize, ResultPages.Visitor<ServiceExt> visitor) {
+		SearchServiceParams searchParams = new SearchServiceParams();
+		searchParams.setKeyword(keyword);
+		ResultPages.walk(getKeeper().searchService(searchParams), pageSize, getAsyncKeeper(), visitor);
+	}
+
+	/**
+	 * 定时查询全部实例，与上次的结果比较并输出变化
+	 */
+	void watch(String keyword, String intervalStr, String pageSizeStr) {
+		int interval = NumberUtil.toInt(intervalStr, WATCH_INTERVAL_DEFAULT);
+		if (interval <= 0) {
+			throw new ArgumentException("无效的查询间隔：" + intervalStr);
+		}
+		int pageSize = NumberUtil.toInt(pageSizeStr, ALL_PAGE_SIZE_DEFAULT);
+		long base = interval * 1000L;
+		long wait = base;
+		PrintStream ps = getPrintStream();
+		ps.println("开始监视，每" + interval + "秒查询，按回车键停止");
+		Map<String, ServiceInstance> last = null;
+		while (true) {
+			Map<String, ServiceInstance> current = null;
+			try {
+				current = loadInstances(keyword, pageSize);
+			} catch (RuntimeException e) {
+				// 发布期间网关可能重启，继续监视
+				ps.println(now() + " 查询失败：" + e.getMessage());
+			}
+			if (null == current) {
+				wait = Math.min(wait * 2, base * WATCH_BACKOFF_MAX);
+			} else if (null == last) {
+				ps.println(now() + " 实例数：" + current.size());
+			} else if (diff(last, current, ps) > 0) {
+				wait = base;
+			} else {
+				wait = Math.min(wait * 2, base * WATCH_BACKOFF_MAX);
 			}
-			if (sc.isTimeout()) {
-				sb.append("宕机");
+			if (null != current) {
+				last = current;
 			}
-			if (0 == sb.length()) {
-				sb.append("正常");
+			ps.flush();
+			if (!await(wait)) {
+				break;
 			}
-			state = sb.toString();
-			table.addCell(state);
+		}
+		ps.println(now() + " 停止监视");
+	}
+
+	/**
+	 * 查询全部实例，以名称+编号为键
+	 */
+	Map<String, ServiceInstance> loadInstances(String keyword, int pageSize) {
+		return ServiceRegistryCache.load(getKeeper(), keyword, pageSize);
+	}
 
-			List<String> urls = sc.getUrls();
+	/**
+	 * 输出两次查询间的变化
+	 * 
+	 * @return 变化的项数
+	 */
+	static int diff(Map<String, ServiceInstance> last, Map<String, ServiceInstance> current, PrintStream ps) {
+		String time = now();
+		int changes = 0;
+		for (ServiceInstance now : current.values()) {
+			ServiceInstance old = last.get(now.getKey());
+			if (null == old) {
+				ps.println(time + " + " + now);
+				changes++;
+				continue;
+			}
+			if (null == old.getVersion() ? null != now.getVersion() : !old.getVersion().equals(now.getVersion())) {
+				ps.println(time + " ~ " + now.getName() + ' ' + now.getNo() + " 版本：" + old.getVersion() + " -> "
+						+ now.getVersion());
+				changes++;
+			}
+			if (old.getState() != now.getState()) {
+				ps.println(time + " ~ " + now.getName() + ' ' + now.getNo() + " 状态："
+						+ ServiceInstance.getStateText(old.getState()) + " -> "
+						+ ServiceInstance.getStateText(now.getState()));
+				changes++;
+			}
+		}
+		for (ServiceInstance old : last.values()) {
+			if (!current.containsKey(old.getKey())) {
+				ps.println(time + " - " + old.getName() + ' ' + old.getNo());
+				changes++;
+			}
+		}
+		return changes;
+	}
+
+	static String now() {
+		return new SimpleDateFormat("HH:mm:ss").format(new Date());
+	}
+
+	void show(Iterable<ServiceExt> services) {
+		RecordWriter writer = openRecordWriter(RECORD_FIELDS);
+		if (null != writer) {
+			for (ServiceExt sc : services) {
+				writer.write(toRecord(sc));
+			}
+			writer.flush();
+			return;
+		}
+		FitTable table = new FitTable(true, 1, 1);
+		for (String h : HEADERS) {
+			table.addCell(h);
+		}
+		StringBuilder sb = new StringBuilder();
+		String[] cells = new String[HEADERS.length];
+		for (ServiceExt sc : services) {
+			table.nextRow();
+			for (String c : toCells(sc, cells, sb)) {
+				table.addCell(c);
+			}
+		}
+		table.print(getPrintStream());
+	}
+
+	static Object[] toRecord(ServiceExt sc) {
+		return new Object[] { sc.getName(), sc.getNo(), sc.getVersion(), sc.getHeartbeat(), sc.isInaccessible(),
+				sc.isUnavailable(), sc.isOverload(), sc.isTimeout(), sc.getUrls() };
+	}
+
+	/**
+	 * 输出缓存中的实例
+	 */
+	void showInstances(List<ServiceInstance> instances) {
+		RecordWriter writer = openRecordWriter(RECORD_FIELDS);
+		if (null != writer) {
+			for (ServiceInstance s : instances) {
+				writer.write(toRecord(s));
+			}
+			writer.flush();
+			return;
+		}
+		FitTable table = new FitTable(true, 1, 1);
+		for (String h : HEADERS) {
+			table.addCell(h);
+		}
+		StringBuilder sb = new StringBuilder();
+		for (ServiceInstance s : instances) {
+			table.nextRow();
+			table.addCell(s.getName());
+			table.addCell(s.getNo());
+			table.addCell(s.getVersion());
+			table.addCell(0 == s.getHeartbeat() ? null : TimeUtil.formatDateTime(new Date(s.getHeartbeat())));
+			table.addCell(ServiceInstance.getStateText(s.getState(), '\n'));
 			sb.setLength(0);
-			if (!ListUtil.isEmpty(urls)) {
-				for (String url : urls) {
-					if (sb.length() > 0) {
-						sb.append(' ');
-					}
-					sb.append(url);
+			for (String url : s.getUrls()) {
+				if (sb.length() > 0) {
+					sb.append(' ');
 				}
+				sb.append(url);
 			}
 			table.addCell(sb.toString());
 		}
 		table.print(getPrintStream());
 	}
+
+	static Object[] toRecord(ServiceInstance s) {
+		int state = s.getState();
+		return new Object[] { s.getName(), s.getNo(), s.getVersion(),
+				0 == s.getHeartbeat() ? null : new Date(s.getHeartbeat()),
+				0 != (state & ServiceInstance.STATE_INACCESSIBLE), 0 != (state & ServiceInstance.STATE_UNAVAILABLE),
+				0 != (state & ServiceInstance.STATE_OVERLOAD), 0 != (state & ServiceInstance.STATE_TIMEOUT),
+				s.getUrls() };
+	}
+
+	static String[] toCells(ServiceExt sc, String[] cells, StringBuilder sb) {
+		cells[0] = sc.getName();
+		cells[1] = sc.getNo();
+		cells[2] = sc.getVersion();
+		cells[3] = TimeUtil.formatDateTime(sc.getHeartbeat());
+
+		sb.setLength(0);
+		if (sc.isInaccessible()) {
+			sb.append("不可达\n");
+		}
+		if (sc.isUnavailable()) {
+			sb.append("不可用\n");
+		}
+		if (sc.isOverload()) {
+			sb.append("过载\n");
+		}
+		if (sc.isTimeout()) {
+			sb.append("宕机");
+		}
+		if (0 == sb.length()) {
+			sb.append("正常");
+		}
+		cells[4] = sb.toString();
+
+		List<String> urls = sc.getUrls();
+		sb.setLength(0);
+		if (!ListUtil.isEmpty(urls)) {
+			for (String url : urls) {
+				if (sb.length() > 0) {
+					sb.append(' ');
+				}
+				sb.append(url);
+			}
+		}
+		cells[5] = sb.toString();
+		return cells;
+	}
 }
@@ -15,9 +15,11 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 import cn.weforward.common.util.StringUtil;
 import cn.weforward.gateway.console.exception.CommonException;
+import cn.weforward.gateway.console.keeper.MemKeeper;
 
 /**
  * 'setting'命令
@@ -34,6 +36,10 @@ public class SettingCommand extends Command {
 	Option m_SecretOption;
 	Option m_IdOption;
 	Option m_KeyOption;
+	Option m_ClusterOption;
+	Option m_ConnectTimeoutOption;
+	Option m_ReadTimeoutOption;
+	Option m_CompressOption;
 	List<Option> m_Options;
 
 	public SettingCommand(Console main) {
@@ -52,7 +58,10 @@ public class SettingCommand extends Command {
 		m_PrintOption = new Option("print").setDesc("显示当前配置");
 		m_Options.add(m_PrintOption);
 
-		m_UrlOption = new Option("url").setValues("url").setDesc("设置keeper接口链接，默认为：" + Console.KEEPER_API_PRE_URL);
+		m_UrlOption = new Option("url").setValues("url")
+				.setDesc("设置keeper接口链接，多个网关节点以逗号分隔（首个为默认节点），默认为：" + Console.KEEPER_API_PRE_URL
+						+ "。以" + MemKeeper.URL_PREFIX + "开头的为内存keeper，用于离线压测，如：" + MemKeeper.URL_PREFIX
+						+ "?services=300&instances=20&latency=20&jitter=5&failure=0.01");
 		m_Options.add(m_UrlOption);
 
 		m_SecretOption = new Option("secret").setValues("secret")
@@ -64,6 +73,22 @@ public class SettingCommand extends Command {
 
 		m_KeyOption = new Option("key").setValues("access-key").setDesc("设置调用keeper的（Access Key）");
 		m_Options.add(m_KeyOption);
+
+		m_ClusterOption = new Option("cluster").setValues("name", "urls")
+				.setDesc("设置命名的集群，urls为逗号分隔的keeper接口链接。命令附加'" + Console.OPTION_CLUSTER
+						+ " name'即可在集群的全部节点上执行");
+		m_Options.add(m_ClusterOption);
+
+		m_ConnectTimeoutOption = new Option("connect-timeout").setValues("millis").setDesc("设置连接keeper的超时值（毫秒），0表示不限制");
+		m_Options.add(m_ConnectTimeoutOption);
+
+		m_ReadTimeoutOption = new Option("read-timeout").setValues("millis")
+				.setDesc("设置等待keeper响应的超时值（毫秒），0表示不限制。单次调用的总耗时不超过连接与读取超时之和");
+		m_Options.add(m_ReadTimeoutOption);
+
+		m_CompressOption = new Option("compress").setValues("true|false")
+				.setDesc("设置是否要求keeper压缩响应（gzip/deflate），适用于较慢的网络。传输的字节数见stats命令");
+		m_Options.add(m_CompressOption);
 	}
 
 	@Override
@@ -71,6 +96,11 @@ public class SettingCommand extends Command {
 		return "setting";
 	}
 
+	@Override
+	boolean isNodeCommand() {
+		return false;
+	}
+
 	@Override
 	String getSynopsis() {
 		return "设置调用keeper api的参数";
@@ -88,7 +118,10 @@ public class SettingCommand extends Command {
 		String load = "setting -load path";
 		String save = "setting -save path";
 		String show = "setting -print";
-		return Arrays.asList(secret, accessId, load, save, show);
+		String cluster = "setting -cluster name url1,url2,url3";
+		String timeout = "setting -connect-timeout millis -read-timeout millis";
+		String compress = "setting -compress true";
+		return Arrays.asList(secret, accessId, load, save, show, cluster, timeout, compress);
 	}
 
 	@Override
@@ -117,6 +150,21 @@ public class SettingCommand extends Command {
 			if (!StringUtil.isEmpty(secret)) {
 				setSecret(secret);
 			}
+			Integer connectTimeout = Argument.getIntValue(args, m_ConnectTimeoutOption);
+			Integer readTimeout = Argument.getIntValue(args, m_ReadTimeoutOption);
+			if (null != connectTimeout || null != readTimeout) {
+				m_Console.setTimeouts(
+						(null == connectTimeout) ? m_Console.getConnectTimeout() : connectTimeout.intValue(),
+						(null == readTimeout) ? m_Console.getReadTimeout() : readTimeout.intValue());
+			}
+			Boolean compress = Argument.getBooleanValue(args, m_CompressOption);
+			if (null != compress) {
+				m_Console.setCompress(compress);
+			}
+			List<String> cluster = Argument.getValues(args, m_ClusterOption);
+			if (2 == cluster.size()) {
+				m_Console.setCluster(cluster.get(0), cluster.get(1));
+			}
 		}
 		if (Argument.contain(args, m_PrintOption)) {
 			showSetting();
@@ -146,10 +194,31 @@ public class SettingCommand extends Command {
 		getPrintStream().println("secret=" + StringUtil.toString(m_Console.getSecret()));
 		getPrintStream().println("access-id=" + StringUtil.toString(m_Console.getAccessId()));
 		getPrintStream().println("access-key=" + StringUtil.toString(m_Console.getAccessKey()));
+		getPrintStream().println(
+				"connect-timeout=" + toTimeout(m_Console.getConnectTimeout(), m_Console.getSocketConnectTimeout()));
+		getPrintStream()
+				.println("read-timeout=" + toTimeout(m_Console.getReadTimeout(), m_Console.getSocketReadTimeout()));
+		getPrintStream().println("compress=" + m_Console.isCompress());
+		for (Map.Entry<String, String> e : m_Console.getClusters().entrySet()) {
+			getPrintStream().println("cluster." + e.getKey() + "=" + e.getValue());
+		}
+	}
+
+	/**
+	 * 超时值，socket实际使用的不同时一并说明
+	 */
+	static String toTimeout(int timeout, int socketTimeout) {
+		if (timeout == socketTimeout) {
+			return String.valueOf(timeout);
+		}
+		return timeout + "（只限制单次调用的总耗时，直连的socket仍为" + socketTimeout + "，保存配置并重启控制台后生效）";
 	}
 
 	void setUrl(String url) {
 		m_Console.setApiPreUrl(url);
+		for (String node : m_Console.getNodeUrls()) {
+			m_Console.getTransport().warmUp(node);
+		}
 		// getPrintStream().println("设置url：" + m_Console.getUrl());
 	}
 
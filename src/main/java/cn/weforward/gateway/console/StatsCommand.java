@@ -0,0 +1,118 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.console;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+
+import cn.weforward.gateway.console.util.FitTable;
+import cn.weforward.gateway.console.util.LatencyHistogram;
+import cn.weforward.gateway.console.util.Metrics;
+
+/**
+ * 'stats'命令
+ * 
+ * @author zhangpengji
+ *
+ */
+public class StatsCommand extends Command {
+
+	Option m_Reset;
+	List<Option> m_Options;
+
+	protected StatsCommand(Console console) {
+		super(console);
+
+		m_Reset = new Option("R").setDesc("清空统计");
+		m_Options = Arrays.asList(m_Reset);
+	}
+
+	@Override
+	String getName() {
+		return "stats";
+	}
+
+	@Override
+	boolean isNodeCommand() {
+		return false;
+	}
+
+	@Override
+	String getSynopsis() {
+		return "显示本次会话调用keeper（含签名、传输、解析）及表格渲染的耗时统计，单位：毫秒";
+	}
+
+	@Override
+	List<String> getUsages() {
+		return Arrays.asList("stats", "stats -R");
+	}
+
+	@Override
+	List<Option> getOptions() {
+		return m_Options;
+	}
+
+	@Override
+	void executeInner(List<Argument> args) {
+		if (Argument.contain(args, m_Reset)) {
+			Metrics.reset();
+			getPrintStream().println("已清空统计");
+			return;
+		}
+		show(getPrintStream());
+	}
+
+	static void show(PrintStream ps) {
+		List<String> names = Metrics.names();
+		if (names.isEmpty()) {
+			ps.println("暂无统计");
+			return;
+		}
+		// 先取快照再渲染，避免把本次渲染计入
+		FitTable table = new FitTable(true, 1, 1);
+		table.addCell("环节");
+		table.addCell("次数");
+		table.addCell("平均");
+		table.addCell("p50");
+		table.addCell("p90");
+		table.addCell("p99");
+		table.addCell("max");
+		for (String name : names) {
+			LatencyHistogram h = Metrics.get(name);
+			table.nextRow();
+			table.addCell(name);
+			table.addCell(String.valueOf(h.getCount()));
+			table.addCell(toMillis(h.getMean()));
+			table.addCell(toMillis(h.getPercentile(50)));
+			table.addCell(toMillis(h.getPercentile(90)));
+			table.addCell(toMillis(h.getPercentile(99)));
+			table.addCell(toMillis(h.getMax()));
+		}
+		table.print(ps);
+		long wire = Metrics.getCount(Metrics.WIRE_BYTES);
+		long decoded = Metrics.getCount(Metrics.DECODED_BYTES);
+		if (decoded > 0) {
+			ps.println(String.format("keeper响应：传输 %.1fKB，解压后 %.1fKB，节省 %.1f%%", wire / 1024.0, decoded / 1024.0,
+					100.0 * (decoded - wire) / decoded));
+		}
+		long requestWire = Metrics.getCount(Metrics.REQUEST_WIRE_BYTES);
+		long request = Metrics.getCount(Metrics.REQUEST_BYTES);
+		if (request > 0) {
+			ps.println(String.format("keeper请求：传输 %.1fKB，压缩前 %.1fKB，节省 %.1f%%", requestWire / 1024.0,
+					request / 1024.0, 100.0 * (request - requestWire) / request));
+		}
+	}
+
+	static String toMillis(long micros) {
+		return String.format("%.3f", micros / 1000.0);
+	}
+}
@@ -10,14 +10,44 @@
  */
 package cn.weforward.gateway.console;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
 
 import cn.weforward.common.util.ListUtil;
+import cn.weforward.common.util.NumberUtil;
+import cn.weforward.common.util.StringUtil;
 import cn.weforward.gateway.console.exception.ArgumentException;
+import cn.weforward.gateway.console.exception.CommonException;
+import cn.weforward.gateway.console.keeper.AsyncKeeper;
+import cn.weforward.gateway.console.keeper.RateLimitedKeeperHandler;
+import cn.weforward.gateway.console.registry.ServiceInstance;
+import cn.weforward.gateway.console.registry.ServiceRegistryCache;
+import cn.weforward.gateway.console.traffic.TrafficRules;
+import cn.weforward.gateway.console.traffic.TrafficSimulator;
+import cn.weforward.gateway.console.traffic.WeightRollout;
 import cn.weforward.gateway.console.util.FitTable;
+import cn.weforward.gateway.console.util.RecordWriter;
+import cn.weforward.gateway.console.util.SimpleJson;
+import cn.weforward.gateway.console.util.TableConverger;
+import cn.weforward.gateway.console.util.TokenBucket;
 import cn.weforward.protocol.gateway.Keeper;
+import cn.weforward.protocol.gateway.exception.KeeperException;
 import cn.weforward.protocol.gateway.vo.TrafficTableItemVo;
 import cn.weforward.protocol.gateway.vo.TrafficTableItemWrap;
 import cn.weforward.protocol.ops.traffic.TrafficTable;
@@ -31,6 +61,53 @@ import cn.weforward.protocol.ops.traffic.TrafficTableItem;
  */
 public class TrafficCommand extends Command {
 
+	static final String[] RECORD_FIELDS = { "service", "index", "name", "no", "version", "weight", "max_concurrent",
+			"max_fails", "fail_timeout", "read_timeout" };
+	/** 批量查看时的字段，获取失败的微服务只有service及error */
+	static final String[] BULK_RECORD_FIELDS = { "service", "index", "name", "no", "version", "weight",
+			"max_concurrent", "max_fails", "fail_timeout", "read_timeout", "error" };
+	/** 批量操作默认的并发数 */
+	static final int BULK_PARALLEL_DEFAULT = 4;
+	/** 批量操作默认每秒最多调用keeper的次数 */
+	static final int BULK_RATE_DEFAULT = 20;
+	/** 模拟时默认每秒到达的请求数 */
+	static final int SIMULATE_RPS_DEFAULT = 1000;
+	/** 默认模拟的请求数，在控制台中约一秒内完成 */
+	static final int SIMULATE_REQUESTS_DEFAULT = 100000;
+	/** 模拟时实例默认的平均耗时（毫秒） */
+	static final int SIMULATE_LATENCY_DEFAULT = 50;
+	/** 发布时两条规则默认的权重之和 */
+	static final int ROLLOUT_TOTAL_DEFAULT = 100;
+	/** 发布默认的步数 */
+	static final int ROLLOUT_STEPS_DEFAULT = 5;
+	/** 发布默认每步的间隔（秒） */
+	static final int ROLLOUT_INTERVAL_DEFAULT = 60;
+	/** 发布中调用失败后重试的间隔（毫秒） */
+	static final long ROLLOUT_RETRY_MILLIS = 5000;
+	/** 保存发布进度的目录（位于控制台目录下） */
+	static final String ROLLOUT_DIR = "rollout";
+
+	/** 各项设置都相同的规则视为相同 */
+	static final TableConverger<TrafficTableItem> CONVERGER = new TableConverger<TrafficTableItem>(
+			new TableConverger.Equality<TrafficTableItem>() {
+
+				@Override
+				public boolean equals(TrafficTableItem a, TrafficTableItem b) {
+					return eq(a.getName(), b.getName()) && eq(a.getServiceNo(), b.getServiceNo())
+							&& eq(a.getServiceVersion(), b.getServiceVersion()) && a.getWeight() == b.getWeight()
+							&& a.getMaxConcurrent() == b.getMaxConcurrent() && a.getMaxFails() == b.getMaxFails()
+							&& a.getFailTimeout() == b.getFailTimeout() && a.getReadTimeout() == b.getReadTimeout();
+				}
+			}, new TableConverger.Describer<TrafficTableItem>() {
+
+				@Override
+				public String describe(TrafficTableItem item) {
+					return "no=" + StringUtil.toString(item.getServiceNo()) + " version="
+							+ StringUtil.toString(item.getServiceVersion()) + " weight=" + item.getWeight() + " name="
+							+ StringUtil.toString(item.getName());
+				}
+			});
+
 	Option m_Print;
 	Option m_Append;
 	Option m_Insert;
@@ -49,6 +126,23 @@ public class TrafficCommand extends Command {
 	Option m_Index;
 	Option m_FromIndex;
 	Option m_ToIndex;
+	Option m_Apply;
+	Option m_DryRun;
+	Option m_Parallel;
+	Option m_Rate;
+	Option m_Simulate;
+	Option m_Table;
+	Option m_Rps;
+	Option m_Requests;
+	Option m_Latency;
+	Option m_Failure;
+	Option m_Seed;
+	Option m_Rollout;
+	Option m_TotalWeight;
+	Option m_Steps;
+	Option m_Interval;
+	Option m_Resume;
+	Option m_Rollback;
 	List<Option> m_Options;
 
 	protected TrafficCommand(Console console) {
@@ -60,7 +154,8 @@ public class TrafficCommand extends Command {
 		m_Replace = new Option("R").setDesc("替换一个流量规则");
 		m_Move = new Option("M").setDesc("移动流量规则的位置");
 		m_Delete = new Option("D").setDesc("删除流量规则的位置");
-		m_ServiceName = new Option("name").setSecondOption(true).setValues("service-name").setDesc("微服务名称");
+		m_ServiceName = new Option("name").setSecondOption(true).setValues("service-name")
+				.setDesc("微服务名称。多个以逗号分隔，或使用通配符*、?（查询微服务后匹配），此时批量操作并汇总输出结果");
 		m_Title = new Option("title").setSecondOption(true).setValues("rule-title").setDesc("规则项的标题");
 		m_ServiceNo = new Option("no").setSecondOption(true).setValues("service-no").setDesc("微服务实例编号");
 		m_ServiceVersion = new Option("version").setSecondOption(true).setValues("service-version").setDesc("微服务实例版本");
@@ -77,10 +172,43 @@ public class TrafficCommand extends Command {
 		m_Index = new Option("index").setSecondOption(true).setValues("number").setDesc("规则项的序号（从0开始）");
 		m_FromIndex = new Option("from-index").setSecondOption(true).setValues("number").setDesc("当前序号（从0开始）");
 		m_ToIndex = new Option("to-index").setSecondOption(true).setValues("number").setDesc("目标序号（从0开始）");
+		m_Apply = new Option("apply").setSecondOption(true).setValues("file")
+				.setDesc("把流量表修改为文件中的规则（JSON数组或每行一个JSON对象，字段同--output jsonl的输出），只执行必要的插入、移动、替换及删除");
+		m_DryRun = new Option("dry-run").setSecondOption(true).setDesc("与apply一起使用，只列出要执行的修改");
+		m_Parallel = new Option("parallel").setSecondOption(true).setValues("count")
+				.setDesc("批量操作的并发数，默认为" + BULK_PARALLEL_DEFAULT + "，最大为" + AsyncKeeper.THREADS_MAX);
+		m_Rate = new Option("rate").setSecondOption(true).setValues("count")
+				.setDesc("批量操作时每秒最多调用keeper的次数，默认为" + BULK_RATE_DEFAULT);
+		m_Simulate = new Option("simulate").setSecondOption(true)
+				.setDesc("在本地模拟流量表在负载下的效果：各实例分配的流量、因最大并发数跳过及拒绝的请求、因连续失败摘除的次数及耗时分布。"
+						+ "实例取自当前注册的实例，没有时按规则各模拟一个");
+		m_Table = new Option("table").setSecondOption(true).setValues("file")
+				.setDesc("模拟时使用文件中的规则（格式同apply），不指定则使用当前的流量表");
+		m_Rps = new Option("rps").setSecondOption(true).setValues("number")
+				.setDesc("模拟时每秒到达的请求数，默认为" + SIMULATE_RPS_DEFAULT);
+		m_Requests = new Option("requests").setSecondOption(true).setValues("number")
+				.setDesc("模拟的请求数，默认为" + SIMULATE_REQUESTS_DEFAULT);
+		m_Latency = new Option("latency").setSecondOption(true).setValues("ms[,no=ms...]")
+				.setDesc("实例的平均耗时（毫秒，对数正态分布），可按实例编号分别指定，默认为" + SIMULATE_LATENCY_DEFAULT);
+		m_Failure = new Option("failure").setSecondOption(true).setValues("rate[,no=rate...]")
+				.setDesc("实例的失败率（0~1），可按实例编号分别指定，默认为0");
+		m_Seed = new Option("seed").setSecondOption(true).setValues("number").setDesc("模拟的随机数种子，相同的种子得到相同的结果");
+
+		m_Rollout = new Option("rollout").setSecondOption(true)
+				.setDesc("分步把权重由from-index的规则转到to-index的规则，每步检查新规则的实例，异常时自动回滚");
+		m_TotalWeight = new Option("total-weight").setSecondOption(true).setValues("number")
+				.setDesc("发布时两条规则的权重之和（1~100），默认" + ROLLOUT_TOTAL_DEFAULT);
+		m_Steps = new Option("steps").setSecondOption(true).setValues("count")
+				.setDesc("发布的步数，默认" + ROLLOUT_STEPS_DEFAULT);
+		m_Interval = new Option("interval").setSecondOption(true).setValues("seconds")
+				.setDesc("发布每步的间隔，默认" + ROLLOUT_INTERVAL_DEFAULT + "秒");
+		m_Resume = new Option("resume").setSecondOption(true).setDesc("与rollout一起使用，继续未完成的发布");
+		m_Rollback = new Option("rollback").setSecondOption(true).setDesc("与rollout一起使用，回滚未完成的发布");
 
 		m_Options = Arrays.asList(m_Print, m_Append, m_Insert, m_Replace, m_Move, m_Delete, m_ServiceName, m_Title,
 				m_ServiceNo, m_ServiceVersion, m_Weight, m_MaxConcurrent, m_MaxFails, m_FailTimeout, m_ReadTimeout,
-				m_Index, m_FromIndex, m_ToIndex);
+				m_Index, m_FromIndex, m_ToIndex, m_Apply, m_DryRun, m_Parallel, m_Rate, m_Simulate, m_Table, m_Rps,
+				m_Requests, m_Latency, m_Failure, m_Seed, m_Rollout, m_TotalWeight, m_Steps, m_Interval, m_Resume, m_Rollback);
 	}
 
 	@Override
@@ -117,7 +245,19 @@ public class TrafficCommand extends Command {
 		String move = "tt -M --name service-name --from-index number --to-index number";
 
 		String delete = "tt -D --name service-name --index number";
-		return Arrays.asList(show, append, insert, replace, move, delete);
+
+		String apply = "tt --apply file --name service-name [--dry-run]";
+
+		String bulk = "tt (-P|-A|-I|-R|-M|-D|--apply file) --name name1,name2,...|pattern* ... [--parallel 4] [--rate 20]";
+
+		String simulate = "tt --simulate --name service-name [--table file] [--rps 1000] [--requests 100000]"
+				+ " [--latency 50[,no=ms...]] [--failure 0[,no=rate...]] [--seed number]";
+
+		String rollout = "tt --rollout --name service-name --from-index number --to-index number [--total-weight 100]"
+				+ " [--steps 5] [--interval 60]";
+
+		String resume = "tt --rollout --name service-name --resume|--rollback";
+		return Arrays.asList(show, append, insert, replace, move, delete, apply, bulk, simulate, rollout, resume);
 	}
 
 	@Override
@@ -142,6 +282,19 @@ public class TrafficCommand extends Command {
 		if (null == name) {
 			throw ArgumentException.missArgument(m_ServiceName);
 		}
+		if (isBulk(name)) {
+			TrafficTableItemVo vo = createItem(title, serviceNo, serviceVersion, weight, maxConcurrent, maxFails,
+					failTimeout, readTimeout);
+			TrafficOp op = newBulkOp(args, vo, index, fromIndex, toIndex);
+			int parallel = toParallel(Argument.getValue(args, m_Parallel), BULK_PARALLEL_DEFAULT);
+			int rate = NumberUtil.toInt(Argument.getValue(args, m_Rate), BULK_RATE_DEFAULT);
+			if (rate <= 0) {
+				throw new ArgumentException("无效的速率：" + Argument.getValue(args, m_Rate));
+			}
+			bulk(resolveNames(name), op, parallel, rate, Argument.contain(args, m_Print),
+					Argument.contain(args, m_DryRun));
+			return;
+		}
 
 		if (Argument.contain(args, m_Print)) {
 			showTrafficTable(name);
@@ -161,6 +314,24 @@ public class TrafficCommand extends Command {
 			moveTrafficTable(name, fromIndex, toIndex);
 		} else if (Argument.contain(args, m_Delete)) {
 			deleteTrafficTable(name, index);
+		} else if (Argument.contain(args, m_Apply)) {
+			applyTrafficTable(name, Argument.getValue(args, m_Apply), Argument.contain(args, m_DryRun));
+		} else if (Argument.contain(args, m_Simulate)) {
+			simulate(name, Argument.getValue(args, m_Table), Argument.getValue(args, m_Rps),
+					Argument.getValue(args, m_Requests), Argument.getValue(args, m_Latency),
+					Argument.getValue(args, m_Failure), Argument.getValue(args, m_Seed));
+		} else if (Argument.contain(args, m_Rollout)) {
+			if (Argument.contain(args, m_Rollback)) {
+				rollback(name);
+			} else if (Argument.contain(args, m_Resume)) {
+				resume(name);
+			} else {
+				if (null != weight) {
+					throw new ArgumentException("发布时以--total-weight指定两条规则的权重之和");
+				}
+				rollout(name, fromIndex, toIndex, Argument.getIntValue(args, m_TotalWeight),
+						Argument.getValue(args, m_Steps), Argument.getValue(args, m_Interval));
+			}
 		} else {
 			throw ArgumentException.help(getName());
 		}
@@ -217,7 +388,958 @@ public class TrafficCommand extends Command {
 		show(name, table);
 	}
 
-	TrafficTableItemVo createItem(String title, String serviceNo, String serviceVersion, Integer weight,
+	/**
+	 * 获取一次现状，计算并执行最少的修改，最后输出一次流量表
+	 */
+	void applyTrafficTable(String name, String path, boolean dryRun) {
+		Outcome outcome = converge(getKeeper(), name, readItems(path), dryRun);
+		List<TableConverger.Edit<TrafficTableItem>> edits = outcome.getEdits();
+		PrintStream ps = getPrintStream();
+		if (dryRun) {
+			ps.println(name + "的流量表需要" + edits.size() + "项修改");
+			for (TableConverger.Edit<TrafficTableItem> e : edits) {
+				ps.println(e);
+			}
+			return;
+		}
+		if (!isRecordOutput()) {
+			ps.println(edits.isEmpty() ? "流量表无需修改" : "执行" + edits.size() + "项修改");
+		}
+		show(name, outcome.getTable());
+	}
+
+	/**
+	 * 把流量表修改为目标规则
+	 * 
+	 * @param dryRun
+	 *            只计算不执行
+	 * @return 修改后（或只计算时修改前）的流量表及修改项
+	 */
+	static Outcome converge(final Keeper keeper, final String name, List<TrafficTableItem> desired, boolean dryRun) {
+		TrafficTable table = keeper.getTrafficTable(name);
+		List<TrafficTableItem> current = (null == table || null == table.getItems())
+				? Collections.<TrafficTableItem> emptyList()
+				: table.getItems();
+		List<TableConverger.Edit<TrafficTableItem>> edits = CONVERGER.plan(current, desired);
+		if (dryRun || edits.isEmpty()) {
+			return new Outcome(table, edits);
+		}
+		final int[] size = { current.size() };
+		final TrafficTable[] result = { table };
+		TableConverger.apply(edits, new TableConverger.Editor<TrafficTableItem>() {
+
+			@Override
+			public void insert(int index, TrafficTableItem item) {
+				// 插到末尾的用追加
+				result[0] = (index >= size[0]) ? keeper.appendTrafficRule(name, item)
+						: keeper.insertTrafficRule(name, item, index);
+				size[0]++;
+			}
+
+			@Override
+			public void move(int from, int to) {
+				result[0] = keeper.moveTrafficRule(name, from, to);
+			}
+
+			@Override
+			public void replace(int index, TrafficTableItem item, TrafficTableItem target) {
+				try {
+					result[0] = keeper.replaceTrafficRule(name, item, index, target.getName());
+				} catch (KeeperException e) {
+					throw staleRule(name, index, target.getName(), e);
+				}
+			}
+
+			@Override
+			public void remove(int index, TrafficTableItem target) {
+				try {
+					result[0] = keeper.removeTrafficRule(name, index, target.getName());
+				} catch (KeeperException e) {
+					throw staleRule(name, index, target.getName(), e);
+				}
+				size[0]--;
+			}
+		});
+		return new Outcome(result[0], edits);
+	}
+
+	/**
+	 * 开始分步发布
+	 */
+	void rollout(String name, Integer fromIndex, Integer toIndex, Integer total, String stepsStr,
+			String intervalStr) {
+		if (null == fromIndex) {
+			throw ArgumentException.missArgument(m_FromIndex);
+		}
+		if (null == toIndex) {
+			throw ArgumentException.missArgument(m_ToIndex);
+		}
+		if (null == total) {
+			total = ROLLOUT_TOTAL_DEFAULT;
+		}
+		if (total <= 0 || total > 100) {
+			throw new ArgumentException("无效的权重之和：" + total);
+		}
+		int steps = NumberUtil.toInt(stepsStr, ROLLOUT_STEPS_DEFAULT);
+		if (steps <= 0) {
+			throw new ArgumentException("无效的步数：" + stepsStr);
+		}
+		int interval = NumberUtil.toInt(intervalStr, ROLLOUT_INTERVAL_DEFAULT);
+		if (interval <= 0) {
+			throw new ArgumentException("无效的间隔：" + intervalStr);
+		}
+		File file = getRolloutFile(name);
+		if (file.exists()) {
+			throw new CommonException(name + "有未完成的发布，使用--resume继续或--rollback回滚");
+		}
+		List<TrafficTableItem> items = getItems(getKeeper().getTrafficTable(name));
+		if (fromIndex < 0 || fromIndex >= items.size()) {
+			throw new ArgumentException("无效的序号：" + fromIndex);
+		}
+		if (toIndex < 0 || toIndex >= items.size() || toIndex.equals(fromIndex)) {
+			throw new ArgumentException("无效的序号：" + toIndex);
+		}
+		TrafficTableItem from = items.get(fromIndex);
+		TrafficTableItem to = items.get(toIndex);
+		if (TrafficRules.isBackup(from.getWeight()) || TrafficRules.isBackup(to.getWeight())) {
+			throw new ArgumentException("后备规则不能用于发布");
+		}
+		WeightRollout r = new WeightRollout(name, from, to, total, steps, interval);
+		if (r.indexOfFrom(items) != fromIndex || r.indexOfTo(items) != toIndex) {
+			// 进度按编号+版本识别规则
+			throw new ArgumentException("前面有编号及版本相同的规则，无法识别发布的规则");
+		}
+		save(r, file);
+		run(r, file);
+	}
+
+	/**
+	 * 继续保存的发布
+	 */
+	void resume(String name) {
+		File file = getRolloutFile(name);
+		WeightRollout r = load(file);
+		if (null == r) {
+			throw new CommonException(name + "没有未完成的发布");
+		}
+		run(r, file);
+	}
+
+	/**
+	 * 回滚保存的发布
+	 */
+	void rollback(String name) {
+		File file = getRolloutFile(name);
+		WeightRollout r = load(file);
+		if (null == r) {
+			throw new CommonException(name + "没有未完成的发布");
+		}
+		restore(r, file);
+	}
+
+	/**
+	 * 执行发布直至完成、回滚或暂停，每步前检查新规则的实例；网关调用失败时稍后重试
+	 */
+	void run(WeightRollout r, File file) {
+		Keeper keeper = getKeeper();
+		PrintStream ps = getPrintStream();
+		String name = r.getService();
+		ps.println(ServiceCommand.now() + " 发布" + r + "，每步间隔" + r.getInterval() + "秒，按回车键暂停");
+		long interval = r.getInterval() * 1000L;
+		long retry = 0;
+		while (true) {
+			long wait = (0 == r.getStep()) ? 0 : r.getStepTime() + interval - System.currentTimeMillis();
+			wait = Math.max(wait, retry);
+			ps.flush();
+			if (wait > 0 && !await(wait)) {
+				ps.println(ServiceCommand.now() + " 已暂停，使用tt --rollout --name " + name + " --resume继续");
+				return;
+			}
+			retry = ROLLOUT_RETRY_MILLIS;
+			TrafficTable table;
+			List<ServiceInstance> instances;
+			try {
+				table = keeper.getTrafficTable(name);
+				instances = loadInstances(keeper, name);
+			} catch (RuntimeException e) {
+				ps.println(ServiceCommand.now() + " 查询失败：" + e.getMessage());
+				continue;
+			}
+			List<TrafficTableItem> items = getItems(table);
+			int from = r.indexOfFrom(items);
+			int to = r.indexOfTo(items);
+			if (from < 0 || to < 0) {
+				throw new CommonException("流量表中找不到发布的规则，已停止发布");
+			}
+			if (!isExpected(r, items.get(from).getWeight(), items.get(to).getWeight())) {
+				throw new CommonException("规则的权重已被修改，已停止发布，可使用--rollback回滚");
+			}
+			String problem = check(r.getCanaries(items, instances));
+			if (null != problem) {
+				ps.println(ServiceCommand.now() + " " + problem);
+				if (0 == r.getStep()) {
+					delete(file);
+					throw new CommonException("未开始发布");
+				}
+				restore(r, file);
+				return;
+			}
+			if (r.getStep() >= r.getSteps()) {
+				delete(file);
+				ps.println(ServiceCommand.now() + " 发布完成");
+				show(name, table);
+				return;
+			}
+			int next = r.getStep() + 1;
+			int[] weights = r.getWeights(next);
+			try {
+				// 先加新规则的权重，再减旧规则的
+				keeper.replaceTrafficRule(name, withWeight(items.get(to), weights[1]), to, items.get(to).getName());
+				keeper.replaceTrafficRule(name, withWeight(items.get(from), weights[0]), from,
+						items.get(from).getName());
+			} catch (RuntimeException e) {
+				ps.println(ServiceCommand.now() + " 修改失败：" + e.getMessage());
+				continue;
+			}
+			r.setStep(next, System.currentTimeMillis());
+			save(r, file);
+			ps.println(ServiceCommand.now() + " 第" + next + "/" + r.getSteps() + "步，权重：" + weights[0] + "/" + weights[1]);
+			retry = 0;
+		}
+	}
+
+	/**
+	 * 恢复两条规则原来的权重，失败时重试直至按回车键
+	 */
+	void restore(WeightRollout r, File file) {
+		Keeper keeper = getKeeper();
+		PrintStream ps = getPrintStream();
+		String name = r.getService();
+		ps.println(ServiceCommand.now() + " 回滚" + r);
+		while (true) {
+			boolean missing = false;
+			try {
+				List<TrafficTableItem> items = getItems(keeper.getTrafficTable(name));
+				int from = r.indexOfFrom(items);
+				int to = r.indexOfTo(items);
+				missing = (from < 0 || to < 0);
+				if (missing) {
+					delete(file);
+					throw new CommonException("流量表中找不到发布的规则，无法回滚");
+				}
+				// 先恢复旧规则的权重，再减新规则的
+				keeper.replaceTrafficRule(name, withWeight(items.get(from), r.getFromWeight()), from,
+						items.get(from).getName());
+				TrafficTable table = keeper.replaceTrafficRule(name, withWeight(items.get(to), r.getToWeight()), to,
+						items.get(to).getName());
+				delete(file);
+				ps.println(ServiceCommand.now() + " 已回滚");
+				show(name, table);
+				return;
+			} catch (RuntimeException e) {
+				// 只有找不到规则不再重试，超时、熔断、连接失败等都继续重试
+				if (missing) {
+					throw e;
+				}
+				ps.println(ServiceCommand.now() + " 回滚失败：" + e.getMessage());
+			}
+			ps.flush();
+			if (!await(ROLLOUT_RETRY_MILLIS)) {
+				ps.println(ServiceCommand.now() + " 回滚未完成，使用tt --rollout --name " + name + " --rollback重试");
+				return;
+			}
+		}
+	}
+
+	/**
+	 * 权重是否为已执行的步或（中途失败的）下一步
+	 */
+	static boolean isExpected(WeightRollout r, int fromWeight, int toWeight) {
+		int[] current = r.getWeights(r.getStep());
+		int[] next = r.getWeights(Math.min(r.getStep() + 1, r.getSteps()));
+		return (fromWeight == current[0] || fromWeight == next[0]) && (toWeight == current[1] || toWeight == next[1]);
+	}
+
+	/**
+	 * 检查使用新规则的实例
+	 * 
+	 * @return 没有问题返回null
+	 */
+	static String check(List<ServiceInstance> canaries) {
+		if (canaries.isEmpty()) {
+			return "没有使用新规则的实例";
+		}
+		StringBuilder sb = null;
+		for (ServiceInstance s : canaries) {
+			if (WeightRollout.isDegraded(s)) {
+				sb = (null == sb) ? new StringBuilder("实例异常：") : sb.append("，");
+				sb.append(s.getNo()).append("(").append(ServiceInstance.getStateText(s.getState())).append(")");
+			}
+		}
+		return (null == sb) ? null : sb.toString();
+	}
+
+	static TrafficTableItem withWeight(TrafficTableItem item, int weight) {
+		TrafficTableItemVo vo = new TrafficTableItemVo(item.getServiceNo(), item.getServiceVersion());
+		vo.name = item.getName();
+		vo.weight = weight;
+		vo.maxConcurrent = item.getMaxConcurrent();
+		vo.maxFails = item.getMaxFails();
+		vo.failTimeout = item.getFailTimeout();
+		vo.readTimeout = item.getReadTimeout();
+		return new TrafficTableItemWrap(vo);
+	}
+
+	File getRolloutFile(String name) {
+		return new File(m_Console.m_HomeDir + File.separator + ROLLOUT_DIR, name + ".properties");
+	}
+
+	static WeightRollout load(File file) {
+		try {
+			return WeightRollout.load(file);
+		} catch (IOException e) {
+			throw new CommonException("读取发布进度出错，" + e.toString());
+		}
+	}
+
+	static void save(WeightRollout r, File file) {
+		try {
+			r.save(file);
+		} catch (IOException e) {
+			throw new CommonException("保存发布进度出错，" + e.toString());
+		}
+	}
+
+	static void delete(File file) {
+		if (file.exists() && !file.delete()) {
+			throw new CommonException("无法删除发布进度：" + file);
+		}
+	}
+
+	static List<TrafficTableItem> getItems(TrafficTable table) {
+		return (null == table || null == table.getItems()) ? Collections.<TrafficTableItem> emptyList()
+				: table.getItems();
+	}
+
+	/**
+	 * 查询微服务的全部实例
+	 */
+	static List<ServiceInstance> loadInstances(Keeper keeper, String name) {
+		List<ServiceInstance> instances = new ArrayList<ServiceInstance>();
+		for (ServiceInstance s : ServiceRegistryCache.load(keeper, name, ServiceCommand.ALL_PAGE_SIZE_DEFAULT)
+				.values()) {
+			if (name.equals(s.getName())) {
+				instances.add(s);
+			}
+		}
+		return instances;
+	}
+
+	/**
+	 * 模拟流量表在负载下的效果
+	 */
+	void simulate(String name, String tablePath, String rpsStr, String requestsStr, String latencyStr,
+			String failureStr, String seedStr) {
+		double rps = toDouble(rpsStr, SIMULATE_RPS_DEFAULT);
+		if (rps <= 0) {
+			throw new ArgumentException("无效的到达速率：" + rpsStr);
+		}
+		long requests = toLong(requestsStr, SIMULATE_REQUESTS_DEFAULT);
+		if (requests <= 0) {
+			throw new ArgumentException("无效的请求数：" + requestsStr);
+		}
+		Map<String, Double> latencies = new HashMap<String, Double>();
+		double latency = parsePerInstance(latencyStr, SIMULATE_LATENCY_DEFAULT, Double.MAX_VALUE, latencies);
+		Map<String, Double> failures = new HashMap<String, Double>();
+		double failure = parsePerInstance(failureStr, 0, 1, failures);
+		long seed = toLong(seedStr, System.nanoTime());
+
+		Keeper keeper = getKeeper();
+		List<TrafficTableItem> items;
+		if (null != tablePath) {
+			items = readItems(tablePath);
+		} else {
+			items = getItems(keeper.getTrafficTable(name));
+		}
+		List<ServiceInstance> instances = loadInstances(keeper, name);
+		boolean synthetic = instances.isEmpty();
+		if (synthetic) {
+			// 没有注册的实例，按规则各模拟一个
+			for (int i = 0; i < items.size(); i++) {
+				TrafficTableItem item = items.get(i);
+				String no = (null == item.getServiceNo() || item.getServiceNo().isEmpty()) ? "#" + i
+						: item.getServiceNo();
+				instances.add(new ServiceInstance(name, no, item.getServiceVersion(), 0, 0, null));
+			}
+			if (instances.isEmpty()) {
+				throw new ArgumentException(name + "没有实例也没有流量规则");
+			}
+		}
+
+		TrafficSimulator sim = new TrafficSimulator(seed);
+		int[] rules = new int[instances.size()];
+		for (int i = 0; i < instances.size(); i++) {
+			ServiceInstance s = instances.get(i);
+			double l = latencies.containsKey(s.getNo()) ? latencies.get(s.getNo()) : latency;
+			double f = failures.containsKey(s.getNo()) ? failures.get(s.getNo()) : failure;
+			if (items.isEmpty()) {
+				rules[i] = -1;
+				sim.addEndpoint(s.getNo(), TrafficTableItem.WEIGHT_DEFAULT, TrafficTableItem.MAX_CONCURRENT_DEFAULT,
+						TrafficTableItem.MAX_FAILS_DEFAULT, TrafficTableItem.FAIL_TIMEOUT_DEFAULT,
+						TrafficTableItem.READ_TIMEOUT_DEFAULT, l, f);
+				continue;
+			}
+			rules[i] = synthetic ? i : TrafficRules.indexOf(items, s.getNo(), s.getVersion());
+			if (rules[i] < 0) {
+				// 没有匹配的规则，不分配流量
+				sim.addEndpoint(s.getNo(), 0, 0, 0, 0, 0, l, f);
+				continue;
+			}
+			TrafficTableItem item = items.get(rules[i]);
+			sim.addEndpoint(s.getNo(), item.getWeight(), item.getMaxConcurrent(), item.getMaxFails(),
+					item.getFailTimeout(), item.getReadTimeout(), l, f);
+		}
+		long begin = System.nanoTime();
+		sim.run(rps, requests);
+		long elapsed = (System.nanoTime() - begin) / 1000000;
+
+		List<TrafficSimulator.Endpoint> eps = sim.getEndpoints();
+		RecordWriter writer = openRecordWriter("no", "version", "rule", "weight", "requests", "share", "fails",
+				"timeouts", "busy_skips", "fail_outs", "p50_ms", "p99_ms");
+		if (null != writer) {
+			for (int i = 0; i < eps.size(); i++) {
+				TrafficSimulator.Endpoint ep = eps.get(i);
+				writer.write(ep.getName(), instances.get(i).getVersion(), rules[i] < 0 ? null : rules[i],
+						ep.getWeight(), ep.getRequests(), ep.getRequests() / (double) sim.getRequests(),
+						ep.getFails(), ep.getTimeouts(), ep.getBusySkips(), ep.getDownCount(),
+						toMillis(ep.getLatency().getPercentile(50)), toMillis(ep.getLatency().getPercentile(99)));
+			}
+			writer.flush();
+			return;
+		}
+		PrintStream ps = getPrintStream();
+		long fails = 0;
+		long timeouts = 0;
+		for (TrafficSimulator.Endpoint ep : eps) {
+			fails += ep.getFails();
+			timeouts += ep.getTimeouts();
+		}
+		long ok = sim.getRequests() - sim.getRejected() - fails - timeouts;
+		ps.println("模拟请求：" + sim.getRequests() + "，到达速率：" + rpsStr(rps) + "/秒，模拟时长："
+				+ String.format("%.1f", sim.getElapsed() / 1000000.0) + "秒，耗时：" + elapsed + "ms"
+				+ (synthetic ? "（没有注册的实例，按规则模拟）" : ""));
+		ps.println("成功：" + ok + "，失败：" + fails + "，超时：" + timeouts + "，拒绝：" + sim.getRejected() + "（其中有实例并发已满："
+				+ sim.getRejectedBusy() + "），成功耗时(ms) p50：" + toMillis(sim.getLatency().getPercentile(50)) + "，p99："
+				+ toMillis(sim.getLatency().getPercentile(99)));
+		FitTable table = new FitTable(true, 1, 1);
+		table.addCell("实例");
+		table.addCell("版本");
+		table.addCell("规则");
+		table.addCell("权重");
+		table.addCell("请求");
+		table.addCell("占比");
+		table.addCell("失败");
+		table.addCell("超时");
+		table.addCell("并发满跳过");
+		table.addCell("摘除");
+		table.addCell("p50(ms)");
+		table.addCell("p99(ms)");
+		for (int i = 0; i < eps.size(); i++) {
+			TrafficSimulator.Endpoint ep = eps.get(i);
+			table.nextRow();
+			table.addCell(ep.getName());
+			table.addCell(instances.get(i).getVersion());
+			table.addCell(rules[i] < 0 ? (items.isEmpty() ? "默认" : "无") : String.valueOf(rules[i]));
+			table.addCell(String.valueOf(ep.getWeight()));
+			table.addCell(String.valueOf(ep.getRequests()));
+			table.addCell(String.format("%.1f%%", ep.getRequests() * 100.0 / sim.getRequests()));
+			table.addCell(String.valueOf(ep.getFails()));
+			table.addCell(String.valueOf(ep.getTimeouts()));
+			table.addCell(String.valueOf(ep.getBusySkips()));
+			table.addCell(String.valueOf(ep.getDownCount()));
+			table.addCell(0 == ep.getLatency().getCount() ? "" : toMillis(ep.getLatency().getPercentile(50)));
+			table.addCell(0 == ep.getLatency().getCount() ? "" : toMillis(ep.getLatency().getPercentile(99)));
+		}
+		table.print(ps);
+	}
+
+	/**
+	 * 解析“默认值,编号=值,...”
+	 * 
+	 * @param max
+	 *            值的上限，超出或为负数时抛出参数错误
+	 * @return 默认值
+	 */
+	static double parsePerInstance(String str, double def, double max, Map<String, Double> perInstance) {
+		if (null == str) {
+			return def;
+		}
+		for (String part : str.split(",")) {
+			part = part.trim();
+			if (part.isEmpty()) {
+				continue;
+			}
+			int i = part.indexOf('=');
+			if (i < 0) {
+				def = toDouble(part, 0, max);
+			} else {
+				perInstance.put(part.substring(0, i).trim(), toDouble(part.substring(i + 1).trim(), 0, max));
+			}
+		}
+		return def;
+	}
+
+	static double toDouble(String str, double def, double max) {
+		double v = toDouble(str, def);
+		if (v > max) {
+			throw new ArgumentException(
+					"无效的数值：" + str + "，不能大于" + BigDecimal.valueOf(max).stripTrailingZeros().toPlainString());
+		}
+		return v;
+	}
+
+	static double toDouble(String str, double def) {
+		if (null == str) {
+			return def;
+		}
+		try {
+			double v = Double.parseDouble(str);
+			if (Double.isNaN(v) || Double.isInfinite(v) || v < 0) {
+				throw new ArgumentException("无效的数值：" + str);
+			}
+			return v;
+		} catch (NumberFormatException e) {
+			throw new ArgumentException("无效的数值：" + str);
+		}
+	}
+
+	static long toLong(String str, long def) {
+		if (null == str) {
+			return def;
+		}
+		try {
+			return Long.parseLong(str);
+		} catch (NumberFormatException e) {
+			throw new ArgumentException("无效的数值：" + str);
+		}
+	}
+
+	static String rpsStr(double rps) {
+		return (rps == Math.rint(rps)) ? String.valueOf((long) rps) : String.valueOf(rps);
+	}
+
+	/** 微秒转为毫秒，保留一位小数 */
+	static String toMillis(long micros) {
+		return String.format("%.1f", micros / 1000.0);
+	}
+
+	/**
+	 * 名称含逗号或通配符时批量操作
+	 */
+	static boolean isBulk(String name) {
+		return name.indexOf(',') >= 0 || isGlob(name);
+	}
+
+	static boolean isGlob(String name) {
+		return name.indexOf('*') >= 0 || name.indexOf('?') >= 0;
+	}
+
+	/**
+	 * 解析逗号分隔的名称，通配符通过查询微服务匹配
+	 */
+	List<String> resolveNames(String names) {
+		Set<String> result = new TreeSet<String>();
+		for (String name : names.split(",")) {
+			name = name.trim();
+			if (name.isEmpty()) {
+				continue;
+			}
+			if (!isGlob(name)) {
+				result.add(name);
+				continue;
+			}
+			// 以最长的非通配部分作为查询的关键字，再按通配符过滤
+			String keyword = null;
+			for (String part : name.split("[*?]")) {
+				if (null == keyword || part.length() > keyword.length()) {
+					keyword = part;
+				}
+			}
+			StringBuilder regex = new StringBuilder();
+			for (String part : name.split("(?<=[*?])|(?=[*?])")) {
+				if ("*".equals(part)) {
+					regex.append(".*");
+				} else if ("?".equals(part)) {
+					regex.append('.');
+				} else if (!part.isEmpty()) {
+					regex.append(Pattern.quote(part));
+				}
+			}
+			Pattern pattern = Pattern.compile(regex.toString());
+			for (ServiceInstance s : ServiceRegistryCache
+					.load(getKeeper(), keyword.isEmpty() ? null : keyword, ServiceCommand.ALL_PAGE_SIZE_DEFAULT).values()) {
+				if (null != s.getName() && pattern.matcher(s.getName()).matches()) {
+					result.add(s.getName());
+				}
+			}
+		}
+		if (result.isEmpty()) {
+			throw new ArgumentException("没有匹配的微服务：" + names);
+		}
+		return new ArrayList<String>(result);
+	}
+
+	/**
+	 * 生成批量执行的操作
+	 */
+	TrafficOp newBulkOp(List<Argument> args, final TrafficTableItemVo vo, final Integer index,
+			final Integer fromIndex, final Integer toIndex) {
+		if (Argument.contain(args, m_Print)) {
+			return new TrafficOp() {
+
+				@Override
+				public Outcome execute(Keeper keeper, String name) {
+					return new Outcome(keeper.getTrafficTable(name), null);
+				}
+			};
+		}
+		if (Argument.contain(args, m_Append)) {
+			return new TrafficOp() {
+
+				@Override
+				public Outcome execute(Keeper keeper, String name) {
+					return new Outcome(keeper.appendTrafficRule(name, new TrafficTableItemWrap(vo)), null);
+				}
+			};
+		}
+		if (Argument.contain(args, m_Insert)) {
+			if (null == index) {
+				throw ArgumentException.missArgument(m_Index);
+			}
+			return new TrafficOp() {
+
+				@Override
+				public Outcome execute(Keeper keeper, String name) {
+					return new Outcome(keeper.insertTrafficRule(name, new TrafficTableItemWrap(vo), index), null);
+				}
+			};
+		}
+		if (Argument.contain(args, m_Replace)) {
+			if (null == index) {
+				throw ArgumentException.missArgument(m_Index);
+			}
+			return new TrafficOp() {
+
+				@Override
+				public Outcome execute(Keeper keeper, String name) {
+					return new Outcome(keeper.replaceTrafficRule(name, new TrafficTableItemWrap(vo), index, null),
+							null);
+				}
+			};
+		}
+		if (Argument.contain(args, m_Move)) {
+			if (null == fromIndex) {
+				throw ArgumentException.missArgument(m_FromIndex);
+			}
+			if (null == toIndex) {
+				throw ArgumentException.missArgument(m_ToIndex);
+			}
+			return new TrafficOp() {
+
+				@Override
+				public Outcome execute(Keeper keeper, String name) {
+					return new Outcome(keeper.moveTrafficRule(name, fromIndex, toIndex), null);
+				}
+			};
+		}
+		if (Argument.contain(args, m_Delete)) {
+			if (null == index) {
+				throw ArgumentException.missArgument(m_Index);
+			}
+			return new TrafficOp() {
+
+				@Override
+				public Outcome execute(Keeper keeper, String name) {
+					return new Outcome(keeper.removeTrafficRule(name, index, null), null);
+				}
+			};
+		}
+		if (Argument.contain(args, m_Apply)) {
+			final List<TrafficTableItem> desired = readItems(Argument.getValue(args, m_Apply));
+			final boolean dryRun = Argument.contain(args, m_DryRun);
+			return new TrafficOp() {
+
+				@Override
+				public Outcome execute(Keeper keeper, String name) {
+					return converge(keeper, name, desired, dryRun);
+				}
+			};
+		}
+		throw ArgumentException.help(getName());
+	}
+
+	/**
+	 * 对多个微服务并发执行同一操作，限制并发数及keeper的调用速率，最后汇总输出
+	 */
+	void bulk(List<String> names, final TrafficOp op, int parallel, int rate, boolean showTables, boolean dryRun) {
+		// 允许并发数大小的突发，之后按速率放行
+		final Keeper keeper = new RateLimitedKeeperHandler(getKeeper(), new TokenBucket(rate, parallel)).newProxy();
+		AsyncKeeper async = getAsyncKeeper(parallel);
+		List<Future<Outcome>> futures = new ArrayList<Future<Outcome>>(names.size());
+		List<Outcome> outcomes = new ArrayList<Outcome>(names.size());
+		long begin = System.currentTimeMillis();
+		try {
+			int submitted = 0;
+			for (int i = 0; i < names.size(); i++) {
+				while (submitted < names.size() && submitted - i < parallel) {
+					final String name = names.get(submitted++);
+					futures.add(async.submit(new Callable<Outcome>() {
+
+						@Override
+						public Outcome call() throws Exception {
+							try {
+								return op.execute(keeper, name);
+							} catch (RuntimeException e) {
+								// 一个失败不影响其它的
+								return new Outcome(e);
+							}
+						}
+					}));
+				}
+				outcomes.add(AsyncKeeper.join(futures.get(i)));
+				futures.set(i, null);
+			}
+		} finally {
+			AsyncKeeper.cancel(futures);
+		}
+		long elapsed = System.currentTimeMillis() - begin;
+
+		PrintStream ps = getPrintStream();
+		int failures = 0;
+		for (Outcome o : outcomes) {
+			if (null != o.getError()) {
+				failures++;
+			}
+		}
+		String summary = "微服务数：" + names.size() + "，成功：" + (names.size() - failures) + "，失败：" + failures + "，耗时："
+				+ elapsed + "ms";
+		if (showTables) {
+			RecordWriter writer = openRecordWriter(BULK_RECORD_FIELDS);
+			for (int i = 0; i < names.size(); i++) {
+				Outcome o = outcomes.get(i);
+				if (null != writer) {
+					if (null == o.getError()) {
+						write(writer, names.get(i), o.getTable());
+					} else {
+						Object[] values = new Object[BULK_RECORD_FIELDS.length];
+						values[0] = names.get(i);
+						values[values.length - 1] = o.getErrorMessage();
+						writer.write(values);
+					}
+					continue;
+				}
+				if (null == o.getError()) {
+					show(names.get(i), o.getTable());
+				} else {
+					ps.println(names.get(i) + "的流量表获取失败：" + o.getErrorMessage());
+				}
+			}
+			if (null != writer) {
+				writer.flush();
+				// 不混入记录中
+				getErrorStream().println(summary);
+			} else {
+				ps.println(summary);
+			}
+			return;
+		}
+		RecordWriter writer = openRecordWriter("service", "ok", "rules", "edits", "error");
+		if (null != writer) {
+			for (int i = 0; i < names.size(); i++) {
+				Outcome o = outcomes.get(i);
+				writer.write(names.get(i), null == o.getError(), o.getRuleCount(),
+						null == o.getEdits() ? null : o.getEdits().size(), o.getErrorMessage());
+			}
+			writer.flush();
+			getErrorStream().println(summary);
+			return;
+		}
+		FitTable table = new FitTable(true, 1, 1);
+		table.addCell("微服务");
+		table.addCell("结果");
+		table.addCell("规则数");
+		table.addCell("说明");
+		for (int i = 0; i < names.size(); i++) {
+			Outcome o = outcomes.get(i);
+			table.nextRow();
+			table.addCell(names.get(i));
+			if (null != o.getError()) {
+				table.addCell("失败");
+				table.addCell("");
+				table.addCell(o.getErrorMessage());
+				continue;
+			}
+			table.addCell("成功");
+			table.addCell(String.valueOf(o.getRuleCount()));
+			table.addCell(null == o.getEdits() ? "" : (dryRun ? "需要" : "执行") + o.getEdits().size() + "项修改");
+		}
+		table.print(ps);
+		ps.println(summary);
+	}
+
+	/**
+	 * 对一个微服务的流量表的操作
+	 */
+	interface TrafficOp {
+		Outcome execute(Keeper keeper, String name);
+	}
+
+	/**
+	 * 操作的结果
+	 */
+	static class Outcome {
+		final TrafficTable m_Table;
+		final List<TableConverger.Edit<TrafficTableItem>> m_Edits;
+		final RuntimeException m_Error;
+
+		Outcome(TrafficTable table, List<TableConverger.Edit<TrafficTableItem>> edits) {
+			m_Table = table;
+			m_Edits = edits;
+			m_Error = null;
+		}
+
+		Outcome(RuntimeException error) {
+			m_Table = null;
+			m_Edits = null;
+			m_Error = error;
+		}
+
+		TrafficTable getTable() {
+			return m_Table;
+		}
+
+		/** 修改项，不是apply时为null */
+		List<TableConverger.Edit<TrafficTableItem>> getEdits() {
+			return m_Edits;
+		}
+
+		RuntimeException getError() {
+			return m_Error;
+		}
+
+		String getErrorMessage() {
+			if (null == m_Error) {
+				return null;
+			}
+			return (null == m_Error.getMessage()) ? m_Error.toString() : m_Error.getMessage();
+		}
+
+		Integer getRuleCount() {
+			if (null == m_Table) {
+				return null;
+			}
+			return (null == m_Table.getItems()) ? 0 : m_Table.getItems().size();
+		}
+	}
+
+	/**
+	 * 读取规则文件，JSON数组或每行一个JSON对象
+	 */
+	List<TrafficTableItem> readItems(String path) {
+		String text;
+		try {
+			text = new String(Files.readAllBytes(Paths.get(path)), "UTF-8").trim();
+		} catch (IOException e) {
+			throw new CommonException("读取规则文件出错，" + e.toString());
+		}
+		List<Object> values = new ArrayList<Object>();
+		try {
+			if (text.startsWith("[")) {
+				values.addAll((List<?>) SimpleJson.parse(text));
+			} else {
+				for (String line : text.split("\\r?\\n")) {
+					if (line.trim().length() > 0) {
+						values.add(SimpleJson.parse(line));
+					}
+				}
+			}
+		} catch (IllegalArgumentException | ClassCastException e) {
+			throw new ArgumentException("规则文件格式错误：" + e.getMessage());
+		}
+		List<TrafficTableItem> items = new ArrayList<TrafficTableItem>(values.size());
+		for (Object v : values) {
+			if (!(v instanceof Map)) {
+				throw new ArgumentException("规则须为JSON对象：" + v);
+			}
+			items.add(toItem((Map<?, ?>) v));
+		}
+		return items;
+	}
+
+	/**
+	 * 由JSON对象生成规则，字段与记录输出的相同
+	 */
+	static TrafficTableItem toItem(Map<?, ?> m) {
+		TrafficTableItemVo vo = createItem(toStr(m.get("name")), toStr(m.get("no")), toStr(m.get("version")),
+				toInt(m.get("weight")), toInt(m.get("max_concurrent")), toInt(m.get("max_fails")),
+				toInt(m.get("fail_timeout")), toInt(m.get("read_timeout")));
+		return new TrafficTableItemWrap(vo);
+	}
+
+	/**
+	 * 规则转为JSON对象，与{@link #toItem(Map)}对应
+	 */
+	static Map<String, Object> toMap(TrafficTableItem item) {
+		Map<String, Object> m = new LinkedHashMap<String, Object>();
+		m.put("name", item.getName());
+		m.put("no", item.getServiceNo());
+		m.put("version", item.getServiceVersion());
+		m.put("weight", item.getWeight());
+		m.put("max_concurrent", item.getMaxConcurrent());
+		m.put("max_fails", item.getMaxFails());
+		m.put("fail_timeout", item.getFailTimeout());
+		m.put("read_timeout", item.getReadTimeout());
+		return m;
+	}
+
+	/**
+	 * 按计划的序号替换、删除规则被keeper拒绝时，中止其余的修改
+	 * 
+	 * @param name
+	 *            微服务名
+	 * @param index
+	 *            规则序号
+	 * @param ruleName
+	 *            计划时该序号上的规则名
+	 */
+	static CommonException staleRule(String name, int index, String ruleName, KeeperException e) {
+		return new CommonException(name + "的第" + index + "项规则（" + StringUtil.toString(ruleName)
+				+ "）修改失败，表可能已被修改，其余修改已中止（已执行的保留），请重新执行：" + e.getMessage(), e);
+	}
+
+	static String toStr(Object v) {
+		return (null == v) ? null : v.toString();
+	}
+
+	static Integer toInt(Object v) {
+		if (null == v) {
+			return null;
+		}
+		if (v instanceof Number) {
+			return ((Number) v).intValue();
+		}
+		try {
+			return Integer.valueOf(v.toString());
+		} catch (NumberFormatException e) {
+			throw new ArgumentException("无效的数值：" + v);
+		}
+	}
+
+	static boolean eq(String a, String b) {
+		return (null == a) ? null == b : a.equals(b);
+	}
+
+	static TrafficTableItemVo createItem(String title, String serviceNo, String serviceVersion, Integer weight,
 			Integer maxConcurrent, Integer maxFails, Integer failTimeout, Integer readTimeout) {
 		TrafficTableItemVo item = new TrafficTableItemVo(serviceNo, serviceVersion);
 		item.name = title;
@@ -239,7 +1361,23 @@ public class TrafficCommand extends Command {
 		return item;
 	}
 
+	static void write(RecordWriter writer, String serviceName, TrafficTable tt) {
+		List<TrafficTableItem> items = (null == tt) ? null : tt.getItems();
+		for (int i = 0; null != items && i < items.size(); i++) {
+			TrafficTableItem item = items.get(i);
+			writer.write(serviceName, i, item.getName(), item.getServiceNo(), item.getServiceVersion(),
+					item.getWeight(), item.getMaxConcurrent(), item.getMaxFails(), item.getFailTimeout(),
+					item.getReadTimeout());
+		}
+	}
+
 	void show(String serviceName, TrafficTable tt) {
+		RecordWriter writer = openRecordWriter(RECORD_FIELDS);
+		if (null != writer) {
+			write(writer, serviceName, tt);
+			writer.flush();
+			return;
+		}
 		PrintStream ps = getPrintStream();
 		ps.println(serviceName + "的流量表");
 		if (null == tt) {
@@ -0,0 +1,220 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.console.keeper;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import cn.weforward.common.ResultPage;
+import cn.weforward.gateway.console.exception.CommonException;
+import cn.weforward.gateway.console.util.Trace;
+import cn.weforward.protocol.gateway.Keeper;
+import cn.weforward.protocol.gateway.SearchServiceParams;
+import cn.weforward.protocol.ops.AccessExt;
+import cn.weforward.protocol.ops.ServiceExt;
+import cn.weforward.protocol.ops.secure.RightTable;
+import cn.weforward.protocol.ops.traffic.TrafficTable;
+
+/**
+ * 异步调用keeper
+ * <p>
+ * 调用在有界的线程池中执行，返回Future，使命令可以并发发起相互独立的调用后再汇总结果。
+ * 
+ * @author zhangpengji
+ *
+ */
+public class AsyncKeeper {
+
+	/** 默认并发调用数 */
+	public static final int THREADS_DEFAULT = 8;
+	/** 最大并发调用数，受限于限时调用的线程数 */
+	public static final int THREADS_MAX = DeadlineKeeperHandler.THREADS_MAX;
+	/** 排队的调用数上限，超过时由调用者线程直接执行 */
+	static final int QUEUE_SIZE = 256;
+
+	final Keeper m_Keeper;
+	final ExecutorService m_Executor;
+
+	public AsyncKeeper(Keeper keeper, ExecutorService executor) {
+		m_Keeper = keeper;
+		m_Executor = executor;
+	}
+
+	/**
+	 * 创建有界的线程池，线程均为守护线程
+	 * 
+	 * @param threads
+	 *            最大并发数
+	 * @return
+	 */
+	public static ExecutorService newExecutor(int threads) {
+		final AtomicInteger seq = new AtomicInteger();
+		ThreadFactory factory = new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "keeper-" + seq.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		};
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(QUEUE_SIZE), factory, new ThreadPoolExecutor.CallerRunsPolicy());
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/**
+	 * 线程池的线程数不足时扩充（不缩减）
+	 * 
+	 * @param executor
+	 *            由{@linkplain #newExecutor(int)}创建的线程池
+	 * @param threads
+	 *            需要的并发数
+	 */
+	public static void ensureThreads(ExecutorService executor, int threads) {
+		ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+		synchronized (pool) {
+			if (pool.getMaximumPoolSize() < threads) {
+				// 先增大上限，核心线程数不能超过上限
+				pool.setMaximumPoolSize(threads);
+				pool.setCorePoolSize(threads);
+			}
+		}
+	}
+
+	public Keeper getKeeper() {
+		return m_Keeper;
+	}
+
+	public ExecutorService getExecutor() {
+		return m_Executor;
+	}
+
+	public <V> Future<V> submit(final Callable<V> task) {
+		final Trace trace = Trace.current();
+		final Long deadline = Deadline.current();
+		if (null == trace && null == deadline) {
+			return m_Executor.submit(task);
+		}
+		// 异步调用同样记入命令的追踪，受命令的期限限制
+		return m_Executor.submit(new Callable<V>() {
+
+			@Override
+			public V call() throws Exception {
+				Trace.attach(trace);
+				Deadline.attach(deadline);
+				try {
+					return task.call();
+				} finally {
+					Trace.detach();
+					Deadline.clear();
+				}
+			}
+		});
+	}
+
+	public Future<ResultPage<AccessExt>> listAccess(final String kind, final String group, final String keyword) {
+		return submit(new Callable<ResultPage<AccessExt>>() {
+
+			@Override
+			public ResultPage<AccessExt> call() throws Exception {
+				return m_Keeper.listAccess(kind, group, keyword);
+			}
+		});
+	}
+
+	public Future<List<String>> listAccessGroup(final String kind) {
+		return submit(new Callable<List<String>>() {
+
+			@Override
+			public List<String> call() throws Exception {
+				return m_Keeper.listAccessGroup(kind);
+			}
+		});
+	}
+
+	public Future<RightTable> getRightTable(final String name) {
+		return submit(new Callable<RightTable>() {
+
+			@Override
+			public RightTable call() throws Exception {
+				return m_Keeper.getRightTable(name);
+			}
+		});
+	}
+
+	public Future<TrafficTable> getTrafficTable(final String name) {
+		return submit(new Callable<TrafficTable>() {
+
+			@Override
+			public TrafficTable call() throws Exception {
+				return m_Keeper.getTrafficTable(name);
+			}
+		});
+	}
+
+	public Future<ResultPage<ServiceExt>> searchService(final SearchServiceParams params) {
+		return submit(new Callable<ResultPage<ServiceExt>>() {
+
+			@Override
+			public ResultPage<ServiceExt> call() throws Exception {
+				return m_Keeper.searchService(params);
+			}
+		});
+	}
+
+	/**
+	 * 等待并获取结果，调用中抛出的运行期异常（如KeeperException）原样抛出
+	 * 
+	 * @param future
+	 * @return
+	 */
+	public static <V> V join(Future<V> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new CommonException("调用keeper被中断", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new CommonException("调用keeper出错", cause, true);
+		}
+	}
+
+	/**
+	 * 取消未完成的调用
+	 * 
+	 * @param futures
+	 */
+	public static void cancel(Iterable<? extends Future<?>> futures) {
+		for (Future<?> f : futures) {
+			if (null != f) {
+				f.cancel(true);
+			}
+		}
+	}
+}
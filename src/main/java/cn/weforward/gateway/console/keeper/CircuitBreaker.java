@@ -0,0 +1,166 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.console.keeper;
+
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeoutException;
+
+import cn.weforward.gateway.console.exception.CommonException;
+
+/**
+ * keeper不可达时的熔断器
+ * <p>
+ * 连续连接失败达到阈值后熔断，熔断期间的调用直接失败；熔断期过后放行一个探测调用（半开），
+ * 探测成功则恢复，失败则继续熔断。只有连接类的失败才计数，keeper返回的业务错误不影响熔断。
+ * 
+ * @author zhangpengji
+ *
+ */
+public class CircuitBreaker {
+
+	/** 连续失败多少次后熔断 */
+	public static final int FAILURE_THRESHOLD_DEFAULT = 3;
+	/** 熔断时长（毫秒） */
+	public static final int OPEN_MILLIS_DEFAULT = 10 * 1000;
+
+	static final int STATE_CLOSED = 0;
+	static final int STATE_OPEN = 1;
+	static final int STATE_HALF_OPEN = 2;
+
+	final String m_Url;
+	final int m_FailureThreshold;
+	final int m_OpenMillis;
+
+	int m_State;
+	int m_Failures;
+	long m_OpenUntil;
+
+	public CircuitBreaker(String url) {
+		this(url, FAILURE_THRESHOLD_DEFAULT, OPEN_MILLIS_DEFAULT);
+	}
+
+	public CircuitBreaker(String url, int failureThreshold, int openMillis) {
+		m_Url = url;
+		m_FailureThreshold = failureThreshold;
+		m_OpenMillis = openMillis;
+		m_State = STATE_CLOSED;
+	}
+
+	/**
+	 * 调用前检查，熔断中时抛出异常
+	 * 
+	 * @return 是否为半开状态下的探测调用
+	 */
+	public synchronized boolean acquire() {
+		if (STATE_CLOSED == m_State) {
+			return false;
+		}
+		long now = System.currentTimeMillis();
+		if (STATE_OPEN == m_State && now >= m_OpenUntil) {
+			// 放行一个探测调用
+			m_State = STATE_HALF_OPEN;
+			return true;
+		}
+		long wait = Math.max(0, m_OpenUntil - now);
+		throw new CommonException("keeper不可达（" + m_Url + "），连续失败" + m_Failures + "次已熔断，" + ((wait + 999) / 1000)
+				+ "秒后重试");
+	}
+
+	public synchronized void onSuccess() {
+		m_State = STATE_CLOSED;
+		m_Failures = 0;
+	}
+
+	/**
+	 * 调用失败
+	 * 
+	 * @param e
+	 * @param probe
+	 *            是否为探测调用
+	 */
+	public synchronized void onFailure(Throwable e, boolean probe) {
+		if (!isConnectFailure(e)) {
+			if (probe) {
+				if (isTimeout(e)) {
+					// 探测调用超时（如命令期限已到），不能说明keeper已恢复，继续熔断
+					m_State = STATE_OPEN;
+					m_OpenUntil = System.currentTimeMillis() + m_OpenMillis;
+					return;
+				}
+				// 能连上，只是业务出错
+				m_State = STATE_CLOSED;
+				m_Failures = 0;
+			}
+			return;
+		}
+		m_Failures++;
+		if (probe || m_Failures >= m_FailureThreshold) {
+			m_State = STATE_OPEN;
+			m_OpenUntil = System.currentTimeMillis() + m_OpenMillis;
+		}
+	}
+
+	public synchronized boolean isOpen() {
+		return STATE_CLOSED != m_State;
+	}
+
+	/**
+	 * 是否为超时的失败
+	 * 
+	 * @param e
+	 * @return
+	 */
+	public static boolean isTimeout(Throwable e) {
+		for (int i = 0; null != e && i < 10; i++) {
+			if (e instanceof SocketTimeoutException || e instanceof TimeoutException) {
+				return true;
+			}
+			if (e.getCause() == e) {
+				break;
+			}
+			e = e.getCause();
+		}
+		return false;
+	}
+
+	/**
+	 * 是否为连接类的失败
+	 * 
+	 * @param e
+	 * @return
+	 */
+	public static boolean isConnectFailure(Throwable e) {
+		for (int i = 0; null != e && i < 10; i++) {
+			if (e instanceof ConnectException || e instanceof NoRouteToHostException
+					|| e instanceof UnknownHostException) {
+				return true;
+			}
+			if (e instanceof SocketTimeoutException && null != e.getMessage()
+					&& e.getMessage().contains("connect")) {
+				return true;
+			}
+			// 异常被包装后可能只保留了原异常的描述
+			String msg = e.getMessage();
+			if (null != msg && (msg.contains("ConnectException") || msg.contains("Connection refused")
+					|| msg.contains("connect timed out") || msg.contains("UnknownHostException"))) {
+				return true;
+			}
+			if (e.getCause() == e) {
+				break;
+			}
+			e = e.getCause();
+		}
+		return false;
+	}
+}
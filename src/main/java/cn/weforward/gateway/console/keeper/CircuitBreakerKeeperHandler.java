@@ -0,0 +1,45 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.console.keeper;
+
+import java.lang.reflect.Method;
+
+import cn.weforward.protocol.gateway.Keeper;
+
+/**
+ * 经熔断器调用keeper
+ * 
+ * @author zhangpengji
+ *
+ */
+public class CircuitBreakerKeeperHandler extends KeeperHandler {
+
+	final CircuitBreaker m_Breaker;
+
+	public CircuitBreakerKeeperHandler(Keeper target, CircuitBreaker breaker) {
+		super(target);
+		m_Breaker = breaker;
+	}
+
+	@Override
+	protected Object invokeKeeper(Object target, Method method, Object[] args) throws Throwable {
+		boolean probe = m_Breaker.acquire();
+		Object result;
+		try {
+			result = invokeTarget(target, method, args);
+		} catch (Throwable e) {
+			m_Breaker.onFailure(e, probe);
+			throw e;
+		}
+		m_Breaker.onSuccess();
+		return result;
+	}
+}
@@ -0,0 +1,417 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.console.keeper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.security.SecureRandom;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import cn.weforward.gateway.console.exception.CommonException;
+import cn.weforward.gateway.console.util.Metrics;
+
+/**
+ * 本机的压缩中转
+ * <p>
+ * HttpKeeper不能附加请求头，也不解压响应，所以让其连接本机的中转，由中转向keeper发起请求并声明Accept-Encoding: gzip,
+ * deflate，收到压缩的响应后解压再交给HttpKeeper。keeper在响应中声明了Accept-Encoding: gzip（RFC
+ * 7694）后，较大的请求内容也压缩发送，若keeper仍回415则改回不压缩重发。网络上传输的及压缩前后的字节数记入{@linkplain Metrics}。
+ * <p>
+ * 中转只监听回环地址，每个keeper地址分配一个随机令牌作为路径前缀：http://127.0.0.1:port/{令牌}{keeper路径}，
+ * 令牌不对的请求回403。转发时去掉令牌，keeper收到的路径、查询串及Host与直连时相同，不影响签名。
+ * <p>
+ * 连不上keeper时中转回502，并记下原异常，由{@linkplain RelayKeeperHandler}还原给调用方，以便熔断器识别。
+ * 
+ * @author zhangpengji
+ *
+ */
+public class CompressingRelay implements HttpHandler {
+
+	static final String ACCEPT_ENCODING = "gzip, deflate";
+	/** 转发线程数上限，排队的请求数受限于调用HttpKeeper的线程数（每个线程同时只有一个请求） */
+	static final int THREADS_MAX = DeadlineKeeperHandler.THREADS_MAX;
+	/** 请求内容达到此字节数才压缩 */
+	static final int REQUEST_COMPRESS_MIN = 1024;
+	/** 令牌的字节数 */
+	static final int TOKEN_BYTES = 16;
+
+	/** 令牌对应的keeper */
+	final ConcurrentMap<String, Route> m_Routes;
+	/** keeper地址对应的keeper */
+	final ConcurrentMap<String, Route> m_Upstreams;
+	final SecureRandom m_Random;
+	HttpServer m_Server;
+	ThreadPoolExecutor m_Executor;
+	/** 连接keeper的超时（毫秒），0表示不限制 */
+	volatile int m_ConnectTimeout;
+	/** 读取keeper响应的超时（毫秒），0表示不限制 */
+	volatile int m_ReadTimeout;
+
+	public CompressingRelay() {
+		m_Routes = new ConcurrentHashMap<String, Route>();
+		m_Upstreams = new ConcurrentHashMap<String, Route>();
+		m_Random = new SecureRandom();
+	}
+
+	/**
+	 * 设置转发请求的超时值，对之后的每个连接生效
+	 * 
+	 * @param connectTimeout
+	 *            连接超时（毫秒），0表示不限制
+	 * @param readTimeout
+	 *            读取超时（毫秒），0表示不限制
+	 */
+	public void setTimeouts(int connectTimeout, int readTimeout) {
+		m_ConnectTimeout = connectTimeout;
+		m_ReadTimeout = readTimeout;
+	}
+
+	/**
+	 * 获取keeper地址在中转上对应的本机地址，首次调用时启动中转
+	 * 
+	 * @param upstream
+	 *            keeper接口链接
+	 * @return
+	 */
+	public synchronized String getLocalUrl(String upstream) {
+		Route route = m_Upstreams.get(upstream);
+		if (null != route) {
+			return route.m_LocalUrl;
+		}
+		URL url;
+		try {
+			url = new URL(upstream);
+		} catch (MalformedURLException e) {
+			throw new CommonException("keeper链接格式不正确：" + upstream, e);
+		}
+		start();
+		String token = newToken();
+		String path = url.getFile();
+		if (!path.startsWith("/")) {
+			path = '/' + path;
+		}
+		String local = "http://127.0.0.1:" + m_Server.getAddress().getPort() + '/' + token + path;
+		route = new Route(url.getProtocol() + "://" + url.getAuthority(), local);
+		m_Routes.put(token, route);
+		m_Upstreams.put(upstream, route);
+		return local;
+	}
+
+	/**
+	 * 自某时刻起，中转连不上keeper的异常
+	 * 
+	 * @param upstream
+	 *            keeper接口链接
+	 * @param since
+	 *            {@linkplain System#nanoTime()}
+	 * @return 没有则返回null
+	 */
+	public IOException getConnectFailure(String upstream, long since) {
+		Route route = m_Upstreams.get(upstream);
+		if (null == route) {
+			return null;
+		}
+		IOException failure = route.m_ConnectFailure;
+		return (null != failure && route.m_FailedAt - since >= 0) ? failure : null;
+	}
+
+	String newToken() {
+		byte[] bytes = new byte[TOKEN_BYTES];
+		m_Random.nextBytes(bytes);
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return sb.toString();
+	}
+
+	synchronized void start() {
+		if (null != m_Server) {
+			return;
+		}
+		try {
+			m_Server = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 64);
+		} catch (IOException e) {
+			throw new CommonException("启动压缩中转失败", e);
+		}
+		m_Executor = new ThreadPoolExecutor(THREADS_MAX, THREADS_MAX, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					final AtomicInteger m_Count = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "keeper-relay-" + m_Count.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		m_Executor.allowCoreThreadTimeOut(true);
+		m_Server.createContext("/", this);
+		m_Server.setExecutor(m_Executor);
+		m_Server.start();
+	}
+
+	/**
+	 * 关闭中转（其监听线程不是守护线程，退出前须关闭）
+	 */
+	public synchronized void stop() {
+		if (null == m_Server) {
+			return;
+		}
+		m_Server.stop(0);
+		m_Executor.shutdown();
+		m_Server = null;
+		m_Executor = null;
+		m_Routes.clear();
+		m_Upstreams.clear();
+	}
+
+	@Override
+	public void handle(HttpExchange exchange) throws IOException {
+		try {
+			if (!exchange.getRemoteAddress().getAddress().isLoopbackAddress()) {
+				exchange.sendResponseHeaders(403, -1);
+				return;
+			}
+			String path = exchange.getRequestURI().getRawPath();
+			int idx = path.indexOf('/', 1);
+			String token = (idx > 0) ? path.substring(1, idx) : path.substring(1);
+			Route route = m_Routes.get(token);
+			if (null == route) {
+				exchange.sendResponseHeaders(403, -1);
+				return;
+			}
+			String query = exchange.getRequestURI().getRawQuery();
+			String target = route.m_Origin + (idx > 0 ? path.substring(idx) : "/")
+					+ (null == query ? "" : '?' + query);
+			forward(exchange, route, new URL(target));
+		} finally {
+			exchange.close();
+		}
+	}
+
+	void forward(HttpExchange exchange, Route route, URL target) throws IOException {
+		byte[] content = null;
+		if ("POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+			content = readAll(exchange.getRequestBody());
+		}
+		boolean gzip = null != content && route.m_AcceptGzip && content.length >= REQUEST_COMPRESS_MIN;
+		HttpURLConnection conn;
+		int code;
+		InputStream wire;
+		try {
+			conn = send(exchange, target, content, gzip);
+			code = conn.getResponseCode();
+			if (gzip && 415 == code) {
+				// keeper不再接受压缩的请求
+				route.m_AcceptGzip = false;
+				conn.disconnect();
+				conn = send(exchange, target, content, false);
+				code = conn.getResponseCode();
+			}
+			wire = (code >= 400) ? conn.getErrorStream() : conn.getInputStream();
+		} catch (IOException e) {
+			route.onFailure(e);
+			byte[] msg = e.toString().getBytes("UTF-8");
+			exchange.sendResponseHeaders(502, msg.length);
+			exchange.getResponseBody().write(msg);
+			return;
+		}
+		String accept = conn.getHeaderField("Accept-Encoding");
+		if (null != accept && accept.toLowerCase().contains("gzip")) {
+			route.m_AcceptGzip = true;
+		}
+		Headers headers = exchange.getResponseHeaders();
+		for (Map.Entry<String, List<String>> e : conn.getHeaderFields().entrySet()) {
+			String name = e.getKey();
+			if (null == name || isHopHeader(name) || "Content-Encoding".equalsIgnoreCase(name)) {
+				continue;
+			}
+			headers.put(name, e.getValue());
+		}
+		if (null == wire) {
+			exchange.sendResponseHeaders(code, -1);
+			return;
+		}
+		CountingInputStream counting = new CountingInputStream(wire);
+		String encoding = conn.getContentEncoding();
+		InputStream in;
+		if ("gzip".equalsIgnoreCase(encoding)) {
+			in = new GZIPInputStream(counting);
+		} else if ("deflate".equalsIgnoreCase(encoding)) {
+			in = new InflaterInputStream(counting);
+		} else {
+			in = counting;
+		}
+		// 解压后长度未知，以chunked返回
+		exchange.sendResponseHeaders(code, 0);
+		OutputStream out = exchange.getResponseBody();
+		long decoded;
+		try {
+			decoded = copy(in, out);
+		} finally {
+			in.close();
+			out.close();
+		}
+		Metrics.count(Metrics.WIRE_BYTES, counting.getCount());
+		Metrics.count(Metrics.DECODED_BYTES, decoded);
+	}
+
+	/**
+	 * 向keeper发出请求，返回时已发完请求内容
+	 */
+	HttpURLConnection send(HttpExchange exchange, URL target, byte[] content, boolean gzip) throws IOException {
+		HttpURLConnection conn = (HttpURLConnection) target.openConnection();
+		conn.setConnectTimeout(m_ConnectTimeout);
+		conn.setReadTimeout(m_ReadTimeout);
+		conn.setRequestMethod(exchange.getRequestMethod());
+		for (Map.Entry<String, List<String>> e : exchange.getRequestHeaders().entrySet()) {
+			if (isHopHeader(e.getKey())) {
+				continue;
+			}
+			for (String v : e.getValue()) {
+				conn.addRequestProperty(e.getKey(), v);
+			}
+		}
+		conn.setRequestProperty("Accept-Encoding", ACCEPT_ENCODING);
+		if (null == content) {
+			return conn;
+		}
+		byte[] data = content;
+		if (gzip) {
+			ByteArrayOutputStream buf = new ByteArrayOutputStream(content.length / 4);
+			GZIPOutputStream zip = new GZIPOutputStream(buf);
+			zip.write(content);
+			zip.close();
+			data = buf.toByteArray();
+			conn.setRequestProperty("Content-Encoding", "gzip");
+		}
+		conn.setDoOutput(true);
+		conn.setFixedLengthStreamingMode(data.length);
+		OutputStream out = conn.getOutputStream();
+		try {
+			out.write(data);
+		} finally {
+			out.close();
+		}
+		Metrics.count(Metrics.REQUEST_WIRE_BYTES, data.length);
+		Metrics.count(Metrics.REQUEST_BYTES, content.length);
+		return conn;
+	}
+
+	static boolean isHopHeader(String name) {
+		// Host由HttpURLConnection按keeper地址填写，与直连时相同
+		return "Host".equalsIgnoreCase(name) || "Connection".equalsIgnoreCase(name)
+				|| "Content-Length".equalsIgnoreCase(name) || "Transfer-Encoding".equalsIgnoreCase(name)
+				|| "Accept-Encoding".equalsIgnoreCase(name) || "Keep-Alive".equalsIgnoreCase(name)
+				|| "Content-Encoding".equalsIgnoreCase(name);
+	}
+
+	static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		copy(in, out);
+		return out.toByteArray();
+	}
+
+	static long copy(InputStream in, OutputStream out) throws IOException {
+		byte[] buf = new byte[8192];
+		long total = 0;
+		int n;
+		while (-1 != (n = in.read(buf))) {
+			out.write(buf, 0, n);
+			total += n;
+		}
+		return total;
+	}
+
+	/**
+	 * 中转上的一个keeper
+	 */
+	static class Route {
+		/** keeper的协议、主机及端口 */
+		final String m_Origin;
+		final String m_LocalUrl;
+		/** keeper是否声明过接受gzip压缩的请求 */
+		volatile boolean m_AcceptGzip;
+		volatile IOException m_ConnectFailure;
+		volatile long m_FailedAt;
+
+		Route(String origin, String localUrl) {
+			m_Origin = origin;
+			m_LocalUrl = localUrl;
+		}
+
+		void onFailure(IOException e) {
+			if (!CircuitBreaker.isConnectFailure(e)) {
+				return;
+			}
+			m_FailedAt = System.nanoTime();
+			m_ConnectFailure = e;
+		}
+	}
+
+	/**
+	 * 统计读取字节数的输入流
+	 */
+	static class CountingInputStream extends FilterInputStream {
+		long m_Count;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (-1 != b) {
+				m_Count++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0) {
+				m_Count += n;
+			}
+			return n;
+		}
+
+		long getCount() {
+			return m_Count;
+		}
+	}
+}
@@ -0,0 +1,61 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.console.keeper;
+
+/**
+ * 命令的期限，绑定在执行命令的线程上
+ * 
+ * @author zhangpengji
+ *
+ */
+public class Deadline {
+
+	static final ThreadLocal<Long> _Current = new ThreadLocal<Long>();
+
+	private Deadline() {
+	}
+
+	/**
+	 * 在当前线程设置期限
+	 * 
+	 * @param millis
+	 *            从现在起的毫秒数
+	 */
+	public static void start(long millis) {
+		_Current.set(System.currentTimeMillis() + millis);
+	}
+
+	/**
+	 * 当前线程的期限（System.currentTimeMillis()）
+	 * 
+	 * @return 未设置时返回null
+	 */
+	public static Long current() {
+		return _Current.get();
+	}
+
+	/**
+	 * 使当前线程使用指定的期限（为null时清除）
+	 * 
+	 * @param deadline
+	 */
+	public static void attach(Long deadline) {
+		if (null == deadline) {
+			_Current.remove();
+		} else {
+			_Current.set(deadline);
+		}
+	}
+
+	public static void clear() {
+		_Current.remove();
+	}
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.console.keeper;
+
+import java.lang.reflect.Method;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import cn.weforward.gateway.console.exception.CommonException;
+import cn.weforward.gateway.console.util.Trace;
+import cn.weforward.protocol.gateway.Keeper;
+
+/**
+ * 限制keeper调用的耗时
+ * <p>
+ * 单次调用不超过连接超时加读取超时，且不超过命令的期限（{@linkplain Deadline}）。
+ * 超时后取消调用并抛出异常，已输出的结果保留。
+ * 
+ * @author zhangpengji
+ *
+ */
+public class DeadlineKeeperHandler extends KeeperHandler {
+
+	/** 同时进行的限时调用数上限 */
+	static final int THREADS_MAX = 64;
+	/**
+	 * 限时调用所使用的线程池。超时被放弃的调用（阻塞的socket读写无法中断）会占用线程直至socket超时，
+	 * 线程数有上限，占满时拒绝新的调用而不是无限地创建线程
+	 */
+	static final ExecutorService _Executor;
+	static {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(THREADS_MAX, THREADS_MAX, 60, TimeUnit.SECONDS,
+				new SynchronousQueue<Runnable>(), new ThreadFactory() {
+					final AtomicInteger m_Seq = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "keeper-timed-" + m_Seq.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+		_Executor = executor;
+	}
+
+	final KeeperTransport m_Transport;
+
+	public DeadlineKeeperHandler(Keeper target, KeeperTransport transport) {
+		super(target);
+		m_Transport = transport;
+	}
+
+	@Override
+	protected Object invokeKeeper(final Object target, final Method method, final Object[] args) throws Throwable {
+		long budget = m_Transport.getCallTimeout();
+		Long deadline = Deadline.current();
+		boolean byDeadline = false;
+		if (null != deadline) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				throw new CommonException("已超过命令期限，取消调用keeper：" + method.getName(), new TimeoutException());
+			}
+			if (0 == budget || remaining < budget) {
+				budget = remaining;
+				byDeadline = true;
+			}
+		}
+		if (budget <= 0) {
+			return invokeTarget(target, method, args);
+		}
+		final Trace trace = Trace.current();
+		Future<Object> future;
+		try {
+			future = _Executor.submit(new Callable<Object>() {
+
+				@Override
+				public Object call() throws Exception {
+					Trace.attach(trace);
+					try {
+						return invokeTarget(target, method, args);
+					} catch (Throwable e) {
+						if (e instanceof Exception) {
+							throw (Exception) e;
+						}
+						if (e instanceof Error) {
+							throw (Error) e;
+						}
+						throw new IllegalStateException(e);
+					} finally {
+						Trace.detach();
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			throw new CommonException("未返回的keeper调用过多（" + THREADS_MAX + "），请稍后重试：" + method.getName());
+		}
+		try {
+			return future.get(budget, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			future.cancel(true);
+			if (byDeadline) {
+				throw new CommonException("已超过命令期限，取消调用keeper：" + method.getName(), e);
+			}
+			// 连接超时为0时连不上的keeper只表现为调用超时，按连接失败计入熔断
+			throw new CommonException("调用keeper超时（" + budget + "ms）：" + method.getName(),
+					new SocketTimeoutException("connect or read timed out after " + budget + "ms"));
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new CommonException("调用keeper被中断：" + method.getName(), e);
+		} catch (ExecutionException e) {
+			throw e.getCause();
+		}
+	}
+}
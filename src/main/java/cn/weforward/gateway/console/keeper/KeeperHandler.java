@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.console.keeper;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import cn.weforward.common.ResultPage;
+import cn.weforward.protocol.gateway.Keeper;
+
+/**
+ * keeper调用的拦截器基类，以动态代理包装keeper，不必逐个实现Keeper的方法。
+ * <p>
+ * 返回的分页结果（ResultPage）同样被包装，翻页（gotoPage）也经过拦截。
+ * 
+ * @author zhangpengji
+ *
+ */
+public abstract class KeeperHandler implements InvocationHandler {
+
+	protected final Keeper m_Target;
+
+	protected KeeperHandler(Keeper target) {
+		m_Target = target;
+	}
+
+	/**
+	 * 生成经此拦截的keeper
+	 * 
+	 * @return
+	 */
+	public Keeper newProxy() {
+		return (Keeper) Proxy.newProxyInstance(Keeper.class.getClassLoader(), new Class<?>[] { Keeper.class }, this);
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		if (Object.class == method.getDeclaringClass()) {
+			return invokeObject(proxy, m_Target, method, args);
+		}
+		return wrapPage(method, invokeKeeper(m_Target, method, args));
+	}
+
+	/**
+	 * 拦截keeper的方法或分页结果的翻页
+	 * 
+	 * @param target
+	 *            被包装的keeper或分页结果
+	 * @param method
+	 * @param args
+	 * @return
+	 * @throws Throwable
+	 */
+	protected abstract Object invokeKeeper(Object target, Method method, Object[] args) throws Throwable;
+
+	/**
+	 * 调用被包装的对象，抛出其原始异常
+	 */
+	protected Object invokeTarget(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getTargetException();
+		}
+	}
+
+	Object invokeObject(Object proxy, Object target, Method method, Object[] args) {
+		String name = method.getName();
+		if ("equals".equals(name)) {
+			return proxy == args[0];
+		}
+		if ("hashCode".equals(name)) {
+			return System.identityHashCode(proxy);
+		}
+		return getClass().getSimpleName() + "(" + target + ")";
+	}
+
+	/**
+	 * 包装返回的分页结果
+	 */
+	Object wrapPage(Method method, final Object result) {
+		if (!(result instanceof ResultPage) || ResultPage.class != method.getReturnType()) {
+			return result;
+		}
+		InvocationHandler handler = new InvocationHandler() {
+
+			@Override
+			public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+				if (Object.class == m.getDeclaringClass()) {
+					return invokeObject(proxy, result, m, args);
+				}
+				if ("gotoPage".equals(m.getName())) {
+					// 翻页是一次远程调用
+					return invokeKeeper(result, m, args);
+				}
+				return invokeTarget(result, m, args);
+			}
+		};
+		return Proxy.newProxyInstance(ResultPage.class.getClassLoader(), new Class<?>[] { ResultPage.class },
+				handler);
+	}
+}
@@ -0,0 +1,468 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.console.keeper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import cn.weforward.common.ResultPage;
+import cn.weforward.common.util.NumberUtil;
+import cn.weforward.common.util.StringUtil;
+import cn.weforward.gateway.console.util.SimpleJson;
+import cn.weforward.protocol.gateway.Keeper;
+import cn.weforward.protocol.gateway.SearchServiceParams;
+import cn.weforward.protocol.gateway.vo.RightTableItemVo;
+import cn.weforward.protocol.gateway.vo.RightTableItemWrap;
+import cn.weforward.protocol.gateway.vo.TrafficTableItemVo;
+import cn.weforward.protocol.gateway.vo.TrafficTableItemWrap;
+import cn.weforward.protocol.ops.secure.RightTableItem;
+import cn.weforward.protocol.ops.traffic.TrafficTableItem;
+
+/**
+ * 本地的keeper模拟服务，以HTTP提供keeper接口，数据保存在内存中（{@linkplain MemKeeper}）。
+ * <p>
+ * 用于在没有网关的环境下，经由HttpKeeper的链路（序列化、签名计算、连接复用、压缩）压测控制台。
+ * 请求体为<code>{"invoke":{"method":"get_traffic_table","params":{"name":"xxx"}}}</code>，
+ * 响应体为<code>{"wf_resp":{"wf_code":0,"wf_msg":""},"result":{"code":0,"msg":"","content":...}}</code>。
+ * <p>
+ * 以下协议部分未经核对或未模拟，压测结果不能说明控制台与真实网关的兼容性：
+ * <ul>
+ * <li>请求、响应的包结构，方法名（下划线风格）及参数名是按Keeper接口推测的，未与网关的实现逐一核对，也未用HttpKeeper实际连通验证</li>
+ * <li>不校验签名，只检查是否带有Authorization头（指定-id时检查其中的access id），签名错误的请求同样成功</li>
+ * <li>响应不带签名及其它网关响应头</li>
+ * <li>不支持debugService，调用时返回不支持的方法</li>
+ * <li>分页只认page、page_size参数，其余查询条件只有keyword</li>
+ * </ul>
+ * 
+ * <pre>
+ * java -cp console.jar cn.weforward.gateway.console.keeper.KeeperSimulator -port 5661 \
+ *     -services 300 -instances 20 -latency 2 -jitter 1 -failure 0.001 -threads 16
+ * </pre>
+ * 
+ * @author zhangpengji
+ *
+ */
+public class KeeperSimulator implements HttpHandler {
+
+	static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/** 各方法的参数名（按Keeper方法的参数顺序） */
+	static final Map<String, String[]> PARAMS;
+	static {
+		Map<String, String[]> params = new HashMap<String, String[]>();
+		params.put("listAccess", new String[] { "kind", "group", "keyword" });
+		params.put("listAccessGroup", new String[] { "kind" });
+		params.put("createAccess", new String[] { "kind", "group", "summary" });
+		params.put("updateAccess", new String[] { "id", "summary", "valid" });
+		params.put("searchService", new String[] { "keyword" });
+		params.put("getRightTable", new String[] { "name" });
+		params.put("appendRightRule", new String[] { "name", "item" });
+		params.put("insertRightRule", new String[] { "name", "item", "index" });
+		params.put("replaceRightRule", new String[] { "name", "item", "index", "replace_name" });
+		params.put("removeRightRule", new String[] { "name", "index", "remove_name" });
+		params.put("moveRightRule", new String[] { "name", "from", "to" });
+		params.put("getTrafficTable", new String[] { "name" });
+		params.put("appendTrafficRule", new String[] { "name", "item" });
+		params.put("insertTrafficRule", new String[] { "name", "item", "index" });
+		params.put("replaceTrafficRule", new String[] { "name", "item", "index", "replace_name" });
+		params.put("removeTrafficRule", new String[] { "name", "index", "remove_name" });
+		params.put("moveTrafficRule", new String[] { "name", "from", "to" });
+		PARAMS = Collections.unmodifiableMap(params);
+	}
+
+	final Keeper m_Keeper;
+	final String m_AccessId;
+	final AtomicLong m_Requests;
+	final AtomicLong m_Errors;
+	final AtomicLong m_BytesIn;
+	final AtomicLong m_BytesOut;
+
+	/**
+	 * 构造
+	 * 
+	 * @param memUrl
+	 *            内存keeper的参数，见{@linkplain MemKeeper}
+	 * @param accessId
+	 *            要求请求使用的access id，为空时不检查
+	 */
+	public KeeperSimulator(String memUrl, String accessId) {
+		m_Keeper = new MemKeeper(memUrl).newProxy();
+		m_AccessId = accessId;
+		m_Requests = new AtomicLong();
+		m_Errors = new AtomicLong();
+		m_BytesIn = new AtomicLong();
+		m_BytesOut = new AtomicLong();
+	}
+
+	/**
+	 * 启动服务
+	 * 
+	 * @param port
+	 * @param threads
+	 *            处理请求的线程数
+	 * @return
+	 * @throws IOException
+	 */
+	public HttpServer start(int port, int threads) throws IOException {
+		HttpServer server = HttpServer.create(new InetSocketAddress(port), 1024);
+		server.createContext("/", this);
+		server.setExecutor(Executors.newFixedThreadPool(threads));
+		server.start();
+		return server;
+	}
+
+	@Override
+	public void handle(HttpExchange exchange) throws IOException {
+		m_Requests.incrementAndGet();
+		try {
+			if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+				reply(exchange, 405, error(405, "只支持POST"));
+				return;
+			}
+			String auth = exchange.getRequestHeaders().getFirst("Authorization");
+			if (StringUtil.isEmpty(auth) || (!StringUtil.isEmpty(m_AccessId) && !auth.contains(m_AccessId))) {
+				reply(exchange, 200, error(1001, "验证失败"));
+				return;
+			}
+			byte[] body = readBody(exchange);
+			m_BytesIn.addAndGet(body.length);
+			Map<String, Object> response;
+			try {
+				response = invoke(new String(body, UTF_8));
+			} catch (IllegalArgumentException e) {
+				response = error(1002, "请求格式错误：" + e.getMessage());
+			}
+			reply(exchange, 200, response);
+		} finally {
+			exchange.close();
+		}
+	}
+
+	Map<String, Object> invoke(String body) {
+		Object json = SimpleJson.parse(body);
+		Map<?, ?> invoke = (json instanceof Map) ? (Map<?, ?>) ((Map<?, ?>) json).get("invoke") : null;
+		if (null == invoke || !(invoke.get("method") instanceof String)) {
+			throw new IllegalArgumentException("缺少invoke.method");
+		}
+		String methodName = toCamel((String) invoke.get("method"));
+		Map<?, ?> params = (invoke.get("params") instanceof Map) ? (Map<?, ?>) invoke.get("params")
+				: Collections.emptyMap();
+		String[] names = PARAMS.get(methodName);
+		Method method = (null == names) ? null : findMethod(methodName, names.length);
+		if (null == method) {
+			return result(2001, "不支持的方法：" + invoke.get("method"), null);
+		}
+		Class<?>[] types = method.getParameterTypes();
+		Object[] args = new Object[types.length];
+		for (int i = 0; i < types.length; i++) {
+			args[i] = toArg(types[i], params.get(names[i]), params);
+		}
+		Object content;
+		try {
+			content = method.invoke(m_Keeper, args);
+		} catch (InvocationTargetException e) {
+			m_Errors.incrementAndGet();
+			Throwable cause = e.getTargetException();
+			return result(2002, String.valueOf(cause.getMessage()), null);
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		}
+		return result(0, "", toJson(content, params));
+	}
+
+	static Method findMethod(String name, int paramCount) {
+		for (Method m : Keeper.class.getMethods()) {
+			if (m.getName().equals(name) && m.getParameterTypes().length == paramCount) {
+				return m;
+			}
+		}
+		return null;
+	}
+
+	static Object toArg(Class<?> type, Object value, Map<?, ?> params) {
+		if (SearchServiceParams.class == type) {
+			SearchServiceParams search = new SearchServiceParams();
+			search.setKeyword((String) params.get("keyword"));
+			return search;
+		}
+		if (int.class == type || Integer.class == type) {
+			return (value instanceof Number) ? ((Number) value).intValue() : (int.class == type ? 0 : null);
+		}
+		if (boolean.class == type || Boolean.class == type) {
+			return (value instanceof Boolean) ? value : (boolean.class == type ? Boolean.FALSE : null);
+		}
+		if (String.class == type) {
+			return (null == value) ? null : value.toString();
+		}
+		if (RightTableItem.class == type) {
+			Map<?, ?> map = (value instanceof Map) ? (Map<?, ?>) value : Collections.emptyMap();
+			RightTableItemVo vo = new RightTableItemVo();
+			vo.name = (String) map.get("name");
+			vo.accessId = (String) map.get("access_id");
+			vo.accessKind = (String) map.get("access_kind");
+			vo.accessGroup = (String) map.get("access_group");
+			vo.allow = Boolean.TRUE.equals(map.get("allow"));
+			vo.description = (String) map.get("description");
+			return new RightTableItemWrap(vo);
+		}
+		if (TrafficTableItem.class == type) {
+			Map<?, ?> map = (value instanceof Map) ? (Map<?, ?>) value : Collections.emptyMap();
+			TrafficTableItemVo vo = new TrafficTableItemVo((String) map.get("service_no"),
+					(String) map.get("service_version"));
+			vo.name = (String) map.get("name");
+			vo.weight = toInt(map.get("weight"), TrafficTableItem.WEIGHT_DEFAULT);
+			vo.maxConcurrent = toInt(map.get("max_concurrent"), TrafficTableItem.MAX_CONCURRENT_DEFAULT);
+			vo.maxFails = toInt(map.get("max_fails"), TrafficTableItem.MAX_FAILS_DEFAULT);
+			vo.failTimeout = toInt(map.get("fail_timeout"), TrafficTableItem.FAIL_TIMEOUT_DEFAULT);
+			vo.readTimeout = toInt(map.get("read_timeout"), TrafficTableItem.READ_TIMEOUT_DEFAULT);
+			return new TrafficTableItemWrap(vo);
+		}
+		return value;
+	}
+
+	static int toInt(Object value, int defaultValue) {
+		return (value instanceof Number) ? ((Number) value).intValue() : defaultValue;
+	}
+
+	/**
+	 * 把keeper的返回值转为JSON结构，getXxx/isXxx转为xxx（下划线风格）
+	 */
+	static Object toJson(Object value, Map<?, ?> params) {
+		if (null == value || value instanceof String || value instanceof Number || value instanceof Boolean
+				|| value instanceof Date) {
+			return value;
+		}
+		if (value instanceof ResultPage) {
+			ResultPage<?> rp = (ResultPage<?>) value;
+			int page = toInt(params.get("page"), 1);
+			int pageSize = toInt(params.get("page_size"), 50);
+			rp.setPageSize(pageSize);
+			rp.gotoPage(page);
+			List<Object> items = new ArrayList<Object>(pageSize);
+			for (Object item : rp) {
+				items.add(toJson(item, params));
+			}
+			Map<String, Object> result = new LinkedHashMap<String, Object>();
+			result.put("count", rp.getCount());
+			result.put("page", page);
+			result.put("page_size", pageSize);
+			result.put("items", items);
+			return result;
+		}
+		if (value instanceof Collection) {
+			List<Object> list = new ArrayList<Object>(((Collection<?>) value).size());
+			for (Object item : (Collection<?>) value) {
+				list.add(toJson(item, params));
+			}
+			return list;
+		}
+		Map<String, Object> bean = new LinkedHashMap<String, Object>();
+		for (Method m : value.getClass().getMethods()) {
+			if (0 != m.getParameterTypes().length || Modifier.isStatic(m.getModifiers())
+					|| Object.class == m.getDeclaringClass()) {
+				continue;
+			}
+			String name = m.getName();
+			String prop;
+			if (name.startsWith("get") && name.length() > 3) {
+				prop = name.substring(3);
+			} else if (name.startsWith("is") && name.length() > 2 && boolean.class == m.getReturnType()) {
+				prop = name.substring(2);
+			} else {
+				continue;
+			}
+			try {
+				bean.put(toSnake(prop), toJson(m.invoke(value), params));
+			} catch (Exception e) {
+				// 忽略无法读取的属性
+			}
+		}
+		return bean;
+	}
+
+	static Map<String, Object> result(int code, String msg, Object content) {
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("code", code);
+		result.put("msg", msg);
+		if (null != content) {
+			result.put("content", content);
+		}
+		Map<String, Object> response = error(0, "");
+		response.put("result", result);
+		return response;
+	}
+
+	static Map<String, Object> error(int code, String msg) {
+		Map<String, Object> resp = new LinkedHashMap<String, Object>();
+		resp.put("wf_code", code);
+		resp.put("wf_msg", msg);
+		Map<String, Object> response = new LinkedHashMap<String, Object>();
+		response.put("wf_resp", resp);
+		return response;
+	}
+
+	void reply(HttpExchange exchange, int status, Map<String, Object> response) throws IOException {
+		byte[] data = SimpleJson.toString(response).getBytes(UTF_8);
+		Headers headers = exchange.getResponseHeaders();
+		headers.set("Content-Type", "application/json;charset=utf-8");
+		String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+		if (null != accept && data.length > 256) {
+			if (accept.contains("gzip")) {
+				data = compress(data, true);
+				headers.set("Content-Encoding", "gzip");
+			} else if (accept.contains("deflate")) {
+				data = compress(data, false);
+				headers.set("Content-Encoding", "deflate");
+			}
+		}
+		exchange.sendResponseHeaders(status, data.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(data);
+		out.flush();
+		m_BytesOut.addAndGet(data.length);
+	}
+
+	static byte[] compress(byte[] data, boolean gzip) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream(data.length / 4 + 64);
+		OutputStream out = gzip ? new GZIPOutputStream(buffer) : new DeflaterOutputStream(buffer);
+		out.write(data);
+		out.close();
+		return buffer.toByteArray();
+	}
+
+	static byte[] readBody(HttpExchange exchange) throws IOException {
+		InputStream in = exchange.getRequestBody();
+		String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+		if ("gzip".equalsIgnoreCase(encoding)) {
+			in = new GZIPInputStream(in);
+		} else if ("deflate".equalsIgnoreCase(encoding)) {
+			in = new InflaterInputStream(in);
+		}
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		byte[] buf = new byte[4096];
+		int n;
+		while (-1 != (n = in.read(buf))) {
+			buffer.write(buf, 0, n);
+		}
+		in.close();
+		return buffer.toByteArray();
+	}
+
+	static String toCamel(String name) {
+		StringBuilder sb = new StringBuilder(name.length());
+		boolean upper = false;
+		for (int i = 0; i < name.length(); i++) {
+			char ch = name.charAt(i);
+			if ('_' == ch) {
+				upper = true;
+			} else {
+				sb.append(upper ? Character.toUpperCase(ch) : ch);
+				upper = false;
+			}
+		}
+		return sb.toString();
+	}
+
+	static String toSnake(String name) {
+		StringBuilder sb = new StringBuilder(name.length() + 4);
+		for (int i = 0; i < name.length(); i++) {
+			char ch = name.charAt(i);
+			if (Character.isUpperCase(ch)) {
+				if (i > 0) {
+					sb.append('_');
+				}
+				sb.append(Character.toLowerCase(ch));
+			} else {
+				sb.append(ch);
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * 周期输出请求数、吞吐量及流量
+	 * 
+	 * @param ps
+	 * @param intervalSeconds
+	 */
+	void report(final PrintStream ps, final int intervalSeconds) {
+		Thread t = new Thread("simulator-report") {
+			@Override
+			public void run() {
+				long last = 0;
+				while (true) {
+					try {
+						Thread.sleep(intervalSeconds * 1000L);
+					} catch (InterruptedException e) {
+						return;
+					}
+					long requests = m_Requests.get();
+					ps.println("请求数：" + requests + "，吞吐量：" + ((requests - last) / intervalSeconds) + "/s，出错："
+							+ m_Errors.get() + "，接收：" + m_BytesIn.get() + "B，发送：" + m_BytesOut.get() + "B");
+					last = requests;
+				}
+			}
+		};
+		t.setDaemon(true);
+		t.start();
+	}
+
+	public static void main(String[] args) throws IOException {
+		Map<String, String> options = new HashMap<String, String>();
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			String key = args[i];
+			if (key.startsWith("-")) {
+				options.put(key.substring(1), args[i + 1]);
+			}
+		}
+		int port = NumberUtil.toInt(options.get("port"), 5661);
+		int threads = NumberUtil.toInt(options.get("threads"), 16);
+		StringBuilder memUrl = new StringBuilder(MemKeeper.URL_PREFIX).append('?');
+		for (String key : new String[] { "services", "instances", "latency", "jitter", "failure" }) {
+			String value = options.get(key);
+			if (!StringUtil.isEmpty(value)) {
+				memUrl.append(key).append('=').append(value).append('&');
+			}
+		}
+		KeeperSimulator simulator = new KeeperSimulator(memUrl.toString(), options.get("id"));
+		simulator.start(port, threads);
+		System.out.println("keeper模拟服务已启动：http://127.0.0.1:" + port + "/ ，" + memUrl);
+		System.out.println("注意：不校验签名，请求格式未与网关核对，只用于压测控制台本身");
+		simulator.report(System.out, NumberUtil.toInt(options.get("report"), 5));
+	}
+}
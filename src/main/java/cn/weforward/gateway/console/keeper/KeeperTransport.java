@@ -0,0 +1,331 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.console.keeper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import cn.weforward.common.util.StringUtil;
+import cn.weforward.gateway.console.exception.CommonException;
+import cn.weforward.protocol.gateway.Keeper;
+import cn.weforward.protocol.gateway.http.HttpKeeper;
+
+/**
+ * 调用keeper的传输层
+ * <p>
+ * HttpKeeper底层使用jdk的HttpURLConnection，其keep-alive连接缓存按host:port在进程内共享，
+ * 所以开启keep-alive并放大缓存的连接数后，多次命令之间即可复用已建立的TCP（及TLS）连接。<br/>
+ * 同时按url及凭证缓存Keeper实例，修改无关的参数时不再重建。<br/>
+ * 开启压缩时，HttpKeeper经由本机的{@linkplain CompressingRelay}调用keeper。
+ * 
+ * @author zhangpengji
+ *
+ */
+public class KeeperTransport {
+
+	/** 默认每个keeper地址保持的连接数 */
+	public static final int MAX_CONNECTIONS_DEFAULT = 8;
+	/** 预热时建立的连接数 */
+	static final int WARM_UP_CONNECTIONS = 2;
+	/** 预热连接的超时值（毫秒） */
+	static final int WARM_UP_TIMEOUT = 3000;
+	/** HttpURLConnection默认超时的系统属性，jdk的网络客户端类加载时只读取一次 */
+	static final String PROP_CONNECT_TIMEOUT = "sun.net.client.defaultConnectTimeout";
+	static final String PROP_READ_TIMEOUT = "sun.net.client.defaultReadTimeout";
+
+	/** 首次发起http请求时生效的默认连接、读取超时，null表示尚未发起 */
+	static volatile int[] _SocketTimeouts;
+
+	final ConcurrentMap<String, Keeper> m_Keepers;
+	/** 每个keeper地址的熔断器 */
+	final ConcurrentMap<String, CircuitBreaker> m_Breakers;
+	/** 连接超时（毫秒），0表示不限制 */
+	volatile int m_ConnectTimeout;
+	/** 读取超时（毫秒），0表示不限制 */
+	volatile int m_ReadTimeout;
+	/** 是否要求keeper压缩响应 */
+	volatile boolean m_Compress;
+	final CompressingRelay m_Relay;
+
+	public KeeperTransport() {
+		this(MAX_CONNECTIONS_DEFAULT);
+	}
+
+	/**
+	 * 构造
+	 * 
+	 * @param maxConnections
+	 *            每个keeper地址保持的最大空闲连接数，须在首次发起http请求前设置才有效
+	 */
+	public KeeperTransport(int maxConnections) {
+		m_Keepers = new ConcurrentHashMap<String, Keeper>();
+		m_Breakers = new ConcurrentHashMap<String, CircuitBreaker>();
+		m_Relay = new CompressingRelay();
+		// 使用者已通过-D指定的，不覆盖
+		if (null == System.getProperty("http.keepAlive")) {
+			System.setProperty("http.keepAlive", "true");
+		}
+		if (null == System.getProperty("http.maxConnections")) {
+			System.setProperty("http.maxConnections", String.valueOf(maxConnections));
+		}
+	}
+
+	/**
+	 * 获取（或创建）keeper，相同的url及凭证共用一个实例
+	 * 
+	 * @param url
+	 *            keeper接口链接
+	 * @param accessId
+	 * @param accessKey
+	 * @param secret
+	 *            不为空时，忽略accessId、accessKey
+	 * @return
+	 */
+	public Keeper open(String url, String accessId, String accessKey, String secret) {
+		if (StringUtil.isEmpty(url)) {
+			throw new CommonException("请使用setting命令设置url参数");
+		}
+		String key;
+		if (MemKeeper.isMemUrl(url)) {
+			// 内存keeper不需要凭证
+			key = url;
+		} else if (!StringUtil.isEmpty(secret)) {
+			key = url + '\n' + secret;
+		} else if (!StringUtil.isEmpty(accessId) && !StringUtil.isEmpty(accessKey)) {
+			key = url + '\n' + accessId + '\n' + accessKey;
+		} else {
+			throw new CommonException("请使用setting命令设置secret或access-id、access-key参数");
+		}
+		Keeper keeper = m_Keepers.get(key);
+		if (null != keeper) {
+			return keeper;
+		}
+		if (MemKeeper.isMemUrl(url)) {
+			keeper = new MemKeeper(url).newProxy();
+		} else {
+			fixSocketTimeouts();
+			// 熔断器仍按原地址区分
+			String httpUrl = m_Compress ? m_Relay.getLocalUrl(url) : url;
+			if (!StringUtil.isEmpty(secret)) {
+				try {
+					keeper = new HttpKeeper(httpUrl, secret);
+				} catch (NoSuchAlgorithmException e) {
+					throw new CommonException("初始keeper错误", e);
+				}
+			} else {
+				keeper = new HttpKeeper(httpUrl, accessId, accessKey);
+			}
+			if (m_Compress) {
+				keeper = new RelayKeeperHandler(keeper, m_Relay, url).newProxy();
+			}
+		}
+		keeper = new MeteredKeeperHandler(keeper).newProxy();
+		keeper = new DeadlineKeeperHandler(keeper, this).newProxy();
+		// 熔断在最外层，熔断中的调用不计入耗时统计
+		keeper = new CircuitBreakerKeeperHandler(keeper, getBreaker(url)).newProxy();
+		Keeper old = m_Keepers.putIfAbsent(key, keeper);
+		return (null == old) ? keeper : old;
+	}
+
+	/**
+	 * 设置超时值
+	 * <p>
+	 * 由{@linkplain DeadlineKeeperHandler}限制每次调用的总耗时；压缩时中转对每个连接设置超时。
+	 * 直连时HttpKeeper的socket只使用HttpURLConnection的默认超时，它在首次发起http请求时读取，
+	 * 之后修改对socket不再生效（见{@linkplain #getSocketConnectTimeout()}）。
+	 * 
+	 * @param connectTimeout
+	 *            连接超时（毫秒），0表示不限制
+	 * @param readTimeout
+	 *            读取超时（毫秒），0表示不限制
+	 */
+	public void setTimeouts(int connectTimeout, int readTimeout) {
+		m_ConnectTimeout = Math.max(0, connectTimeout);
+		m_ReadTimeout = Math.max(0, readTimeout);
+		m_Relay.setTimeouts(m_ConnectTimeout, m_ReadTimeout);
+		setProperty(PROP_CONNECT_TIMEOUT, m_ConnectTimeout);
+		setProperty(PROP_READ_TIMEOUT, m_ReadTimeout);
+	}
+
+	static void setProperty(String name, int timeout) {
+		if (timeout > 0) {
+			System.setProperty(name, String.valueOf(timeout));
+		} else {
+			System.clearProperty(name);
+		}
+	}
+
+	/**
+	 * 记下首次发起http请求时的默认超时
+	 */
+	static synchronized void fixSocketTimeouts() {
+		if (null == _SocketTimeouts) {
+			_SocketTimeouts = new int[] { Math.max(0, Integer.getInteger(PROP_CONNECT_TIMEOUT, 0)),
+					Math.max(0, Integer.getInteger(PROP_READ_TIMEOUT, 0)) };
+		}
+	}
+
+	/**
+	 * 直连keeper时socket实际使用的连接超时（毫秒），0表示不限制
+	 */
+	public int getSocketConnectTimeout() {
+		int[] timeouts = _SocketTimeouts;
+		return (m_Compress || null == timeouts) ? m_ConnectTimeout : timeouts[0];
+	}
+
+	/**
+	 * 直连keeper时socket实际使用的读取超时（毫秒），0表示不限制
+	 */
+	public int getSocketReadTimeout() {
+		int[] timeouts = _SocketTimeouts;
+		return (m_Compress || null == timeouts) ? m_ReadTimeout : timeouts[1];
+	}
+
+	public int getConnectTimeout() {
+		return m_ConnectTimeout;
+	}
+
+	public int getReadTimeout() {
+		return m_ReadTimeout;
+	}
+
+	/**
+	 * 设置是否要求keeper压缩响应（gzip/deflate），修改后丢弃已缓存的keeper
+	 * 
+	 * @param compress
+	 */
+	public void setCompress(boolean compress) {
+		if (m_Compress == compress) {
+			return;
+		}
+		m_Compress = compress;
+		clear();
+		if (!compress) {
+			m_Relay.stop();
+		}
+	}
+
+	public boolean isCompress() {
+		return m_Compress;
+	}
+
+	/**
+	 * 关闭传输层使用的资源（压缩中转），进程退出前调用
+	 */
+	public void close() {
+		m_Relay.stop();
+	}
+
+	/**
+	 * 单次调用的耗时上限
+	 * 
+	 * @return 毫秒，0表示不限制
+	 */
+	public int getCallTimeout() {
+		int read = m_ReadTimeout;
+		if (0 == read) {
+			// 读取不限时，总耗时也不限
+			return 0;
+		}
+		return m_ConnectTimeout + read;
+	}
+
+	/**
+	 * 获取keeper地址的熔断器
+	 * 
+	 * @param url
+	 * @return
+	 */
+	public CircuitBreaker getBreaker(String url) {
+		CircuitBreaker breaker = m_Breakers.get(url);
+		if (null == breaker) {
+			breaker = new CircuitBreaker(url);
+			CircuitBreaker old = m_Breakers.putIfAbsent(url, breaker);
+			if (null != old) {
+				breaker = old;
+			}
+		}
+		return breaker;
+	}
+
+	/**
+	 * 丢弃已缓存的keeper（已建立的连接仍保留在jdk的连接缓存中）
+	 */
+	public void clear() {
+		m_Keepers.clear();
+	}
+
+	/**
+	 * 在后台预先建立到keeper的连接，避免首个命令承担连接握手的耗时
+	 * 
+	 * @param url
+	 *            keeper接口链接
+	 */
+	public void warmUp(final String url) {
+		if (StringUtil.isEmpty(url) || !url.startsWith("http")) {
+			return;
+		}
+		fixSocketTimeouts();
+		for (int i = 0; i < WARM_UP_CONNECTIONS; i++) {
+			Thread t = new Thread("keeper-warmup-" + i) {
+				@Override
+				public void run() {
+					touch(url);
+				}
+			};
+			t.setDaemon(true);
+			t.start();
+		}
+	}
+
+	static void touch(String url) {
+		HttpURLConnection conn = null;
+		try {
+			conn = (HttpURLConnection) new URL(url).openConnection();
+			conn.setConnectTimeout(WARM_UP_TIMEOUT);
+			conn.setReadTimeout(WARM_UP_TIMEOUT);
+			conn.setRequestMethod("GET");
+			int code = conn.getResponseCode();
+			// 须读完响应内容，连接才会放回keep-alive缓存
+			InputStream in = (code >= 400) ? conn.getErrorStream() : conn.getInputStream();
+			drain(in);
+		} catch (IOException e) {
+			// 预热失败不影响后续命令，忽略
+			if (null != conn) {
+				drain(conn.getErrorStream());
+			}
+		}
+	}
+
+	private static void drain(InputStream in) {
+		if (null == in) {
+			return;
+		}
+		try {
+			byte[] buf = new byte[1024];
+			while (-1 != in.read(buf)) {
+				// 丢弃
+			}
+		} catch (IOException e) {
+			// 忽略
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+}
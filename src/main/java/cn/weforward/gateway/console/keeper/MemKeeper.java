@@ -0,0 +1,438 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.console.keeper;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+
+import cn.weforward.common.ResultPage;
+import cn.weforward.common.util.NumberUtil;
+import cn.weforward.common.util.ResultPageHelper;
+import cn.weforward.common.util.StringUtil;
+import cn.weforward.gateway.console.exception.CommonException;
+import cn.weforward.protocol.gateway.Keeper;
+import cn.weforward.protocol.gateway.SearchServiceParams;
+import cn.weforward.protocol.gateway.exception.KeeperException;
+import cn.weforward.protocol.ops.AccessExt;
+import cn.weforward.protocol.ops.ServiceExt;
+import cn.weforward.protocol.ops.secure.RightTable;
+import cn.weforward.protocol.ops.secure.RightTableItem;
+import cn.weforward.protocol.ops.traffic.TrafficTable;
+import cn.weforward.protocol.ops.traffic.TrafficTableItem;
+
+/**
+ * 内存中的keeper，用于离线压测及测试
+ * <p>
+ * 以url的参数配置，如：<code>mem://?services=300&amp;instances=20&amp;latency=20&amp;jitter=5&amp;failure=0.01</code>
+ * <ul>
+ * <li>services - 生成的微服务数，默认：20</li>
+ * <li>instances - 每个微服务的实例数，默认：3</li>
+ * <li>latency - 每次调用注入的延时（毫秒），默认：0</li>
+ * <li>jitter - 延时的随机抖动（毫秒），默认：0</li>
+ * <li>failure - 调用失败的比例（0~1），默认：0</li>
+ * <li>connect-failure - 以连接失败的方式失败（用于验证熔断），默认：false</li>
+ * </ul>
+ * 不支持的方法（如debugService）抛出{@linkplain KeeperException}。
+ * 
+ * @author zhangpengji
+ *
+ */
+public class MemKeeper implements InvocationHandler {
+
+	/** url的前缀 */
+	public static final String URL_PREFIX = "mem://";
+
+	final String m_Url;
+	final int m_Latency;
+	final int m_Jitter;
+	final double m_Failure;
+	final boolean m_ConnectFailure;
+
+	final List<Map<String, Object>> m_Accesses;
+	final List<ServiceExt> m_Services;
+	final Map<String, List<RightTableItem>> m_RightTables;
+	final Map<String, List<TrafficTableItem>> m_TrafficTables;
+
+	public MemKeeper(String url) {
+		m_Url = url;
+		Map<String, String> params = parseParams(url);
+		m_Latency = NumberUtil.toInt(params.get("latency"), 0);
+		m_Jitter = NumberUtil.toInt(params.get("jitter"), 0);
+		m_Failure = toDouble(params.get("failure"), 0);
+		m_ConnectFailure = "true".equalsIgnoreCase(params.get("connect-failure"));
+
+		m_Accesses = new ArrayList<Map<String, Object>>();
+		m_RightTables = new HashMap<String, List<RightTableItem>>();
+		m_TrafficTables = new HashMap<String, List<TrafficTableItem>>();
+		m_Services = generateServices(NumberUtil.toInt(params.get("services"), 20),
+				NumberUtil.toInt(params.get("instances"), 3));
+	}
+
+	public static boolean isMemUrl(String url) {
+		return null != url && url.startsWith(URL_PREFIX);
+	}
+
+	public Keeper newProxy() {
+		return (Keeper) Proxy.newProxyInstance(Keeper.class.getClassLoader(), new Class<?>[] { Keeper.class }, this);
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		String name = method.getName();
+		if (Object.class == method.getDeclaringClass()) {
+			if ("equals".equals(name)) {
+				return proxy == args[0];
+			}
+			if ("hashCode".equals(name)) {
+				return System.identityHashCode(proxy);
+			}
+			return "MemKeeper(" + m_Url + ")";
+		}
+		simulate(name);
+		synchronized (this) {
+			return dispatch(name, args);
+		}
+	}
+
+	/**
+	 * 注入延时及故障
+	 */
+	void simulate(String method) throws InterruptedException {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int delay = m_Latency;
+		if (m_Jitter > 0) {
+			delay += random.nextInt(-m_Jitter, m_Jitter + 1);
+		}
+		if (delay > 0) {
+			Thread.sleep(delay);
+		}
+		if (m_Failure > 0 && random.nextDouble() < m_Failure) {
+			if (m_ConnectFailure) {
+				throw new CommonException("模拟连接keeper失败：" + method, new ConnectException("Connection refused"));
+			}
+			throw new CommonException("模拟keeper出错：" + method);
+		}
+	}
+
+	Object dispatch(String method, Object[] args) {
+		switch (method) {
+		case "listAccess":
+			return listAccess((String) args[0], (String) args[1], (String) args[2]);
+		case "listAccessGroup":
+			return listAccessGroup((String) args[0]);
+		case "createAccess":
+			return createAccess((String) args[0], (String) args[1], (String) args[2]);
+		case "updateAccess":
+			return updateAccess((String) args[0], (String) args[1], (Boolean) args[2]);
+		case "searchService":
+			return searchService((SearchServiceParams) args[0]);
+		case "getRightTable":
+			return rightTable((String) args[0]);
+		case "appendRightRule":
+			rightItems((String) args[0]).add((RightTableItem) args[1]);
+			return rightTable((String) args[0]);
+		case "insertRightRule":
+			rightItems((String) args[0]).add(index(args[2]), (RightTableItem) args[1]);
+			return rightTable((String) args[0]);
+		case "replaceRightRule":
+			checkName(rightItems((String) args[0]).get(index(args[2])).getName(), (String) args[3], index(args[2]));
+			rightItems((String) args[0]).set(index(args[2]), (RightTableItem) args[1]);
+			return rightTable((String) args[0]);
+		case "removeRightRule":
+			checkName(rightItems((String) args[0]).get(index(args[1])).getName(), (String) args[2], index(args[1]));
+			rightItems((String) args[0]).remove(index(args[1]));
+			return rightTable((String) args[0]);
+		case "moveRightRule":
+			move(rightItems((String) args[0]), index(args[1]), index(args[2]));
+			return rightTable((String) args[0]);
+		case "getTrafficTable":
+			return trafficTable((String) args[0]);
+		case "appendTrafficRule":
+			trafficItems((String) args[0]).add((TrafficTableItem) args[1]);
+			return trafficTable((String) args[0]);
+		case "insertTrafficRule":
+			trafficItems((String) args[0]).add(index(args[2]), (TrafficTableItem) args[1]);
+			return trafficTable((String) args[0]);
+		case "replaceTrafficRule":
+			checkName(trafficItems((String) args[0]).get(index(args[2])).getName(), (String) args[3], index(args[2]));
+			trafficItems((String) args[0]).set(index(args[2]), (TrafficTableItem) args[1]);
+			return trafficTable((String) args[0]);
+		case "removeTrafficRule":
+			checkName(trafficItems((String) args[0]).get(index(args[1])).getName(), (String) args[2], index(args[1]));
+			trafficItems((String) args[0]).remove(index(args[1]));
+			return trafficTable((String) args[0]);
+		case "moveTrafficRule":
+			move(trafficItems((String) args[0]), index(args[1]), index(args[2]));
+			return trafficTable((String) args[0]);
+		default:
+			// 与网关不支持的调用一样以KeeperException告知，命令按网关错误输出
+			throw new KeeperException("内存keeper不支持：" + method);
+		}
+	}
+
+	ResultPage<AccessExt> listAccess(String kind, String group, String keyword) {
+		List<AccessExt> result = new ArrayList<AccessExt>();
+		for (Map<String, Object> acc : m_Accesses) {
+			if (!StringUtil.isEmpty(kind) && !kind.equals(acc.get("kind"))) {
+				continue;
+			}
+			if (!StringUtil.isEmpty(group) && !group.equals(acc.get("groupId"))) {
+				continue;
+			}
+			if (!StringUtil.isEmpty(keyword) && !String.valueOf(acc.get("summary")).contains(keyword)) {
+				continue;
+			}
+			result.add(bean(AccessExt.class, acc));
+		}
+		return ResultPageHelper.toResultPage(result);
+	}
+
+	List<String> listAccessGroup(String kind) {
+		TreeSet<String> groups = new TreeSet<String>();
+		for (Map<String, Object> acc : m_Accesses) {
+			if (StringUtil.isEmpty(kind) || kind.equals(acc.get("kind"))) {
+				groups.add((String) acc.get("groupId"));
+			}
+		}
+		return new ArrayList<String>(groups);
+	}
+
+	AccessExt createAccess(String kind, String group, String summary) {
+		Random random = ThreadLocalRandom.current();
+		Map<String, Object> acc = new HashMap<String, Object>();
+		acc.put("kind", kind);
+		acc.put("accessId", kind + "-" + Long.toHexString(random.nextLong() & Long.MAX_VALUE));
+		StringBuilder key = new StringBuilder(64);
+		for (int i = 0; i < 4; i++) {
+			key.append(String.format("%016x", random.nextLong()));
+		}
+		acc.put("accessKeyHex", key.toString());
+		acc.put("groupId", group);
+		acc.put("summary", summary);
+		acc.put("valid", Boolean.TRUE);
+		m_Accesses.add(acc);
+		return bean(AccessExt.class, acc);
+	}
+
+	AccessExt updateAccess(String id, String summary, Boolean valid) {
+		for (Map<String, Object> acc : m_Accesses) {
+			if (!id.equals(acc.get("accessId"))) {
+				continue;
+			}
+			if (null != summary) {
+				acc.put("summary", summary);
+			}
+			if (null != valid) {
+				acc.put("valid", valid);
+			}
+			return bean(AccessExt.class, acc);
+		}
+		throw new CommonException("访问凭证不存在：" + id);
+	}
+
+	ResultPage<ServiceExt> searchService(SearchServiceParams params) {
+		String keyword = (null == params) ? null : params.getKeyword();
+		if (StringUtil.isEmpty(keyword)) {
+			return ResultPageHelper.toResultPage(new ArrayList<ServiceExt>(m_Services));
+		}
+		List<ServiceExt> result = new ArrayList<ServiceExt>();
+		for (ServiceExt s : m_Services) {
+			if (s.getName().contains(keyword)) {
+				result.add(s);
+			}
+		}
+		return ResultPageHelper.toResultPage(result);
+	}
+
+	List<RightTableItem> rightItems(String name) {
+		List<RightTableItem> items = m_RightTables.get(name);
+		if (null == items) {
+			items = new ArrayList<RightTableItem>();
+			m_RightTables.put(name, items);
+		}
+		return items;
+	}
+
+	RightTable rightTable(String name) {
+		List<RightTableItem> items = m_RightTables.get(name);
+		if (null == items) {
+			return null;
+		}
+		Map<String, Object> props = new HashMap<String, Object>();
+		props.put("name", name);
+		props.put("items", Collections.unmodifiableList(new ArrayList<RightTableItem>(items)));
+		return bean(RightTable.class, props);
+	}
+
+	List<TrafficTableItem> trafficItems(String name) {
+		List<TrafficTableItem> items = m_TrafficTables.get(name);
+		if (null == items) {
+			items = new ArrayList<TrafficTableItem>();
+			m_TrafficTables.put(name, items);
+		}
+		return items;
+	}
+
+	TrafficTable trafficTable(String name) {
+		List<TrafficTableItem> items = m_TrafficTables.get(name);
+		if (null == items) {
+			return null;
+		}
+		Map<String, Object> props = new HashMap<String, Object>();
+		props.put("name", name);
+		props.put("items", Collections.unmodifiableList(new ArrayList<TrafficTableItem>(items)));
+		return bean(TrafficTable.class, props);
+	}
+
+	static <E> void move(List<E> items, int from, int to) {
+		E item = items.remove(from);
+		items.add(to, item);
+	}
+
+	static int index(Object arg) {
+		return ((Number) arg).intValue();
+	}
+
+	/**
+	 * 指定了规则名称时，检查序号上的规则是否同名，防止按过时的序号修改
+	 */
+	static void checkName(String ruleName, String expected, int index) {
+		if (null != expected && !expected.equals(ruleName)) {
+			throw new KeeperException("第" + index + "项规则不是" + expected + "（为" + ruleName + "）");
+		}
+	}
+
+	static List<ServiceExt> generateServices(int services, int instances) {
+		Random random = new Random(services * 31L + instances);
+		long now = System.currentTimeMillis();
+		List<ServiceExt> result = new ArrayList<ServiceExt>(services * instances);
+		for (int i = 0; i < services; i++) {
+			String name = String.format("svc%04d", i);
+			for (int j = 0; j < instances; j++) {
+				Map<String, Object> props = new HashMap<String, Object>();
+				props.put("name", name);
+				props.put("no", String.format("x%03x", j));
+				props.put("version", "1.0." + (j % 2));
+				props.put("heartbeat", new Date(now - random.nextInt(30 * 1000)));
+				props.put("urls", Collections.singletonList("http://10.0." + (i % 256) + "." + j + ":8080/" + name));
+				int state = random.nextInt(100);
+				props.put("overload", state < 2);
+				props.put("unavailable", state >= 2 && state < 3);
+				props.put("inaccessible", state >= 3 && state < 4);
+				props.put("timeout", state >= 4 && state < 5);
+				result.add(bean(ServiceExt.class, props));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * 以属性表实现接口，getXxx/isXxx返回属性xxx的值
+	 * 
+	 * @param type
+	 * @param props
+	 * @return
+	 */
+	static <T> T bean(final Class<T> type, final Map<String, Object> props) {
+		InvocationHandler handler = new InvocationHandler() {
+
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				String name = method.getName();
+				if (Object.class == method.getDeclaringClass()) {
+					if ("equals".equals(name)) {
+						return proxy == args[0];
+					}
+					if ("hashCode".equals(name)) {
+						return System.identityHashCode(proxy);
+					}
+					return props.toString();
+				}
+				String prop;
+				if (name.startsWith("get") && name.length() > 3) {
+					prop = Character.toLowerCase(name.charAt(3)) + name.substring(4);
+				} else if (name.startsWith("is") && name.length() > 2) {
+					prop = Character.toLowerCase(name.charAt(2)) + name.substring(3);
+				} else {
+					throw new KeeperException("内存keeper的" + type.getSimpleName() + "不支持：" + name);
+				}
+				Object value = props.get(prop);
+				if (null == value && method.getReturnType().isPrimitive()) {
+					return defaultValue(method.getReturnType());
+				}
+				return value;
+			}
+		};
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, handler));
+	}
+
+	static Object defaultValue(Class<?> type) {
+		if (boolean.class == type) {
+			return Boolean.FALSE;
+		}
+		if (char.class == type) {
+			return Character.valueOf((char) 0);
+		}
+		if (long.class == type) {
+			return Long.valueOf(0);
+		}
+		if (double.class == type) {
+			return Double.valueOf(0);
+		}
+		if (float.class == type) {
+			return Float.valueOf(0);
+		}
+		if (byte.class == type) {
+			return Byte.valueOf((byte) 0);
+		}
+		if (short.class == type) {
+			return Short.valueOf((short) 0);
+		}
+		return Integer.valueOf(0);
+	}
+
+	static Map<String, String> parseParams(String url) {
+		Map<String, String> params = new HashMap<String, String>();
+		int idx = url.indexOf('?');
+		if (-1 == idx) {
+			return params;
+		}
+		for (String pair : url.substring(idx + 1).split("&")) {
+			int eq = pair.indexOf('=');
+			if (eq > 0) {
+				params.put(pair.substring(0, eq).trim(), pair.substring(eq + 1).trim());
+			}
+		}
+		return params;
+	}
+
+	static double toDouble(String str, double defaultValue) {
+		if (StringUtil.isEmpty(str)) {
+			return defaultValue;
+		}
+		try {
+			return Double.parseDouble(str);
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+}
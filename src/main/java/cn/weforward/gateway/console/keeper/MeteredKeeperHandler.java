@@ -0,0 +1,39 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.console.keeper;
+
+import java.lang.reflect.Method;
+
+import cn.weforward.gateway.console.util.Metrics;
+import cn.weforward.protocol.gateway.Keeper;
+
+/**
+ * 统计每个keeper方法的耗时（含签名、传输及结果解析）
+ * 
+ * @author zhangpengji
+ *
+ */
+public class MeteredKeeperHandler extends KeeperHandler {
+
+	public MeteredKeeperHandler(Keeper target) {
+		super(target);
+	}
+
+	@Override
+	protected Object invokeKeeper(Object target, Method method, Object[] args) throws Throwable {
+		long begin = System.nanoTime();
+		try {
+			return invokeTarget(target, method, args);
+		} finally {
+			Metrics.record(Metrics.KEEPER_PREFIX + method.getName(), System.nanoTime() - begin);
+		}
+	}
+}
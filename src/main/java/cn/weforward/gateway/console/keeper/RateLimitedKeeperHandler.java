@@ -0,0 +1,51 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.console.keeper;
+
+import java.lang.reflect.Method;
+
+import cn.weforward.gateway.console.exception.CommonException;
+import cn.weforward.gateway.console.util.TokenBucket;
+import cn.weforward.protocol.gateway.Keeper;
+
+/**
+ * 以令牌桶限制keeper调用的速率，批量操作时保护keeper
+ * 
+ * @author zhangpengji
+ *
+ */
+public class RateLimitedKeeperHandler extends KeeperHandler {
+
+	final TokenBucket m_Bucket;
+
+	public RateLimitedKeeperHandler(Keeper target, TokenBucket bucket) {
+		super(target);
+		m_Bucket = bucket;
+	}
+
+	@Override
+	protected Object invokeKeeper(Object target, Method method, Object[] args) throws Throwable {
+		long wait = m_Bucket.reserve();
+		if (wait > 0) {
+			Long deadline = Deadline.current();
+			if (null != deadline && System.currentTimeMillis() + wait >= deadline) {
+				throw new CommonException("等待调用keeper将超过命令期限：" + method.getName());
+			}
+			try {
+				Thread.sleep(wait);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new CommonException("调用keeper被中断：" + method.getName(), e);
+			}
+		}
+		return invokeTarget(target, method, args);
+	}
+}
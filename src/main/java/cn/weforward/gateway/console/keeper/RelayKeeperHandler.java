@@ -0,0 +1,58 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.console.keeper;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+
+import cn.weforward.gateway.console.exception.CommonException;
+import cn.weforward.protocol.gateway.Keeper;
+
+/**
+ * 经压缩中转调用keeper，中转连不上keeper时还原其连接异常，以便熔断器识别
+ * 
+ * @author zhangpengji
+ *
+ */
+public class RelayKeeperHandler extends KeeperHandler {
+
+	final CompressingRelay m_Relay;
+	final String m_Upstream;
+
+	/**
+	 * 构造
+	 * 
+	 * @param target
+	 *            连接中转的keeper
+	 * @param relay
+	 * @param upstream
+	 *            keeper接口链接（原地址）
+	 */
+	public RelayKeeperHandler(Keeper target, CompressingRelay relay, String upstream) {
+		super(target);
+		m_Relay = relay;
+		m_Upstream = upstream;
+	}
+
+	@Override
+	protected Object invokeKeeper(Object target, Method method, Object[] args) throws Throwable {
+		long begin = System.nanoTime();
+		try {
+			return invokeTarget(target, method, args);
+		} catch (Throwable e) {
+			IOException failure = m_Relay.getConnectFailure(m_Upstream, begin);
+			if (null == failure || CircuitBreaker.isConnectFailure(e)) {
+				throw e;
+			}
+			throw new CommonException("连接keeper失败：" + failure.getMessage(), failure);
+		}
+	}
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.console.keeper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import cn.weforward.common.ResultPage;
+import cn.weforward.gateway.console.util.Metrics;
+
+/**
+ * 分页结果的翻页及逐页遍历，各命令共用
+ * 
+ * @author zhangpengji
+ *
+ */
+public class ResultPages {
+
+	private ResultPages() {
+	}
+
+	/**
+	 * 逐页处理的回调
+	 */
+	public interface Visitor<E> {
+		/**
+		 * 获取首页后调用
+		 * 
+		 * @param count
+		 *            总项数
+		 * @param pageCount
+		 *            总页数
+		 * @param firstPageSize
+		 *            首页的项数
+		 */
+		void begin(int count, int pageCount, int firstPageSize);
+
+		/**
+		 * 处理一页，返回后不再持有此页
+		 * 
+		 * @param page
+		 */
+		void visit(List<E> page);
+	}
+
+	/**
+	 * 翻页（记录耗时）
+	 * 
+	 * @param rp
+	 * @param page
+	 */
+	public static void gotoPage(ResultPage<?> rp, int page) {
+		long begin = System.nanoTime();
+		try {
+			rp.gotoPage(page);
+		} finally {
+			Metrics.record(Metrics.GOTO_PAGE, System.nanoTime() - begin);
+		}
+	}
+
+	/**
+	 * 翻页并复制当前页的项
+	 */
+	public static <E> List<E> fetchPage(ResultPage<E> rp, int page) {
+		gotoPage(rp, page);
+		List<E> items = new ArrayList<E>(rp.getPageSize());
+		for (E e : rp) {
+			items.add(e);
+		}
+		return items;
+	}
+
+	/**
+	 * 逐页遍历全部项
+	 * 
+	 * @param rp
+	 *            为null时视为没有项
+	 * @param pageSize
+	 *            每页项数
+	 * @param async
+	 *            不为null时，处理当前页的同时在后台获取下一页
+	 * @param visitor
+	 */
+	public static <E> void walk(final ResultPage<E> rp, int pageSize, AsyncKeeper async, Visitor<E> visitor) {
+		if (null == rp) {
+			visitor.begin(0, 0, 0);
+			return;
+		}
+		rp.setPageSize(pageSize);
+		List<E> current = fetchPage(rp, 1);
+		int pageCount = rp.getPageCount();
+		visitor.begin(rp.getCount(), pageCount, current.size());
+		Future<List<E>> next = null;
+		try {
+			for (int page = 1;; page++) {
+				if (page >= pageCount) {
+					visitor.visit(current);
+					break;
+				}
+				if (null == async) {
+					visitor.visit(current);
+					current = fetchPage(rp, page + 1);
+					continue;
+				}
+				// 先发起下一页的获取再处理当前页。ResultPage非线程安全，同一时间只有一个线程翻页
+				final int nextPage = page + 1;
+				next = async.submit(new Callable<List<E>>() {
+
+					@Override
+					public List<E> call() throws Exception {
+						return fetchPage(rp, nextPage);
+					}
+				});
+				visitor.visit(current);
+				current = AsyncKeeper.join(next);
+				next = null;
+			}
+		} finally {
+			if (null != next) {
+				next.cancel(true);
+			}
+		}
+	}
+
+	/**
+	 * 逐页获取全部项
+	 * 
+	 * @param rp
+	 *            为null时返回空列表
+	 * @param pageSize
+	 *            每页项数
+	 */
+	public static <E> List<E> toList(ResultPage<E> rp, int pageSize) {
+		final List<E> result = new ArrayList<E>();
+		walk(rp, pageSize, null, new Visitor<E>() {
+
+			@Override
+			public void begin(int count, int pageCount, int firstPageSize) {
+			}
+
+			@Override
+			public void visit(List<E> page) {
+				result.addAll(page);
+			}
+		});
+		return result;
+	}
+}
@@ -0,0 +1,241 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.console.registry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import cn.weforward.gateway.console.util.LatencyHistogram;
+
+/**
+ * 心跳时长（距上次心跳的时间）的统计。
+ * <p>
+ * 逐个计入实例，只保留分布、最旧的K个实例及每个微服务的汇总，内存与实例总数无关。
+ * 
+ * @author zhangpengji
+ *
+ */
+public class HeartbeatStats {
+
+	/** 分布的区间上界（毫秒），最后一个区间无上界 */
+	public static final long[] BOUNDS = { 5000, 10000, 20000, 30000, 60000, 300000 };
+
+	/** 心跳越旧越靠前 */
+	static final Comparator<ServiceInstance> OLDEST_FIRST = new Comparator<ServiceInstance>() {
+
+		@Override
+		public int compare(ServiceInstance o1, ServiceInstance o2) {
+			return Long.compare(o1.getHeartbeat(), o2.getHeartbeat());
+		}
+	};
+
+	final long m_Now;
+	final long m_WarnMillis;
+	final int m_TopK;
+	final LatencyHistogram m_Ages;
+	final long[] m_Distribution;
+	int m_Instances;
+	int m_NoHeartbeat;
+	int m_Warn;
+	int m_Timeout;
+	/** 最旧的K个，堆顶是其中最新的 */
+	final PriorityQueue<ServiceInstance> m_Worst;
+	final Map<String, Service> m_Services;
+
+	/**
+	 * 构造
+	 * 
+	 * @param now
+	 *            计算心跳时长的基准时间
+	 * @param warnMillis
+	 *            心跳时长超过此值的视为将要超时
+	 * @param topK
+	 *            保留最旧的实例数
+	 */
+	public HeartbeatStats(long now, long warnMillis, int topK) {
+		m_Now = now;
+		m_WarnMillis = warnMillis;
+		m_TopK = Math.max(1, topK);
+		m_Ages = new LatencyHistogram();
+		m_Distribution = new long[BOUNDS.length + 1];
+		m_Worst = new PriorityQueue<ServiceInstance>(m_TopK + 1, Collections.reverseOrder(OLDEST_FIRST));
+		m_Services = new HashMap<String, Service>();
+	}
+
+	/**
+	 * 计入一个实例
+	 * 
+	 * @param instance
+	 */
+	public void add(ServiceInstance instance) {
+		m_Instances++;
+		Service service = m_Services.get(instance.getName());
+		if (null == service) {
+			service = new Service(instance.getName());
+			m_Services.put(instance.getName(), service);
+		}
+		service.m_Instances++;
+		boolean timeout = 0 != (instance.getState() & ServiceInstance.STATE_TIMEOUT);
+		if (timeout) {
+			m_Timeout++;
+			service.m_Timeout++;
+		}
+		if (0 == instance.getHeartbeat()) {
+			m_NoHeartbeat++;
+			return;
+		}
+		long age = Math.max(0, m_Now - instance.getHeartbeat());
+		m_Ages.record(age * 1000 * 1000);
+		int i = 0;
+		while (i < BOUNDS.length && age >= BOUNDS[i]) {
+			i++;
+		}
+		m_Distribution[i]++;
+		if (age >= m_WarnMillis && !timeout) {
+			m_Warn++;
+			service.m_Warn++;
+		}
+		if (age > service.m_MaxAge || null == service.m_OldestNo) {
+			service.m_MaxAge = age;
+			service.m_OldestNo = instance.getNo();
+		}
+		m_Worst.add(instance);
+		if (m_Worst.size() > m_TopK) {
+			m_Worst.poll();
+		}
+	}
+
+	public int getInstances() {
+		return m_Instances;
+	}
+
+	/** 没有心跳时间的实例数 */
+	public int getNoHeartbeat() {
+		return m_NoHeartbeat;
+	}
+
+	/** 心跳时长超过警戒值（尚未超时）的实例数 */
+	public int getWarn() {
+		return m_Warn;
+	}
+
+	/** 已超时（宕机）的实例数 */
+	public int getTimeout() {
+		return m_Timeout;
+	}
+
+	public long getWarnMillis() {
+		return m_WarnMillis;
+	}
+
+	/**
+	 * 心跳时长的百分位
+	 * 
+	 * @param percent
+	 * @return 毫秒
+	 */
+	public long getPercentile(double percent) {
+		return m_Ages.getPercentile(percent) / 1000;
+	}
+
+	/** 最大心跳时长（毫秒） */
+	public long getMax() {
+		return m_Ages.getMax() / 1000;
+	}
+
+	/**
+	 * 各区间的实例数，见{@linkplain #BOUNDS}
+	 * 
+	 * @return
+	 */
+	public long[] getDistribution() {
+		return m_Distribution;
+	}
+
+	public long getAge(ServiceInstance instance) {
+		return Math.max(0, m_Now - instance.getHeartbeat());
+	}
+
+	/**
+	 * 心跳最旧的实例
+	 * 
+	 * @return 越旧越靠前
+	 */
+	public List<ServiceInstance> getWorst() {
+		List<ServiceInstance> worst = new ArrayList<ServiceInstance>(m_Worst);
+		Collections.sort(worst, OLDEST_FIRST);
+		return worst;
+	}
+
+	/**
+	 * 各微服务的汇总
+	 * 
+	 * @return 按最大心跳时长降序
+	 */
+	public List<Service> getServices() {
+		List<Service> services = new ArrayList<Service>(m_Services.values());
+		Collections.sort(services, new Comparator<Service>() {
+
+			@Override
+			public int compare(Service o1, Service o2) {
+				return Long.compare(o2.m_MaxAge, o1.m_MaxAge);
+			}
+		});
+		return services;
+	}
+
+	/**
+	 * 一个微服务的汇总
+	 */
+	public static class Service {
+		final String m_Name;
+		int m_Instances;
+		int m_Warn;
+		int m_Timeout;
+		long m_MaxAge;
+		String m_OldestNo;
+
+		Service(String name) {
+			m_Name = name;
+		}
+
+		public String getName() {
+			return m_Name;
+		}
+
+		public int getInstances() {
+			return m_Instances;
+		}
+
+		public int getWarn() {
+			return m_Warn;
+		}
+
+		public int getTimeout() {
+			return m_Timeout;
+		}
+
+		/** 最大心跳时长（毫秒） */
+		public long getMaxAge() {
+			return m_MaxAge;
+		}
+
+		/** 心跳最旧的实例编号，都没有心跳时间则为null */
+		public String getOldestNo() {
+			return m_OldestNo;
+		}
+	}
+}
@@ -0,0 +1,420 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.console.registry;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 微服务实例的快照文件。
+ * <p>
+ * 实例按名称+编号排序后以紧凑的二进制格式保存；读取时映射文件并逐个解码，比较两个快照时按序归并，不需要把实例都加载到内存。
+ * <p>
+ * 格式：魔数(4) 版本(2) 时间(8) 实例数(4)，之后每个实例为：名称 编号 版本 心跳时间(8) 状态(1) 链接数(2) 链接...，
+ * 其中字符串为UTF-8字节数加1(2，0表示null)及字节。
+ * 
+ * @author zhangpengji
+ *
+ */
+public class RegistrySnapshot {
+
+	static final int MAGIC = 0x57465353;
+	static final short VERSION = 1;
+	static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/** 快照中实例的顺序：名称、编号，按码点比较，与UTF-8字节的顺序一致 */
+	public static final Comparator<ServiceInstance> KEY_ORDER = new Comparator<ServiceInstance>() {
+
+		@Override
+		public int compare(ServiceInstance o1, ServiceInstance o2) {
+			int c = compareString(o1.getName(), o2.getName());
+			if (0 != c) {
+				return c;
+			}
+			return compareString(o1.getNo(), o2.getNo());
+		}
+	};
+
+	static int compareString(String a, String b) {
+		if (null == a) {
+			return (null == b) ? 0 : -1;
+		}
+		if (null == b) {
+			return 1;
+		}
+		int i = 0;
+		int j = 0;
+		while (i < a.length() && j < b.length()) {
+			int ca = a.codePointAt(i);
+			int cb = b.codePointAt(j);
+			if (ca != cb) {
+				return ca - cb;
+			}
+			i += Character.charCount(ca);
+			j += Character.charCount(cb);
+		}
+		return (a.length() - i) - (b.length() - j);
+	}
+
+	/**
+	 * 比较快照中的两段字符串字节，len为-1表示null
+	 */
+	static int compareBytes(MappedByteBuffer a, int aAt, int aLen, MappedByteBuffer b, int bAt, int bLen) {
+		if (aLen < 0 || bLen < 0) {
+			return aLen - bLen;
+		}
+		int len = Math.min(aLen, bLen);
+		for (int i = 0; i < len; i++) {
+			int c = (a.get(aAt + i) & 0xFF) - (b.get(bAt + i) & 0xFF);
+			if (0 != c) {
+				return c;
+			}
+		}
+		return aLen - bLen;
+	}
+
+	/**
+	 * 保存快照，先写临时文件再替换，中途失败不会留下不完整的快照，也不影响正在映射旧文件的读取器
+	 * 
+	 * @param file
+	 * @param instances
+	 * @param time
+	 *            快照的时间
+	 * @throws IOException
+	 */
+	public static void write(File file, Collection<ServiceInstance> instances, long time) throws IOException {
+		List<ServiceInstance> sorted = new ArrayList<ServiceInstance>(instances);
+		Collections.sort(sorted, KEY_ORDER);
+		File dir = file.getAbsoluteFile().getParentFile();
+		File tmp = new File(dir, file.getName() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024));
+		boolean done = false;
+		try {
+			out.writeInt(MAGIC);
+			out.writeShort(VERSION);
+			out.writeLong(time);
+			out.writeInt(sorted.size());
+			for (ServiceInstance s : sorted) {
+				writeString(out, s.getName());
+				writeString(out, s.getNo());
+				writeString(out, s.getVersion());
+				out.writeLong(s.getHeartbeat());
+				out.writeByte(s.getState());
+				List<String> urls = s.getUrls();
+				out.writeShort(urls.size());
+				for (String url : urls) {
+					writeString(out, url);
+				}
+			}
+			out.close();
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			done = true;
+		} finally {
+			if (!done) {
+				out.close();
+				tmp.delete();
+			}
+		}
+	}
+
+	static void writeString(DataOutputStream out, String str) throws IOException {
+		if (null == str) {
+			out.writeShort(0);
+			return;
+		}
+		byte[] bytes = str.getBytes(UTF_8);
+		if (bytes.length >= 0xFFFF) {
+			throw new IOException("字符串过长：" + bytes.length);
+		}
+		out.writeShort(bytes.length + 1);
+		out.write(bytes);
+	}
+
+	/**
+	 * 按序比较两个快照
+	 * 
+	 * @param from
+	 *            较早的快照
+	 * @param to
+	 *            较新的快照
+	 * @param visitor
+	 * @return 变化的实例数
+	 * @throws IOException
+	 */
+	public static int diff(Reader from, Reader to, DiffVisitor visitor) throws IOException {
+		int changes = 0;
+		boolean hasOld = from.advance();
+		boolean hasNow = to.advance();
+		while (hasOld || hasNow) {
+			int c;
+			if (!hasOld) {
+				c = 1;
+			} else if (!hasNow) {
+				c = -1;
+			} else {
+				c = from.compareKey(to.m_Buffer, to.m_NameAt, to.m_NameLen, to.m_NoAt, to.m_NoLen);
+			}
+			if (c < 0) {
+				visitor.removed(from.current());
+				changes++;
+				hasOld = from.advance();
+			} else if (c > 0) {
+				visitor.added(to.current());
+				changes++;
+				hasNow = to.advance();
+			} else {
+				// 大部分实例没有变化，先比较原始字节，有差异才解码
+				if (!isSameBody(from, to)) {
+					ServiceInstance old = from.current();
+					ServiceInstance now = to.current();
+					if (isChanged(old, now)) {
+						visitor.changed(old, now);
+						changes++;
+					}
+				}
+				hasOld = from.advance();
+				hasNow = to.advance();
+			}
+		}
+		return changes;
+	}
+
+	/**
+	 * 除心跳时间外，两个实例的原始字节是否相同
+	 */
+	static boolean isSameBody(Reader a, Reader b) {
+		return isSameBytes(a.m_Buffer, a.m_KeyEnd, a.m_HeartbeatAt, b.m_Buffer, b.m_KeyEnd, b.m_HeartbeatAt)
+				&& isSameBytes(a.m_Buffer, a.m_HeartbeatAt + 8, a.m_End, b.m_Buffer, b.m_HeartbeatAt + 8, b.m_End);
+	}
+
+	static boolean isSameBytes(MappedByteBuffer a, int aFrom, int aTo, MappedByteBuffer b, int bFrom, int bTo) {
+		if (aTo - aFrom != bTo - bFrom) {
+			return false;
+		}
+		for (int i = aFrom, j = bFrom; i < aTo; i++, j++) {
+			if (a.get(i) != b.get(j)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 版本、状态或链接是否有变化（心跳时间总在变，不计）
+	 */
+	public static boolean isChanged(ServiceInstance old, ServiceInstance now) {
+		return old.getState() != now.getState() || !old.isSameIndexed(now);
+	}
+
+	/**
+	 * 比较的回调
+	 */
+	public interface DiffVisitor {
+		/** 新增的实例 */
+		void added(ServiceInstance now);
+
+		/** 移除的实例 */
+		void removed(ServiceInstance old);
+
+		/** 有变化的实例 */
+		void changed(ServiceInstance old, ServiceInstance now);
+	}
+
+	/**
+	 * 快照的读取器，映射文件后逐个解码实例
+	 */
+	public static class Reader implements Closeable {
+		final File m_File;
+		final FileChannel m_Channel;
+		final MappedByteBuffer m_Buffer;
+		final long m_Time;
+		final int m_Count;
+		int m_Read;
+		/** 当前实例的名称、编号（字节数，-1表示null）及各部分在文件中的位置 */
+		int m_NameAt;
+		int m_NameLen;
+		int m_NoAt;
+		int m_NoLen;
+		int m_KeyEnd;
+		int m_HeartbeatAt;
+		int m_End;
+
+		public Reader(File file) throws IOException {
+			m_File = file;
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			m_Channel = raf.getChannel();
+			boolean ok = false;
+			try {
+				m_Buffer = m_Channel.map(FileChannel.MapMode.READ_ONLY, 0, m_Channel.size());
+				if (m_Buffer.remaining() < 18 || MAGIC != m_Buffer.getInt()) {
+					throw new IOException("不是快照文件：" + file);
+				}
+				short version = m_Buffer.getShort();
+				if (VERSION != version) {
+					throw new IOException("不支持的快照版本：" + version);
+				}
+				m_Time = m_Buffer.getLong();
+				m_Count = m_Buffer.getInt();
+				ok = true;
+			} finally {
+				if (!ok) {
+					m_Channel.close();
+				}
+			}
+		}
+
+		public File getFile() {
+			return m_File;
+		}
+
+		/** 快照的时间 */
+		public long getTime() {
+			return m_Time;
+		}
+
+		/** 实例数 */
+		public int getCount() {
+			return m_Count;
+		}
+
+		/**
+		 * 下一个实例
+		 * 
+		 * @return 没有了返回null
+		 * @throws IOException
+		 */
+		public ServiceInstance next() throws IOException {
+			return advance() ? current() : null;
+		}
+
+		/**
+		 * 移到下一个实例，只解码名称及编号
+		 * 
+		 * @return 没有了返回false
+		 * @throws IOException
+		 */
+		boolean advance() throws IOException {
+			if (m_Read >= m_Count) {
+				return false;
+			}
+			int lastNameAt = m_NameAt;
+			int lastNameLen = m_NameLen;
+			int lastNoAt = m_NoAt;
+			int lastNoLen = m_NoLen;
+			try {
+				m_NameLen = (m_Buffer.getShort() & 0xFFFF) - 1;
+				m_NameAt = m_Buffer.position();
+				skip(m_NameLen);
+				m_NoLen = (m_Buffer.getShort() & 0xFFFF) - 1;
+				m_NoAt = m_Buffer.position();
+				skip(m_NoLen);
+				m_KeyEnd = m_Buffer.position();
+				skip((m_Buffer.getShort() & 0xFFFF) - 1);
+				m_HeartbeatAt = m_Buffer.position();
+				skip(8 + 1);
+				int size = m_Buffer.getShort() & 0xFFFF;
+				for (int i = 0; i < size; i++) {
+					skip((m_Buffer.getShort() & 0xFFFF) - 1);
+				}
+				m_End = m_Buffer.position();
+			} catch (BufferUnderflowException | IllegalArgumentException e) {
+				throw new IOException("快照文件不完整：" + m_File);
+			}
+			// 归并依赖顺序，不是本格式写出的文件可能无序
+			if (m_Read > 0 && compareKey(m_Buffer, lastNameAt, lastNameLen, lastNoAt, lastNoLen) <= 0) {
+				throw new IOException("快照未排序：" + m_File + "，" + ServiceInstance
+						.getKey(getString(m_NameAt, m_NameLen), getString(m_NoAt, m_NoLen)));
+			}
+			m_Read++;
+			return true;
+		}
+
+		/**
+		 * 当前实例的名称+编号与另一个比较，直接比较字节，不解码
+		 */
+		int compareKey(MappedByteBuffer other, int nameAt, int nameLen, int noAt, int noLen) {
+			int c = compareBytes(m_Buffer, m_NameAt, m_NameLen, other, nameAt, nameLen);
+			if (0 != c) {
+				return c;
+			}
+			return compareBytes(m_Buffer, m_NoAt, m_NoLen, other, noAt, noLen);
+		}
+
+		/**
+		 * 解码当前的实例
+		 */
+		ServiceInstance current() {
+			String name = getString(m_NameAt, m_NameLen);
+			String no = getString(m_NoAt, m_NoLen);
+			m_Buffer.position(m_KeyEnd);
+			String version = readString();
+			long heartbeat = m_Buffer.getLong();
+			int state = m_Buffer.get() & 0xFF;
+			int size = m_Buffer.getShort() & 0xFFFF;
+			List<String> urls = new ArrayList<String>(size);
+			for (int i = 0; i < size; i++) {
+				urls.add(readString());
+			}
+			return new ServiceInstance(name, no, version, heartbeat, state, urls);
+		}
+
+		void skip(int len) {
+			if (len > 0) {
+				m_Buffer.position(m_Buffer.position() + len);
+			}
+		}
+
+		String getString(int at, int len) {
+			if (len < 0) {
+				return null;
+			}
+			byte[] bytes = new byte[len];
+			for (int i = 0; i < len; i++) {
+				bytes[i] = m_Buffer.get(at + i);
+			}
+			return new String(bytes, UTF_8);
+		}
+
+		String readString() {
+			int len = (m_Buffer.getShort() & 0xFFFF) - 1;
+			if (len < 0) {
+				return null;
+			}
+			if (len > m_Buffer.remaining()) {
+				throw new BufferUnderflowException();
+			}
+			byte[] bytes = new byte[len];
+			m_Buffer.get(bytes);
+			return new String(bytes, UTF_8);
+		}
+
+		@Override
+		public void close() throws IOException {
+			m_Channel.close();
+		}
+	}
+}
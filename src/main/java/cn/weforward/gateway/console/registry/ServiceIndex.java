@@ -0,0 +1,274 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.console.registry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 微服务实例的只读索引，按名称、编号、版本及链接查询。
+ * <p>
+ * 关键字不区分大小写：以'*'结尾的按前缀匹配（在排序的词表上二分查找）， 否则按包含匹配（以三元组倒排表求交集后再逐个核对）。
+ * 
+ * @author zhangpengji
+ *
+ */
+public class ServiceIndex {
+
+	final List<ServiceInstance> m_Instances;
+	/** 按字典序排列的词（小写） */
+	final String[] m_Terms;
+	/** 词所属的实例下标 */
+	final int[] m_Owners;
+	/** 三元组 -> 包含它的实例下标（升序、去重） */
+	final Map<Long, int[]> m_Trigrams;
+
+	/**
+	 * 构造
+	 * 
+	 * @param instances
+	 *            实例，查询结果保持此顺序
+	 */
+	public ServiceIndex(List<ServiceInstance> instances) {
+		m_Instances = Collections.unmodifiableList(new ArrayList<ServiceInstance>(instances));
+		List<Term> terms = new ArrayList<Term>(instances.size() * 4);
+		for (int i = 0; i < m_Instances.size(); i++) {
+			ServiceInstance s = m_Instances.get(i);
+			addTerm(terms, s.getName(), i);
+			addTerm(terms, s.getNo(), i);
+			addTerm(terms, s.getVersion(), i);
+			for (String url : s.getUrls()) {
+				addTerm(terms, url, i);
+			}
+		}
+		Collections.sort(terms, Term.CMP);
+		m_Terms = new String[terms.size()];
+		m_Owners = new int[terms.size()];
+		Map<Long, IntList> trigrams = new HashMap<Long, IntList>();
+		for (int i = 0; i < terms.size(); i++) {
+			Term t = terms.get(i);
+			m_Terms[i] = t.m_Value;
+			m_Owners[i] = t.m_Owner;
+			for (int j = 0; j + 3 <= t.m_Value.length(); j++) {
+				Long key = trigram(t.m_Value, j);
+				IntList owners = trigrams.get(key);
+				if (null == owners) {
+					owners = new IntList();
+					trigrams.put(key, owners);
+				}
+				owners.add(t.m_Owner);
+			}
+		}
+		m_Trigrams = new HashMap<Long, int[]>(trigrams.size() * 4 / 3 + 1);
+		for (Map.Entry<Long, IntList> e : trigrams.entrySet()) {
+			m_Trigrams.put(e.getKey(), e.getValue().toSortedSet());
+		}
+	}
+
+	/**
+	 * 共用词表及三元组，只替换实例（索引的字段都没有变化时）
+	 */
+	private ServiceIndex(ServiceIndex index, List<ServiceInstance> instances) {
+		m_Instances = Collections.unmodifiableList(new ArrayList<ServiceInstance>(instances));
+		m_Terms = index.m_Terms;
+		m_Owners = index.m_Owners;
+		m_Trigrams = index.m_Trigrams;
+	}
+
+	/**
+	 * 以新的实例生成索引。顺序及名称、编号、版本、链接都没有变化时（通常只是心跳或状态变化），
+	 * 直接共用现有的词表及三元组，否则重建
+	 * 
+	 * @param instances
+	 * @return
+	 */
+	public ServiceIndex update(List<ServiceInstance> instances) {
+		if (instances.size() != m_Instances.size()) {
+			return new ServiceIndex(instances);
+		}
+		for (int i = 0; i < instances.size(); i++) {
+			if (!m_Instances.get(i).isSameIndexed(instances.get(i))) {
+				return new ServiceIndex(instances);
+			}
+		}
+		return new ServiceIndex(this, instances);
+	}
+
+	private static void addTerm(List<Term> terms, String value, int owner) {
+		if (null != value && !value.isEmpty()) {
+			terms.add(new Term(value.toLowerCase(Locale.ENGLISH), owner));
+		}
+	}
+
+	public int size() {
+		return m_Instances.size();
+	}
+
+	public List<ServiceInstance> getInstances() {
+		return m_Instances;
+	}
+
+	/**
+	 * 查询
+	 * 
+	 * @param keyword
+	 *            为空时返回全部
+	 * @return
+	 */
+	public List<ServiceInstance> search(String keyword) {
+		if (null == keyword || keyword.isEmpty() || "*".equals(keyword)) {
+			return m_Instances;
+		}
+		keyword = keyword.toLowerCase(Locale.ENGLISH);
+		boolean[] hits = new boolean[m_Instances.size()];
+		if (keyword.endsWith("*")) {
+			searchPrefix(keyword.substring(0, keyword.length() - 1), hits);
+		} else {
+			searchContains(keyword, hits);
+		}
+		List<ServiceInstance> result = new ArrayList<ServiceInstance>();
+		for (int i = 0; i < hits.length; i++) {
+			if (hits[i]) {
+				result.add(m_Instances.get(i));
+			}
+		}
+		return result;
+	}
+
+	private void searchPrefix(String prefix, boolean[] hits) {
+		int idx = Arrays.binarySearch(m_Terms, prefix);
+		if (idx < 0) {
+			idx = -idx - 1;
+		}
+		for (; idx < m_Terms.length && m_Terms[idx].startsWith(prefix); idx++) {
+			hits[m_Owners[idx]] = true;
+		}
+	}
+
+	private void searchContains(String keyword, boolean[] hits) {
+		if (keyword.length() < 3) {
+			// 太短，没有三元组可用，直接扫描词表
+			for (int i = 0; i < m_Terms.length; i++) {
+				if (m_Terms[i].contains(keyword)) {
+					hits[m_Owners[i]] = true;
+				}
+			}
+			return;
+		}
+		int[] candidates = null;
+		for (int j = 0; j + 3 <= keyword.length(); j++) {
+			int[] owners = m_Trigrams.get(trigram(keyword, j));
+			if (null == owners) {
+				return;
+			}
+			candidates = (null == candidates) ? owners : intersect(candidates, owners);
+			if (0 == candidates.length) {
+				return;
+			}
+		}
+		// 三元组都命中不代表包含，须核对
+		for (int owner : candidates) {
+			ServiceInstance s = m_Instances.get(owner);
+			if (contains(s.getName(), keyword) || contains(s.getNo(), keyword)
+					|| contains(s.getVersion(), keyword)) {
+				hits[owner] = true;
+				continue;
+			}
+			for (String url : s.getUrls()) {
+				if (contains(url, keyword)) {
+					hits[owner] = true;
+					break;
+				}
+			}
+		}
+	}
+
+	private static boolean contains(String value, String keyword) {
+		return null != value && value.toLowerCase(Locale.ENGLISH).contains(keyword);
+	}
+
+	private static Long trigram(String value, int offset) {
+		return ((long) value.charAt(offset) << 32) | ((long) value.charAt(offset + 1) << 16)
+				| value.charAt(offset + 2);
+	}
+
+	private static int[] intersect(int[] a, int[] b) {
+		int[] result = new int[Math.min(a.length, b.length)];
+		int n = 0;
+		for (int i = 0, j = 0; i < a.length && j < b.length;) {
+			if (a[i] < b[j]) {
+				i++;
+			} else if (a[i] > b[j]) {
+				j++;
+			} else {
+				result[n++] = a[i];
+				i++;
+				j++;
+			}
+		}
+		return (n == result.length) ? result : Arrays.copyOf(result, n);
+	}
+
+	static class Term {
+		static final Comparator<Term> CMP = new Comparator<Term>() {
+
+			@Override
+			public int compare(Term o1, Term o2) {
+				return o1.m_Value.compareTo(o2.m_Value);
+			}
+		};
+
+		final String m_Value;
+		final int m_Owner;
+
+		Term(String value, int owner) {
+			m_Value = value;
+			m_Owner = owner;
+		}
+	}
+
+	/**
+	 * 可增长的int数组
+	 */
+	static class IntList {
+		int[] m_Values = new int[4];
+		int m_Size;
+
+		void add(int v) {
+			// 同一个词里重复的三元组是连续加入的，先去掉
+			if (m_Size > 0 && m_Values[m_Size - 1] == v) {
+				return;
+			}
+			if (m_Size == m_Values.length) {
+				m_Values = Arrays.copyOf(m_Values, m_Size * 2);
+			}
+			m_Values[m_Size++] = v;
+		}
+
+		int[] toSortedSet() {
+			int[] values = Arrays.copyOf(m_Values, m_Size);
+			Arrays.sort(values);
+			int n = 0;
+			for (int i = 0; i < values.length; i++) {
+				if (0 == n || values[n - 1] != values[i]) {
+					values[n++] = values[i];
+				}
+			}
+			return (n == values.length) ? values : Arrays.copyOf(values, n);
+		}
+	}
+}
@@ -0,0 +1,179 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.console.registry;
+
+import java.util.Collections;
+import java.util.List;
+
+import cn.weforward.protocol.ops.ServiceExt;
+
+/**
+ * 微服务实例的快照，只保留控制台关心的字段
+ * 
+ * @author zhangpengji
+ *
+ */
+public class ServiceInstance {
+
+	/** 状态：不可达 */
+	public static final int STATE_INACCESSIBLE = 1;
+	/** 状态：不可用 */
+	public static final int STATE_UNAVAILABLE = 2;
+	/** 状态：过载 */
+	public static final int STATE_OVERLOAD = 4;
+	/** 状态：宕机（心跳超时） */
+	public static final int STATE_TIMEOUT = 8;
+
+	final String m_Name;
+	final String m_No;
+	final String m_Version;
+	final long m_Heartbeat;
+	final int m_State;
+	final List<String> m_Urls;
+
+	public ServiceInstance(String name, String no, String version, long heartbeat, int state, List<String> urls) {
+		m_Name = name;
+		m_No = no;
+		m_Version = version;
+		m_Heartbeat = heartbeat;
+		m_State = state;
+		m_Urls = (null == urls) ? Collections.<String> emptyList() : urls;
+	}
+
+	public static ServiceInstance valueOf(ServiceExt service) {
+		int state = 0;
+		if (service.isInaccessible()) {
+			state |= STATE_INACCESSIBLE;
+		}
+		if (service.isUnavailable()) {
+			state |= STATE_UNAVAILABLE;
+		}
+		if (service.isOverload()) {
+			state |= STATE_OVERLOAD;
+		}
+		if (service.isTimeout()) {
+			state |= STATE_TIMEOUT;
+		}
+		long heartbeat = (null == service.getHeartbeat()) ? 0 : service.getHeartbeat().getTime();
+		return new ServiceInstance(service.getName(), service.getNo(), service.getVersion(), heartbeat, state,
+				service.getUrls());
+	}
+
+	/**
+	 * 实例的标识：名称+编号
+	 * 
+	 * @return
+	 */
+	public String getKey() {
+		return getKey(m_Name, m_No);
+	}
+
+	public static String getKey(String name, String no) {
+		return name + '#' + no;
+	}
+
+	public String getName() {
+		return m_Name;
+	}
+
+	public String getNo() {
+		return m_No;
+	}
+
+	public String getVersion() {
+		return m_Version;
+	}
+
+	/**
+	 * 心跳时间
+	 * 
+	 * @return 毫秒，0表示没有
+	 */
+	public long getHeartbeat() {
+		return m_Heartbeat;
+	}
+
+	/**
+	 * 状态，STATE_XXX的组合，0表示正常
+	 * 
+	 * @return
+	 */
+	public int getState() {
+		return m_State;
+	}
+
+	public boolean isHealthy() {
+		return 0 == m_State;
+	}
+
+	public List<String> getUrls() {
+		return m_Urls;
+	}
+
+	/**
+	 * 状态的描述
+	 * 
+	 * @param state
+	 * @return
+	 */
+	public static String getStateText(int state) {
+		return getStateText(state, ',');
+	}
+
+	/**
+	 * 状态的描述
+	 * 
+	 * @param state
+	 * @param separator
+	 *            多个状态间的分隔符
+	 * @return
+	 */
+	public static String getStateText(int state, char separator) {
+		if (0 == state) {
+			return "正常";
+		}
+		StringBuilder sb = new StringBuilder();
+		if (0 != (state & STATE_INACCESSIBLE)) {
+			sb.append("不可达").append(separator);
+		}
+		if (0 != (state & STATE_UNAVAILABLE)) {
+			sb.append("不可用").append(separator);
+		}
+		if (0 != (state & STATE_OVERLOAD)) {
+			sb.append("过载").append(separator);
+		}
+		if (0 != (state & STATE_TIMEOUT)) {
+			sb.append("宕机").append(separator);
+		}
+		sb.setLength(sb.length() - 1);
+		return sb.toString();
+	}
+
+	/**
+	 * 名称、编号、版本及链接是否都相同
+	 * 
+	 * @param other
+	 * @return
+	 */
+	public boolean isSameIndexed(ServiceInstance other) {
+		return eq(m_Name, other.m_Name) && eq(m_No, other.m_No) && eq(m_Version, other.m_Version)
+				&& m_Urls.equals(other.m_Urls);
+	}
+
+	static boolean eq(String a, String b) {
+		return (null == a) ? null == b : a.equals(b);
+	}
+
+	@Override
+	public String toString() {
+		return m_Name + ' ' + m_No + ' ' + m_Version + ' ' + getStateText(m_State);
+	}
+}
@@ -0,0 +1,212 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.console.registry;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import cn.weforward.gateway.console.keeper.ResultPages;
+import cn.weforward.protocol.gateway.Keeper;
+import cn.weforward.protocol.gateway.SearchServiceParams;
+import cn.weforward.protocol.ops.ServiceExt;
+
+/**
+ * 微服务注册表的本地缓存
+ * <p>
+ * 首次使用时同步加载，之后由后台线程定时刷新。keeper没有增量接口，每次刷新仍是全量分页查询，
+ * 但实例的名称、编号、版本及链接都没有变化时只替换实例，不重建索引。 长时间没有使用时后台线程自行停止，再次使用时恢复。
+ * 
+ * @author zhangpengji
+ *
+ */
+public class ServiceRegistryCache {
+
+	/** 默认的刷新间隔（毫秒） */
+	public static final long REFRESH_INTERVAL_DEFAULT = 10 * 1000;
+	/** 没有使用多久后停止刷新（毫秒） */
+	static final long IDLE_MILLIS = 10 * 60 * 1000;
+	/** 刷新时的页面项数 */
+	static final int PAGE_SIZE = 200;
+
+	final Keeper m_Keeper;
+	/** 刷新（查询keeper）时持有，与后台线程的启停分开，避免查询期间阻塞读取 */
+	final Object m_RefreshLock;
+	volatile long m_Interval;
+	volatile ServiceIndex m_Index;
+	/** 最近一次刷新成功的时间 */
+	volatile long m_RefreshTime;
+	/** 最近一次刷新失败的原因，成功后清除 */
+	volatile String m_LastError;
+	volatile long m_LastAccess;
+	Thread m_Refresher;
+
+	public ServiceRegistryCache(Keeper keeper) {
+		m_Keeper = keeper;
+		m_RefreshLock = new Object();
+		m_Interval = REFRESH_INTERVAL_DEFAULT;
+	}
+
+	public Keeper getKeeper() {
+		return m_Keeper;
+	}
+
+	/**
+	 * 设置刷新间隔
+	 * 
+	 * @param millis
+	 */
+	public void setInterval(long millis) {
+		m_Interval = Math.max(1000, millis);
+	}
+
+	public long getInterval() {
+		return m_Interval;
+	}
+
+	/**
+	 * 获取索引，首次调用时同步加载，并确保后台在刷新
+	 * 
+	 * @return
+	 */
+	public ServiceIndex getIndex() {
+		m_LastAccess = System.currentTimeMillis();
+		ServiceIndex index = m_Index;
+		if (null == index) {
+			synchronized (m_RefreshLock) {
+				if (null == m_Index) {
+					refresh();
+				}
+				index = m_Index;
+			}
+		}
+		startRefresher();
+		return index;
+	}
+
+	public long getRefreshTime() {
+		return m_RefreshTime;
+	}
+
+	public String getLastError() {
+		return m_LastError;
+	}
+
+	/**
+	 * 立即刷新
+	 * 
+	 * @return 索引是否重建
+	 */
+	public boolean refresh() {
+		synchronized (m_RefreshLock) {
+			Map<String, ServiceInstance> instances = load(m_Keeper, null, PAGE_SIZE);
+			ServiceIndex old = m_Index;
+			ServiceIndex index;
+			if (null == old) {
+				index = new ServiceIndex(new ArrayList<ServiceInstance>(instances.values()));
+			} else {
+				index = old.update(new ArrayList<ServiceInstance>(instances.values()));
+			}
+			m_Index = index;
+			m_RefreshTime = System.currentTimeMillis();
+			m_LastError = null;
+			return null == old || old.m_Terms != index.m_Terms;
+		}
+	}
+
+	/**
+	 * 是否已因长时间没有使用而停止刷新
+	 * 
+	 * @return
+	 */
+	public synchronized boolean isIdle() {
+		return null == m_Refresher && System.currentTimeMillis() - m_LastAccess > IDLE_MILLIS;
+	}
+
+	/**
+	 * 停止后台刷新
+	 */
+	public synchronized void stop() {
+		if (null != m_Refresher) {
+			m_Refresher.interrupt();
+			m_Refresher = null;
+		}
+	}
+
+	private synchronized void startRefresher() {
+		if (null != m_Refresher) {
+			return;
+		}
+		m_Refresher = new Thread("registry-cache") {
+			@Override
+			public void run() {
+				refreshLoop(this);
+			}
+		};
+		m_Refresher.setDaemon(true);
+		m_Refresher.start();
+	}
+
+	void refreshLoop(Thread self) {
+		while (true) {
+			try {
+				Thread.sleep(m_Interval);
+			} catch (InterruptedException e) {
+				return;
+			}
+			synchronized (this) {
+				if (self != m_Refresher) {
+					return;
+				}
+				if (System.currentTimeMillis() - m_LastAccess > IDLE_MILLIS) {
+					m_Refresher = null;
+					return;
+				}
+			}
+			try {
+				refresh();
+			} catch (RuntimeException e) {
+				// 保留旧的索引，下次再试
+				m_LastError = String.valueOf(e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * 分页查询全部实例，以名称+编号为键
+	 * 
+	 * @param keeper
+	 * @param keyword
+	 * @param pageSize
+	 * @return
+	 */
+	public static Map<String, ServiceInstance> load(Keeper keeper, String keyword, int pageSize) {
+		SearchServiceParams searchParams = new SearchServiceParams();
+		searchParams.setKeyword(keyword);
+		final Map<String, ServiceInstance> instances = new LinkedHashMap<String, ServiceInstance>();
+		ResultPages.walk(keeper.searchService(searchParams), pageSize, null, new ResultPages.Visitor<ServiceExt>() {
+
+			@Override
+			public void begin(int count, int pageCount, int firstPageSize) {
+			}
+
+			@Override
+			public void visit(List<ServiceExt> page) {
+				for (ServiceExt s : page) {
+					ServiceInstance instance = ServiceInstance.valueOf(s);
+					instances.put(instance.getKey(), instance);
+				}
+			}
+		});
+		return instances;
+	}
+}
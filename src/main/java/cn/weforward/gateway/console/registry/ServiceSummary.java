@@ -0,0 +1,116 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.console.registry;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * 同名微服务各实例的汇总
+ * 
+ * @author zhangpengji
+ *
+ */
+public class ServiceSummary {
+
+	final String m_Name;
+	int m_Instances;
+	int m_Healthy;
+	int m_Inaccessible;
+	int m_Unavailable;
+	int m_Overload;
+	int m_Timeout;
+	final Set<String> m_Versions;
+	long m_OldestHeartbeat;
+
+	public ServiceSummary(String name) {
+		m_Name = name;
+		m_Versions = new TreeSet<String>();
+	}
+
+	/**
+	 * 计入一个实例
+	 * 
+	 * @param instance
+	 */
+	public void add(ServiceInstance instance) {
+		m_Instances++;
+		int state = instance.getState();
+		if (0 == state) {
+			m_Healthy++;
+		}
+		if (0 != (state & ServiceInstance.STATE_INACCESSIBLE)) {
+			m_Inaccessible++;
+		}
+		if (0 != (state & ServiceInstance.STATE_UNAVAILABLE)) {
+			m_Unavailable++;
+		}
+		if (0 != (state & ServiceInstance.STATE_OVERLOAD)) {
+			m_Overload++;
+		}
+		if (0 != (state & ServiceInstance.STATE_TIMEOUT)) {
+			m_Timeout++;
+		}
+		if (null != instance.getVersion()) {
+			m_Versions.add(instance.getVersion());
+		}
+		long heartbeat = instance.getHeartbeat();
+		if (0 != heartbeat && (0 == m_OldestHeartbeat || heartbeat < m_OldestHeartbeat)) {
+			m_OldestHeartbeat = heartbeat;
+		}
+	}
+
+	public String getName() {
+		return m_Name;
+	}
+
+	public int getInstances() {
+		return m_Instances;
+	}
+
+	public int getHealthy() {
+		return m_Healthy;
+	}
+
+	public int getInaccessible() {
+		return m_Inaccessible;
+	}
+
+	public int getUnavailable() {
+		return m_Unavailable;
+	}
+
+	public int getOverload() {
+		return m_Overload;
+	}
+
+	public int getTimeout() {
+		return m_Timeout;
+	}
+
+	/**
+	 * 各实例的版本（去重、排序）
+	 * 
+	 * @return
+	 */
+	public Set<String> getVersions() {
+		return m_Versions;
+	}
+
+	/**
+	 * 最旧的心跳时间
+	 * 
+	 * @return 毫秒，0表示没有
+	 */
+	public long getOldestHeartbeat() {
+		return m_OldestHeartbeat;
+	}
+}
@@ -0,0 +1,203 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.console.traffic;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import cn.weforward.gateway.console.registry.ServiceInstance;
+import cn.weforward.protocol.ops.traffic.TrafficTableItem;
+
+/**
+ * 一个微服务的流量表与在线实例的对应及容量。
+ * <p>
+ * 实例按{@linkplain TrafficRules}对应规则；正常且权重为正的实例按权重分担流量，后备不计；
+ * 总并发上限为分担流量的实例的最大并发数之和，其中有不限的则为不限。
+ * 
+ * @author zhangpengji
+ *
+ */
+public class ServiceCapacity {
+
+	/** 总并发上限：不限 */
+	public static final int UNLIMITED = -1;
+
+	final String m_Name;
+	final List<TrafficTableItem> m_Rules;
+	final List<Binding> m_Bindings;
+	final List<Integer> m_StaleRules;
+	int m_Healthy;
+	int m_Serving;
+	int m_Backups;
+	int m_Masked;
+	int m_Unmatched;
+	int m_MaxConcurrent;
+
+	public ServiceCapacity(String name, List<TrafficTableItem> rules, List<ServiceInstance> instances) {
+		m_Name = name;
+		m_Rules = (null == rules) ? Collections.<TrafficTableItem> emptyList() : rules;
+		m_Bindings = new ArrayList<Binding>(instances.size());
+		int totalWeight = 0;
+		boolean unlimited = false;
+		int maxConcurrent = 0;
+		for (ServiceInstance s : instances) {
+			Binding b = new Binding(s);
+			if (m_Rules.isEmpty()) {
+				b.m_Weight = TrafficTableItem.WEIGHT_DEFAULT;
+				b.m_MaxConcurrent = TrafficTableItem.MAX_CONCURRENT_DEFAULT;
+			} else {
+				b.m_Rule = TrafficRules.indexOf(m_Rules, s.getNo(), s.getVersion());
+				if (b.m_Rule >= 0) {
+					TrafficTableItem item = m_Rules.get(b.m_Rule);
+					b.m_Weight = item.getWeight();
+					b.m_MaxConcurrent = item.getMaxConcurrent();
+				} else {
+					m_Unmatched++;
+				}
+			}
+			m_Bindings.add(b);
+			if (s.isHealthy()) {
+				m_Healthy++;
+			}
+			if (b.m_Rule < 0 && !m_Rules.isEmpty()) {
+				continue;
+			}
+			if (TrafficRules.isMasked(b.m_Weight)) {
+				m_Masked++;
+			} else if (TrafficRules.isBackup(b.m_Weight)) {
+				m_Backups++;
+			} else if (s.isHealthy()) {
+				m_Serving++;
+				totalWeight += b.m_Weight;
+				if (0 == b.m_MaxConcurrent) {
+					unlimited = true;
+				} else {
+					maxConcurrent += b.m_MaxConcurrent;
+				}
+			}
+		}
+		m_MaxConcurrent = unlimited ? UNLIMITED : maxConcurrent;
+		for (Binding b : m_Bindings) {
+			if (b.m_Instance.isHealthy() && b.m_Weight > 0 && (b.m_Rule >= 0 || m_Rules.isEmpty())) {
+				b.m_Share = b.m_Weight / (double) totalWeight;
+			}
+		}
+		// 指定了编号或版本却没有匹配任何在线实例的规则
+		m_StaleRules = new ArrayList<Integer>();
+		for (int i = 0; i < m_Rules.size(); i++) {
+			TrafficTableItem item = m_Rules.get(i);
+			if (!TrafficRules.isSpecified(item.getServiceNo()) && !TrafficRules.isSpecified(item.getServiceVersion())) {
+				continue;
+			}
+			boolean matched = false;
+			for (ServiceInstance s : instances) {
+				if (TrafficRules.matches(item, s.getNo(), s.getVersion())) {
+					matched = true;
+					break;
+				}
+			}
+			if (!matched) {
+				m_StaleRules.add(i);
+			}
+		}
+	}
+
+	public String getName() {
+		return m_Name;
+	}
+
+	public List<TrafficTableItem> getRules() {
+		return m_Rules;
+	}
+
+	/** 各在线实例对应的规则及流量 */
+	public List<Binding> getBindings() {
+		return m_Bindings;
+	}
+
+	public int getInstances() {
+		return m_Bindings.size();
+	}
+
+	public int getHealthy() {
+		return m_Healthy;
+	}
+
+	/** 正常且分担流量的实例数 */
+	public int getServing() {
+		return m_Serving;
+	}
+
+	public int getBackups() {
+		return m_Backups;
+	}
+
+	public int getMasked() {
+		return m_Masked;
+	}
+
+	/** 没有匹配规则（不分配流量）的实例数 */
+	public int getUnmatched() {
+		return m_Unmatched;
+	}
+
+	/**
+	 * 总并发上限
+	 * 
+	 * @return {@linkplain #UNLIMITED}表示不限
+	 */
+	public int getMaxConcurrent() {
+		return m_MaxConcurrent;
+	}
+
+	/** 没有匹配任何在线实例的规则序号 */
+	public List<Integer> getStaleRules() {
+		return m_StaleRules;
+	}
+
+	/**
+	 * 实例与规则的对应
+	 */
+	public static class Binding {
+		final ServiceInstance m_Instance;
+		int m_Rule = -1;
+		int m_Weight;
+		int m_MaxConcurrent;
+		double m_Share;
+
+		Binding(ServiceInstance instance) {
+			m_Instance = instance;
+		}
+
+		public ServiceInstance getInstance() {
+			return m_Instance;
+		}
+
+		/** 规则序号，-1表示没有匹配的规则（或流量表为空而使用默认） */
+		public int getRule() {
+			return m_Rule;
+		}
+
+		public int getWeight() {
+			return m_Weight;
+		}
+
+		public int getMaxConcurrent() {
+			return m_MaxConcurrent;
+		}
+
+		/** 分担流量的比例（0~1） */
+		public double getShare() {
+			return m_Share;
+		}
+	}
+}
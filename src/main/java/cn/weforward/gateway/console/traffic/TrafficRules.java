@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.console.traffic;
+
+import java.util.List;
+
+import cn.weforward.protocol.ops.traffic.TrafficTableItem;
+
+/**
+ * 流量规则与实例的匹配。
+ * <p>
+ * 规则按顺序匹配，未指定编号或版本的规则匹配任意编号或版本，实例使用第一个匹配的规则；
+ * 流量表为空时实例都使用默认设置，否则没有匹配规则的实例不分配流量。
+ * 
+ * @author zhangpengji
+ *
+ */
+public class TrafficRules {
+
+	private TrafficRules() {
+	}
+
+	/**
+	 * 实例所用规则的序号
+	 * 
+	 * @param items
+	 *            流量规则
+	 * @param no
+	 *            实例编号
+	 * @param version
+	 *            实例版本
+	 * @return 没有匹配的规则返回-1
+	 */
+	public static int indexOf(List<? extends TrafficTableItem> items, String no, String version) {
+		for (int i = 0; null != items && i < items.size(); i++) {
+			if (matches(items.get(i), no, version)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * 规则是否可能匹配到实例
+	 * 
+	 * @param item
+	 * @param no
+	 * @param version
+	 * @return
+	 */
+	public static boolean matches(TrafficTableItem item, String no, String version) {
+		return (!isSpecified(item.getServiceNo()) || item.getServiceNo().equals(no))
+				&& (!isSpecified(item.getServiceVersion()) || item.getServiceVersion().equals(version));
+	}
+
+	/** 规则是否指定了该项（编号或版本） */
+	public static boolean isSpecified(String str) {
+		return null != str && str.length() > 0;
+	}
+
+	/**
+	 * 是否为后备（只在其它实例都不可用时使用）
+	 */
+	public static boolean isBackup(int weight) {
+		return weight < 0;
+	}
+
+	/**
+	 * 是否屏蔽（不分配流量）
+	 */
+	public static boolean isMasked(int weight) {
+		return 0 == weight;
+	}
+}
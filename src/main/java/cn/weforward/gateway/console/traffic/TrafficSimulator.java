@@ -0,0 +1,405 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.console.traffic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import cn.weforward.gateway.console.util.LatencyHistogram;
+
+/**
+ * 流量规则的离散事件模拟。
+ * <p>
+ * 请求按泊松过程到达，在可用的实例间按平滑加权轮询分配（后备实例只在其它实例都不可用时使用）；
+ * 达到最大并发数的实例跳过，连续失败达到最大次数的实例摘除至失败超时后，响应超过读取超时的按超时失败。
+ * 时间以微秒计，待完成的请求放在以数组实现的最小堆中，单线程执行，每秒可模拟数百万个请求。
+ * 
+ * @author zhangpengji
+ *
+ */
+public class TrafficSimulator {
+
+	/** 对数正态分布的sigma，使耗时有较长的尾部 */
+	static final double LATENCY_SIGMA = 0.5;
+
+	static final int DONE_OK = 0;
+	static final int DONE_FAIL = 1;
+	static final int DONE_TIMEOUT = 2;
+
+	final List<Endpoint> m_Endpoints;
+	final LatencyHistogram m_Latency;
+	long m_Seed;
+	double m_NextGaussian;
+	boolean m_HasNextGaussian;
+	long m_Requests;
+	long m_Rejected;
+	long m_RejectedBusy;
+	long m_Elapsed;
+
+	// 待完成请求的最小堆：完成时间及（实例序号<<2|结果）
+	long[] m_HeapTimes;
+	int[] m_HeapValues;
+	int m_HeapSize;
+
+	/**
+	 * 构造
+	 * 
+	 * @param seed
+	 *            随机数种子，相同的种子及参数得到相同的结果
+	 */
+	public TrafficSimulator(long seed) {
+		m_Endpoints = new ArrayList<Endpoint>();
+		m_Latency = new LatencyHistogram();
+		m_Seed = (0 == seed) ? 0x9E3779B97F4A7C15L : seed;
+		m_HeapTimes = new long[1024];
+		m_HeapValues = new int[1024];
+	}
+
+	/**
+	 * 加入实例
+	 * 
+	 * @param name
+	 *            实例的名称
+	 * @param weight
+	 *            权重，负数为后备，0为屏蔽
+	 * @param maxConcurrent
+	 *            最大并发数，0为不限
+	 * @param maxFails
+	 *            最大连续失败次数，0为不摘除
+	 * @param failTimeout
+	 *            摘除的时长（秒）
+	 * @param readTimeout
+	 *            读取超时（秒），0为不限
+	 * @param latencyMillis
+	 *            平均耗时（毫秒）
+	 * @param failure
+	 *            失败率（0~1）
+	 * @return
+	 */
+	public Endpoint addEndpoint(String name, int weight, int maxConcurrent, int maxFails, int failTimeout,
+			int readTimeout, double latencyMillis, double failure) {
+		Endpoint ep = new Endpoint(name, weight, maxConcurrent, maxFails, failTimeout * 1000000L,
+				readTimeout * 1000000L, latencyMillis, failure);
+		m_Endpoints.add(ep);
+		return ep;
+	}
+
+	public List<Endpoint> getEndpoints() {
+		return Collections.unmodifiableList(m_Endpoints);
+	}
+
+	/**
+	 * 执行模拟
+	 * 
+	 * @param perSecond
+	 *            每秒到达的请求数
+	 * @param requests
+	 *            模拟的请求数
+	 */
+	public void run(double perSecond, long requests) {
+		if (perSecond <= 0) {
+			throw new IllegalArgumentException("到达速率须大于0：" + perSecond);
+		}
+		Endpoint[] eps = m_Endpoints.toArray(new Endpoint[m_Endpoints.size()]);
+		double interval = 1000000.0 / perSecond;
+		double arrival = nextExponential() * interval;
+		long now = 0;
+		long arrived = 0;
+		while (arrived < requests || m_HeapSize > 0) {
+			if (arrived < requests && (0 == m_HeapSize || (long) arrival <= m_HeapTimes[0])) {
+				now = (long) arrival;
+				dispatch(eps, now);
+				arrived++;
+				arrival += nextExponential() * interval;
+			} else {
+				now = m_HeapTimes[0];
+				int value = m_HeapValues[0];
+				pop();
+				complete(eps[value >>> 2], value & 3, now);
+			}
+		}
+		m_Requests += arrived;
+		m_Elapsed = Math.max(m_Elapsed, now);
+	}
+
+	void dispatch(Endpoint[] eps, long now) {
+		Endpoint chosen = select(eps, now, false);
+		if (null == chosen) {
+			chosen = select(eps, now, true);
+		}
+		if (null == chosen) {
+			m_Rejected++;
+			for (Endpoint ep : eps) {
+				if (ep.m_Weight != 0 && now >= ep.m_DownUntil && ep.isBusy()) {
+					m_RejectedBusy++;
+					break;
+				}
+			}
+			return;
+		}
+		chosen.m_Requests++;
+		chosen.m_Inflight++;
+		long latency = sampleLatency(chosen);
+		int result;
+		if (chosen.m_ReadTimeout > 0 && latency >= chosen.m_ReadTimeout) {
+			latency = chosen.m_ReadTimeout;
+			result = DONE_TIMEOUT;
+		} else {
+			result = (nextDouble() < chosen.m_Failure) ? DONE_FAIL : DONE_OK;
+		}
+		if (DONE_OK == result) {
+			chosen.m_Latency.record(latency * 1000);
+			m_Latency.record(latency * 1000);
+		}
+		push(now + latency, (chosen.m_Index << 2) | result);
+	}
+
+	/**
+	 * 平滑加权轮询
+	 */
+	Endpoint select(Endpoint[] eps, long now, boolean backup) {
+		Endpoint best = null;
+		int total = 0;
+		for (Endpoint ep : eps) {
+			if (0 == ep.m_Weight || (ep.m_Weight < 0) != backup) {
+				continue;
+			}
+			if (now < ep.m_DownUntil) {
+				continue;
+			}
+			if (ep.isBusy()) {
+				ep.m_BusySkips++;
+				continue;
+			}
+			int weight = Math.abs(ep.m_Weight);
+			ep.m_Current += weight;
+			total += weight;
+			if (null == best || ep.m_Current > best.m_Current) {
+				best = ep;
+			}
+		}
+		if (null != best) {
+			best.m_Current -= total;
+		}
+		return best;
+	}
+
+	void complete(Endpoint ep, int result, long now) {
+		ep.m_Inflight--;
+		if (DONE_OK == result) {
+			ep.m_ConsecutiveFails = 0;
+			return;
+		}
+		if (DONE_TIMEOUT == result) {
+			ep.m_Timeouts++;
+		} else {
+			ep.m_Fails++;
+		}
+		ep.m_ConsecutiveFails++;
+		if (ep.m_MaxFails > 0 && ep.m_ConsecutiveFails >= ep.m_MaxFails && now >= ep.m_DownUntil) {
+			ep.m_DownUntil = now + ep.m_FailTimeout;
+			ep.m_DownCount++;
+			ep.m_ConsecutiveFails = 0;
+		}
+	}
+
+	long sampleLatency(Endpoint ep) {
+		// 对数正态：mu = ln(mean) - sigma^2/2
+		double v = Math.exp(ep.m_Mu + LATENCY_SIGMA * nextGaussian());
+		return Math.max(1, (long) v);
+	}
+
+	void push(long time, int value) {
+		if (m_HeapSize == m_HeapTimes.length) {
+			m_HeapTimes = Arrays.copyOf(m_HeapTimes, m_HeapSize * 2);
+			m_HeapValues = Arrays.copyOf(m_HeapValues, m_HeapSize * 2);
+		}
+		int i = m_HeapSize++;
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (m_HeapTimes[parent] <= time) {
+				break;
+			}
+			m_HeapTimes[i] = m_HeapTimes[parent];
+			m_HeapValues[i] = m_HeapValues[parent];
+			i = parent;
+		}
+		m_HeapTimes[i] = time;
+		m_HeapValues[i] = value;
+	}
+
+	void pop() {
+		int size = --m_HeapSize;
+		if (0 == size) {
+			return;
+		}
+		long time = m_HeapTimes[size];
+		int value = m_HeapValues[size];
+		int i = 0;
+		while (true) {
+			int child = (i << 1) + 1;
+			if (child >= size) {
+				break;
+			}
+			if (child + 1 < size && m_HeapTimes[child + 1] < m_HeapTimes[child]) {
+				child++;
+			}
+			if (time <= m_HeapTimes[child]) {
+				break;
+			}
+			m_HeapTimes[i] = m_HeapTimes[child];
+			m_HeapValues[i] = m_HeapValues[child];
+			i = child;
+		}
+		m_HeapTimes[i] = time;
+		m_HeapValues[i] = value;
+	}
+
+	/** xorshift64*，比java.util.Random快且不需同步 */
+	long nextLong() {
+		long x = m_Seed;
+		x ^= x >>> 12;
+		x ^= x << 25;
+		x ^= x >>> 27;
+		m_Seed = x;
+		return x * 0x2545F4914F6CDD1DL;
+	}
+
+	double nextDouble() {
+		return (nextLong() >>> 11) * 0x1.0p-53;
+	}
+
+	double nextExponential() {
+		return -Math.log(1.0 - nextDouble());
+	}
+
+	double nextGaussian() {
+		if (m_HasNextGaussian) {
+			m_HasNextGaussian = false;
+			return m_NextGaussian;
+		}
+		// Box-Muller，每次生成两个
+		double u = 1.0 - nextDouble();
+		double v = nextDouble();
+		double r = Math.sqrt(-2 * Math.log(u));
+		m_NextGaussian = r * Math.sin(2 * Math.PI * v);
+		m_HasNextGaussian = true;
+		return r * Math.cos(2 * Math.PI * v);
+	}
+
+	/** 模拟的请求数 */
+	public long getRequests() {
+		return m_Requests;
+	}
+
+	/** 没有可用实例而拒绝的请求数 */
+	public long getRejected() {
+		return m_Rejected;
+	}
+
+	/** 拒绝的请求中，有实例因达到最大并发数而不可用的 */
+	public long getRejectedBusy() {
+		return m_RejectedBusy;
+	}
+
+	/** 模拟的时长（微秒） */
+	public long getElapsed() {
+		return m_Elapsed;
+	}
+
+	/** 成功请求的耗时 */
+	public LatencyHistogram getLatency() {
+		return m_Latency;
+	}
+
+	/**
+	 * 模拟的实例
+	 */
+	public class Endpoint {
+		final int m_Index;
+		final String m_Name;
+		final int m_Weight;
+		final int m_MaxConcurrent;
+		final int m_MaxFails;
+		final long m_FailTimeout;
+		final long m_ReadTimeout;
+		final double m_Mu;
+		final double m_Failure;
+		final LatencyHistogram m_Latency;
+		int m_Current;
+		int m_Inflight;
+		int m_ConsecutiveFails;
+		long m_DownUntil;
+		long m_Requests;
+		long m_Fails;
+		long m_Timeouts;
+		long m_BusySkips;
+		long m_DownCount;
+
+		Endpoint(String name, int weight, int maxConcurrent, int maxFails, long failTimeout, long readTimeout,
+				double latencyMillis, double failure) {
+			m_Index = m_Endpoints.size();
+			m_Name = name;
+			m_Weight = weight;
+			m_MaxConcurrent = maxConcurrent;
+			m_MaxFails = maxFails;
+			m_FailTimeout = failTimeout;
+			m_ReadTimeout = readTimeout;
+			m_Mu = Math.log(Math.max(0.001, latencyMillis) * 1000) - LATENCY_SIGMA * LATENCY_SIGMA / 2;
+			m_Failure = failure;
+			m_Latency = new LatencyHistogram();
+		}
+
+		boolean isBusy() {
+			return m_MaxConcurrent > 0 && m_Inflight >= m_MaxConcurrent;
+		}
+
+		public String getName() {
+			return m_Name;
+		}
+
+		public int getWeight() {
+			return m_Weight;
+		}
+
+		/** 分配到的请求数 */
+		public long getRequests() {
+			return m_Requests;
+		}
+
+		/** 失败数（不含超时） */
+		public long getFails() {
+			return m_Fails;
+		}
+
+		/** 超时数 */
+		public long getTimeouts() {
+			return m_Timeouts;
+		}
+
+		/** 因达到最大并发数而跳过的次数 */
+		public long getBusySkips() {
+			return m_BusySkips;
+		}
+
+		/** 因连续失败被摘除的次数 */
+		public long getDownCount() {
+			return m_DownCount;
+		}
+
+		/** 成功请求的耗时 */
+		public LatencyHistogram getLatency() {
+			return m_Latency;
+		}
+	}
+}
@@ -0,0 +1,282 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.console.traffic;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import cn.weforward.gateway.console.registry.ServiceInstance;
+import cn.weforward.protocol.ops.traffic.TrafficTableItem;
+
+/**
+ * 在两个流量规则间分步转移权重的发布进度。
+ * <p>
+ * 规则按编号+版本识别，不受移动影响；两条规则的权重之和保持不变，第k步新规则的权重为总和*k/步数，
+ * 最后一步旧规则的权重为0（屏蔽）。进度保存为properties文件，控制台重启后可继续。
+ * 
+ * @author zhangpengji
+ *
+ */
+public class WeightRollout {
+
+	/** 视为异常的实例状态 */
+	public static final int DEGRADED = ServiceInstance.STATE_UNAVAILABLE | ServiceInstance.STATE_OVERLOAD
+			| ServiceInstance.STATE_TIMEOUT;
+
+	final String m_Service;
+	final String m_FromNo;
+	final String m_FromVersion;
+	final int m_FromWeight;
+	final String m_ToNo;
+	final String m_ToVersion;
+	final int m_ToWeight;
+	final int m_Total;
+	final int m_Steps;
+	final int m_Interval;
+	int m_Step;
+	long m_StepTime;
+
+	/**
+	 * 
+	 * @param service
+	 *            微服务名
+	 * @param from
+	 *            转出权重的（旧）规则
+	 * @param to
+	 *            转入权重的（新）规则
+	 * @param total
+	 *            两条规则的权重之和
+	 * @param steps
+	 *            步数
+	 * @param interval
+	 *            每步的间隔（秒）
+	 */
+	public WeightRollout(String service, TrafficTableItem from, TrafficTableItem to, int total, int steps,
+			int interval) {
+		this(service, from.getServiceNo(), from.getServiceVersion(), from.getWeight(), to.getServiceNo(),
+				to.getServiceVersion(), to.getWeight(), total, steps, interval);
+	}
+
+	WeightRollout(String service, String fromNo, String fromVersion, int fromWeight, String toNo, String toVersion,
+			int toWeight, int total, int steps, int interval) {
+		m_Service = service;
+		m_FromNo = fromNo;
+		m_FromVersion = fromVersion;
+		m_FromWeight = fromWeight;
+		m_ToNo = toNo;
+		m_ToVersion = toVersion;
+		m_ToWeight = toWeight;
+		m_Total = total;
+		m_Steps = steps;
+		m_Interval = interval;
+	}
+
+	public String getService() {
+		return m_Service;
+	}
+
+	/** 旧规则原来的权重 */
+	public int getFromWeight() {
+		return m_FromWeight;
+	}
+
+	/** 新规则原来的权重 */
+	public int getToWeight() {
+		return m_ToWeight;
+	}
+
+	public int getSteps() {
+		return m_Steps;
+	}
+
+	/** 每步的间隔（秒） */
+	public int getInterval() {
+		return m_Interval;
+	}
+
+	/** 已执行的步数 */
+	public int getStep() {
+		return m_Step;
+	}
+
+	/** 执行最后一步的时间 */
+	public long getStepTime() {
+		return m_StepTime;
+	}
+
+	public void setStep(int step, long time) {
+		m_Step = step;
+		m_StepTime = time;
+	}
+
+	/**
+	 * 第step步两条规则的权重
+	 * 
+	 * @return {旧规则权重, 新规则权重}
+	 */
+	public int[] getWeights(int step) {
+		if (0 == step) {
+			return new int[] { m_FromWeight, m_ToWeight };
+		}
+		int to = (int) ((long) m_Total * step / m_Steps);
+		return new int[] { m_Total - to, to };
+	}
+
+	/** 旧规则在流量表中的序号，找不到返回-1 */
+	public int indexOfFrom(List<? extends TrafficTableItem> items) {
+		return indexOf(items, m_FromNo, m_FromVersion);
+	}
+
+	/** 新规则在流量表中的序号，找不到返回-1 */
+	public int indexOfTo(List<? extends TrafficTableItem> items) {
+		return indexOf(items, m_ToNo, m_ToVersion);
+	}
+
+	/**
+	 * 使用新规则的实例
+	 * 
+	 * @param items
+	 *            当前的流量表
+	 * @param instances
+	 *            微服务的实例
+	 */
+	public List<ServiceInstance> getCanaries(List<? extends TrafficTableItem> items,
+			List<ServiceInstance> instances) {
+		int to = indexOfTo(items);
+		List<ServiceInstance> result = new ArrayList<ServiceInstance>();
+		for (ServiceInstance s : instances) {
+			if (to >= 0 && TrafficRules.indexOf(items, s.getNo(), s.getVersion()) == to) {
+				result.add(s);
+			}
+		}
+		return result;
+	}
+
+	/** 实例是否处于异常状态 */
+	public static boolean isDegraded(ServiceInstance s) {
+		return 0 != (s.getState() & DEGRADED);
+	}
+
+	/**
+	 * 编号及版本都相同（未指定视为相同）的第一条规则
+	 */
+	static int indexOf(List<? extends TrafficTableItem> items, String no, String version) {
+		for (int i = 0; null != items && i < items.size(); i++) {
+			TrafficTableItem item = items.get(i);
+			if (same(item.getServiceNo(), no) && same(item.getServiceVersion(), version)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	static boolean same(String a, String b) {
+		return TrafficRules.isSpecified(a) ? a.equals(b) : !TrafficRules.isSpecified(b);
+	}
+
+	/**
+	 * 保存进度，先写临时文件再替换，中途退出不会留下不完整的文件
+	 */
+	public void save(File file) throws IOException {
+		Properties prop = new Properties();
+		prop.setProperty("service", m_Service);
+		put(prop, "from.no", m_FromNo);
+		put(prop, "from.version", m_FromVersion);
+		prop.setProperty("from.weight", String.valueOf(m_FromWeight));
+		put(prop, "to.no", m_ToNo);
+		put(prop, "to.version", m_ToVersion);
+		prop.setProperty("to.weight", String.valueOf(m_ToWeight));
+		prop.setProperty("total", String.valueOf(m_Total));
+		prop.setProperty("steps", String.valueOf(m_Steps));
+		prop.setProperty("interval", String.valueOf(m_Interval));
+		prop.setProperty("step", String.valueOf(m_Step));
+		prop.setProperty("step.time", String.valueOf(m_StepTime));
+		File dir = file.getAbsoluteFile().getParentFile();
+		if (!dir.exists() && !dir.mkdirs()) {
+			throw new IOException("无法创建目录：" + dir);
+		}
+		File tmp = new File(dir, file.getName() + ".tmp");
+		OutputStream out = new FileOutputStream(tmp);
+		try {
+			prop.store(out, "rollout of " + m_Service);
+		} finally {
+			out.close();
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * 读取保存的进度
+	 * 
+	 * @return 文件不存在返回null
+	 */
+	public static WeightRollout load(File file) throws IOException {
+		if (!file.exists()) {
+			return null;
+		}
+		Properties prop = new Properties();
+		InputStream in = new FileInputStream(file);
+		try {
+			prop.load(in);
+		} finally {
+			in.close();
+		}
+		String service = prop.getProperty("service");
+		int steps = toInt(prop, "steps");
+		if (null == service || steps <= 0) {
+			throw new IOException("无效的发布进度文件：" + file);
+		}
+		WeightRollout r = new WeightRollout(service, prop.getProperty("from.no"), prop.getProperty("from.version"),
+				toInt(prop, "from.weight"), prop.getProperty("to.no"), prop.getProperty("to.version"),
+				toInt(prop, "to.weight"), toInt(prop, "total"), steps, toInt(prop, "interval"));
+		try {
+			r.setStep(toInt(prop, "step"), Long.parseLong(prop.getProperty("step.time", "0")));
+		} catch (NumberFormatException e) {
+			throw new IOException("无效的发布进度文件：" + file, e);
+		}
+		return r;
+	}
+
+	static void put(Properties prop, String key, String value) {
+		if (TrafficRules.isSpecified(value)) {
+			prop.setProperty(key, value);
+		}
+	}
+
+	static int toInt(Properties prop, String key) throws IOException {
+		try {
+			return Integer.parseInt(prop.getProperty(key, "0"));
+		} catch (NumberFormatException e) {
+			throw new IOException("无效的" + key + "：" + prop.getProperty(key), e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return m_Service + " " + label(m_FromNo, m_FromVersion) + " -> " + label(m_ToNo, m_ToVersion) + " "
+				+ m_Step + "/" + m_Steps;
+	}
+
+	/** 规则的显示名 */
+	public static String label(String no, String version) {
+		return (TrafficRules.isSpecified(no) ? no : "*") + "@" + (TrafficRules.isSpecified(version) ? version : "*");
+	}
+}
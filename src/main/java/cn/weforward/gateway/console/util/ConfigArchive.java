@@ -0,0 +1,206 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.console.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+/**
+ * 网关配置的备份文件。
+ * <p>
+ * gzip压缩的JSON行，每行一个对象，以type区分：首行为header，末行为end并记录项数，其余为配置项。
+ * 写入时逐项输出到临时文件，完成后才替换目标文件；读取时没有end或项数不符视为不完整。
+ * 
+ * @author zhangpengji
+ *
+ */
+public class ConfigArchive {
+
+	/** 文件格式的标识 */
+	public static final String FORMAT = "weforward-gateway-config";
+	/** 文件格式的版本 */
+	public static final int VERSION = 1;
+
+	public static final String TYPE_HEADER = "header";
+	public static final String TYPE_END = "end";
+	/** 访问凭证 */
+	public static final String TYPE_ACCESS = "access";
+	/** 微服务的流量表 */
+	public static final String TYPE_TRAFFIC = "traffic";
+	/** 微服务的权限表 */
+	public static final String TYPE_RIGHT = "right";
+
+	private ConfigArchive() {
+	}
+
+	/**
+	 * 创建配置项
+	 */
+	public static Map<String, Object> entry(String type) {
+		Map<String, Object> entry = new LinkedHashMap<String, Object>();
+		entry.put("type", type);
+		return entry;
+	}
+
+	/**
+	 * 读取全部配置项（不含header及end）
+	 * 
+	 * @throws IOException
+	 *             文件不完整或格式错误时
+	 */
+	public static List<Map<String, Object>> read(File file) throws IOException {
+		List<Map<String, Object>> entries = new ArrayList<Map<String, Object>>();
+		InputStream in = new FileInputStream(file);
+		try {
+			in = new GZIPInputStream(in);
+		} catch (ZipException | EOFException e) {
+			in.close();
+			throw new IOException("不是网关配置的备份文件：" + file, e);
+		}
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+		try {
+			Map<String, Object> header = readEntry(reader);
+			if (null == header || !TYPE_HEADER.equals(header.get("type")) || !FORMAT.equals(header.get("format"))) {
+				throw new IOException("不是网关配置的备份文件：" + file);
+			}
+			Object version = header.get("version");
+			if (!(version instanceof Number) || ((Number) version).intValue() > VERSION) {
+				throw new IOException("不支持的备份文件版本：" + version);
+			}
+			Map<String, Object> entry;
+			while (null != (entry = readEntry(reader))) {
+				if (TYPE_END.equals(entry.get("type"))) {
+					Object count = entry.get("count");
+					if (!(count instanceof Number) || ((Number) count).intValue() != entries.size()) {
+						throw new IOException("备份文件的项数不符：" + count + "/" + entries.size());
+					}
+					return entries;
+				}
+				entries.add(entry);
+			}
+		} catch (EOFException e) {
+			// gzip被截断
+		} finally {
+			reader.close();
+		}
+		throw new IOException("备份文件不完整：" + file);
+	}
+
+	@SuppressWarnings("unchecked")
+	static Map<String, Object> readEntry(BufferedReader reader) throws IOException {
+		String line;
+		do {
+			line = reader.readLine();
+			if (null == line) {
+				return null;
+			}
+		} while (line.trim().isEmpty());
+		Object value;
+		try {
+			value = SimpleJson.parse(line);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("备份文件格式错误：" + e.getMessage(), e);
+		}
+		if (!(value instanceof Map)) {
+			throw new IOException("备份文件格式错误：" + line);
+		}
+		return (Map<String, Object>) value;
+	}
+
+	/**
+	 * 逐项写入备份文件
+	 */
+	public static class Writer implements Closeable {
+		final File m_File;
+		final File m_Temp;
+		final BufferedWriter m_Writer;
+		int m_Count;
+		boolean m_Finished;
+
+		public Writer(File file) throws IOException {
+			m_File = file;
+			File dir = file.getAbsoluteFile().getParentFile();
+			m_Temp = new File(dir, file.getName() + ".tmp");
+			m_Writer = new BufferedWriter(
+					new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(m_Temp), 8192), "UTF-8"));
+			Map<String, Object> header = entry(TYPE_HEADER);
+			header.put("format", FORMAT);
+			header.put("version", VERSION);
+			header.put("time", System.currentTimeMillis());
+			writeLine(header);
+		}
+
+		/**
+		 * 写入一个配置项
+		 */
+		public void write(Map<String, Object> entry) throws IOException {
+			writeLine(entry);
+			m_Count++;
+		}
+
+		/** 已写入的配置项数 */
+		public int getCount() {
+			return m_Count;
+		}
+
+		void writeLine(Map<String, Object> entry) throws IOException {
+			SimpleJson.format(entry, m_Writer);
+			m_Writer.newLine();
+		}
+
+		/**
+		 * 写入end并替换目标文件
+		 */
+		public void finish() throws IOException {
+			Map<String, Object> end = entry(TYPE_END);
+			end.put("count", m_Count);
+			writeLine(end);
+			m_Writer.close();
+			Files.move(m_Temp.toPath(), m_File.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			m_Finished = true;
+		}
+
+		/**
+		 * 未完成时删除临时文件
+		 */
+		@Override
+		public void close() throws IOException {
+			if (m_Finished) {
+				return;
+			}
+			try {
+				m_Writer.close();
+			} finally {
+				if (m_Temp.exists() && !m_Temp.delete()) {
+					m_Temp.deleteOnExit();
+				}
+			}
+		}
+	}
+}
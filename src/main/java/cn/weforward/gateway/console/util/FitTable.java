@@ -78,6 +78,15 @@ public class FitTable {
 	}
 
 	public void print(PrintStream ps) {
+		long begin = System.nanoTime();
+		try {
+			print0(ps);
+		} finally {
+			Metrics.record(Metrics.RENDER, System.nanoTime() - begin);
+		}
+	}
+
+	private void print0(PrintStream ps) {
 		if (0 == m_Cells.size()) {
 			return;
 		}
@@ -22,6 +22,9 @@ import cn.weforward.common.util.StringUtil;
  * <p>
  * 由于中文字符与英文字符的宽度不一定成整数倍关系（取决于显示终端是否为等宽字体）， 所以只能假设一个中文字符等于两个英文字符的宽度，
  * 可以保证在大部分终端显示正常，eclipse控制台显示无法对齐。
+ * <p>
+ * 调用{@linkplain #setStreaming(PrintStream, int)}后为流式输出：以前面若干行确定列宽，之后每完成一行即输出，
+ * 开始输出后列宽及列数不再变化，超出列宽的内容换行显示（换行也放不下的字符截掉），只缓存未输出的行。
  * 
  * @author zhangpengji
  *
@@ -37,6 +40,11 @@ public class FixTable {
 	boolean m_Border;
 	int m_LeftPadding;
 	int m_RightPadding;
+	// 流式输出
+	PrintStream m_Stream;
+	int m_SampleRows;
+	// 已输出的行数
+	int m_PrintedRows;
 
 	public FixTable() {
 		this(false, 0, 4);
@@ -56,6 +64,19 @@ public class FixTable {
 		addCell(value, 0);
 	}
 
+	/**
+	 * 设为流式输出
+	 * 
+	 * @param ps
+	 *            输出流
+	 * @param sampleRows
+	 *            用于确定列宽的行数（含表头），这些行完成后才开始输出
+	 */
+	public void setStreaming(PrintStream ps, int sampleRows) {
+		m_Stream = ps;
+		m_SampleRows = Math.max(1, sampleRows);
+	}
+
 	public void addCell(String value, int maxStretchWidth) {
 		List<Cell> row;
 		if (m_Cells.size() == m_RowIndex) {
@@ -65,10 +86,25 @@ public class FixTable {
 			row = m_Cells.get(m_RowIndex);
 		}
 		Cell cell = Cell.valueOf(value, maxStretchWidth);
+		if (m_PrintedRows > 0) {
+			// 列宽已确定（已有输出），超出的按列宽换行，仍放不下的截掉
+			if (m_ColWidths.size() <= row.size()) {
+				throw new IllegalStateException("已开始输出，不能再增加列");
+			}
+			int colWidth = m_ColWidths.get(row.size());
+			if (cell.getWidth() > colWidth) {
+				cell = Cell.valueOf(value, colWidth);
+				if (cell.getWidth() > colWidth) {
+					cell = cell.truncate(colWidth);
+				}
+			}
+		}
 		row.add(cell);
 
 		// 更新列宽度
-		if (m_ColWidths.size() < row.size()) {
+		if (m_PrintedRows > 0) {
+			// 列宽已固定
+		} else if (m_ColWidths.size() < row.size()) {
 			m_ColWidths.add(cell.getWidth());
 		} else {
 			int wight = m_ColWidths.get(row.size() - 1);
@@ -92,9 +128,42 @@ public class FixTable {
 			throw new IllegalStateException("不允许空行");
 		}
 		m_RowIndex++;
+		if (null != m_Stream && m_PrintedRows + m_RowIndex >= m_SampleRows) {
+			long begin = System.nanoTime();
+			try {
+				if (0 == m_PrintedRows) {
+					freezeColWidths();
+				}
+				printRows(m_Stream, m_RowIndex);
+				m_Stream.flush();
+			} finally {
+				Metrics.record(Metrics.RENDER, System.nanoTime() - begin);
+			}
+		}
 	}
 
+	/**
+	 * 输出表格。流式输出时，输出余下的行及表格底边
+	 * 
+	 * @param ps
+	 */
 	public void print(PrintStream ps) {
+		long begin = System.nanoTime();
+		try {
+			if (null != m_Stream) {
+				printRows(ps, m_Cells.size());
+				if (m_PrintedRows > 0) {
+					printHorizontalBorder(ps, 3);
+				}
+			} else {
+				print0(ps);
+			}
+		} finally {
+			Metrics.record(Metrics.RENDER, System.nanoTime() - begin);
+		}
+	}
+
+	private void print0(PrintStream ps) {
 		if (0 == m_Cells.size()) {
 			return;
 		}
@@ -103,27 +172,54 @@ public class FixTable {
 			if (ri > 0) {
 				printHorizontalBorder(ps, 2);
 			}
-			List<Cell> row = m_Cells.get(ri);
-			int height = m_RowHeights.get(ri);
-			for (int hi = 0; hi < height; hi++) {
-				if (hi > 0) {
-					ps.println();
-				}
-				for (int ci = 0; ci < row.size(); ci++) {
-					printVerticalBorder(ps);
-					printLeftPadding(ps);
+			printRow(ps, m_Cells.get(ri), m_RowHeights.get(ri));
+		}
+		printHorizontalBorder(ps, 3);
+	}
 
-					Cell cell = row.get(ci);
-					String value = stretch(cell.getLine(hi), cell.getLineWidth(hi), m_ColWidths.get(ci));
-					ps.print(value);
+	/**
+	 * 开始流式输出前固定列宽，宽度至少为1，之后超出的内容才能换行
+	 */
+	private void freezeColWidths() {
+		for (int i = 0; i < m_ColWidths.size(); i++) {
+			if (m_ColWidths.get(i) < 1) {
+				m_ColWidths.set(i, 1);
+			}
+		}
+	}
 
-					printRightPadding(ps);
-				}
+	/**
+	 * 输出并丢弃前count行
+	 */
+	private void printRows(PrintStream ps, int count) {
+		for (int ri = 0; ri < count; ri++) {
+			printHorizontalBorder(ps, (0 == m_PrintedRows) ? 1 : 2);
+			printRow(ps, m_Cells.get(ri), m_RowHeights.get(ri));
+			m_PrintedRows++;
+		}
+		m_Cells.subList(0, count).clear();
+		m_RowHeights.subList(0, count).clear();
+		m_RowIndex = Math.max(0, m_RowIndex - count);
+	}
+
+	private void printRow(PrintStream ps, List<Cell> row, int height) {
+		for (int hi = 0; hi < height; hi++) {
+			if (hi > 0) {
+				ps.println();
+			}
+			for (int ci = 0; ci < row.size(); ci++) {
 				printVerticalBorder(ps);
+				printLeftPadding(ps);
+
+				Cell cell = row.get(ci);
+				String value = stretch(cell.getLine(hi), cell.getLineWidth(hi), m_ColWidths.get(ci));
+				ps.print(value);
+
+				printRightPadding(ps);
 			}
-			ps.println();
+			printVerticalBorder(ps);
 		}
-		printHorizontalBorder(ps, 3);
+		ps.println();
 	}
 
 	private void printLeftPadding(PrintStream ps) {
@@ -203,7 +299,7 @@ public class FixTable {
 		return sb.toString();
 	}
 
-	private static class Cell {
+	static class Cell {
 
 		List<String> m_Lines;
 		List<Integer> m_LineWigths;
@@ -226,7 +322,8 @@ public class FixTable {
 				if (i == value.length()) {
 					// 末尾以'\n'表示
 					ch = '\n';
-				} else if (maxStretchWidth > 0 && lineWigth >= maxStretchWidth) {
+				} else if (maxStretchWidth > 0 && (lineWigth >= maxStretchWidth
+						|| (lineWigth > 0 && lineWigth + 2 > maxStretchWidth && isWide(value.charAt(i))))) {
 					// 超过最大拉伸宽度，强行换行
 					ch = '\n';
 					forceLine = true;
@@ -265,7 +362,7 @@ public class FixTable {
 						}
 						forceLine = false;
 					}
-				} else if ((ch > 0x0100 && ch <= 0xD7AF) || (ch > 0xF900 && ch <= 0xFFFF)) {
+				} else if (isWide(ch)) {
 					// 中日韩等字符占两个宽度
 					lineWigth += 2;
 				} else {
@@ -283,6 +380,57 @@ public class FixTable {
 			m_MaxWidth = maxWidth;
 		}
 
+		Cell(List<String> lines, List<Integer> lineWidths, int maxWidth) {
+			m_Lines = lines;
+			m_LineWigths = lineWidths;
+			m_MaxWidth = maxWidth;
+		}
+
+		/**
+		 * 截掉每行超出宽度的字符（如宽度为1的列中的中文字符）
+		 * 
+		 * @param width
+		 * @return
+		 */
+		Cell truncate(int width) {
+			List<String> lines = new ArrayList<String>(m_Lines.size());
+			List<Integer> lineWidths = new ArrayList<Integer>(m_Lines.size());
+			int maxWidth = 0;
+			for (int li = 0; li < m_Lines.size(); li++) {
+				String line = m_Lines.get(li);
+				int lineWidth = m_LineWigths.get(li);
+				if (lineWidth > width) {
+					lineWidth = 0;
+					int i = 0;
+					for (; i < line.length(); i++) {
+						int w = getCharWidth(line.charAt(i));
+						if (lineWidth + w > width) {
+							break;
+						}
+						lineWidth += w;
+					}
+					line = line.substring(0, i);
+				}
+				lines.add(line);
+				lineWidths.add(lineWidth);
+				if (lineWidth > maxWidth) {
+					maxWidth = lineWidth;
+				}
+			}
+			return new Cell(lines, lineWidths, maxWidth);
+		}
+
+		static int getCharWidth(char ch) {
+			if ((ch >= 0 && ch <= 31) || 127 == ch) {
+				return ('\t' == ch) ? 1 : 0;
+			}
+			return isWide(ch) ? 2 : 1;
+		}
+
+		static boolean isWide(char ch) {
+			return (ch > 0x0100 && ch <= 0xD7AF) || (ch > 0xF900 && ch <= 0xFFFF);
+		}
+
 		static Cell valueOf(String value, int maxStretchWidth) {
 			if (StringUtil.isEmpty(value)) {
 				return EMPTY_CELL;
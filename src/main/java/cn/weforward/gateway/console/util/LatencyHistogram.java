@@ -0,0 +1,144 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.console.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 耗时分布统计（线程安全）。
+ * <p>
+ * 以微秒为单位按对数分桶，每个2的幂区间再细分为8个桶，相对误差不超过12.5%；
+ * 记录时为几次原子更新（桶、次数、总和及最大值），没有锁。
+ * 
+ * @author zhangpengji
+ *
+ */
+public class LatencyHistogram {
+
+	/** 每个2的幂区间细分的位数 */
+	static final int SUB_BITS = 3;
+	static final int SUB_COUNT = 1 << SUB_BITS;
+	static final int BUCKETS = ((63 - SUB_BITS) << SUB_BITS) + SUB_COUNT;
+
+	final AtomicLongArray m_Buckets;
+	final AtomicLong m_Count;
+	final AtomicLong m_Sum;
+	final AtomicLong m_Max;
+
+	public LatencyHistogram() {
+		m_Buckets = new AtomicLongArray(BUCKETS);
+		m_Count = new AtomicLong();
+		m_Sum = new AtomicLong();
+		m_Max = new AtomicLong();
+	}
+
+	/**
+	 * 记录一次耗时
+	 * 
+	 * @param nanos
+	 *            耗时（纳秒）
+	 */
+	public void record(long nanos) {
+		long micros = nanos / 1000;
+		if (micros < 0) {
+			micros = 0;
+		}
+		m_Buckets.incrementAndGet(indexOf(micros));
+		m_Count.incrementAndGet();
+		m_Sum.addAndGet(micros);
+		long max = m_Max.get();
+		while (micros > max && !m_Max.compareAndSet(max, micros)) {
+			max = m_Max.get();
+		}
+	}
+
+	/** 次数 */
+	public long getCount() {
+		return m_Count.get();
+	}
+
+	/** 总耗时（微秒） */
+	public long getSum() {
+		return m_Sum.get();
+	}
+
+	/** 最大耗时（微秒） */
+	public long getMax() {
+		return m_Max.get();
+	}
+
+	/** 平均耗时（微秒） */
+	public long getMean() {
+		long count = m_Count.get();
+		return (0 == count) ? 0 : m_Sum.get() / count;
+	}
+
+	/**
+	 * 百分位耗时
+	 * 
+	 * @param percent
+	 *            百分位，如：99表示p99
+	 * @return 微秒，取所在桶的上界（不超过最大值）
+	 */
+	public long getPercentile(double percent) {
+		long count = m_Count.get();
+		if (0 == count) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(count * percent / 100);
+		if (rank < 1) {
+			rank = 1;
+		}
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += m_Buckets.get(i);
+			if (seen >= rank) {
+				return Math.min(upperBound(i), m_Max.get());
+			}
+		}
+		return m_Max.get();
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			m_Buckets.set(i, 0);
+		}
+		m_Count.set(0);
+		m_Sum.set(0);
+		m_Max.set(0);
+	}
+
+	static int indexOf(long micros) {
+		if (micros < SUB_COUNT) {
+			return (int) micros;
+		}
+		int exp = 63 - Long.numberOfLeadingZeros(micros);
+		int sub = (int) (micros >>> (exp - SUB_BITS)) & (SUB_COUNT - 1);
+		return ((exp - SUB_BITS + 1) << SUB_BITS) + sub;
+	}
+
+	static long lowerBound(int index) {
+		if (index < SUB_COUNT) {
+			return index;
+		}
+		int exp = (index >> SUB_BITS) + SUB_BITS - 1;
+		int sub = index & (SUB_COUNT - 1);
+		return ((long) (SUB_COUNT + sub)) << (exp - SUB_BITS);
+	}
+
+	static long upperBound(int index) {
+		if (index + 1 >= BUCKETS) {
+			return Long.MAX_VALUE;
+		}
+		return lowerBound(index + 1) - 1;
+	}
+}
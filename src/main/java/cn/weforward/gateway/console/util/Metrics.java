@@ -0,0 +1,133 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.console.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本次会话（进程）内各环节的耗时统计及计数
+ * 
+ * @author zhangpengji
+ *
+ */
+public class Metrics {
+
+	/** keeper调用的前缀，后接方法名 */
+	public static final String KEEPER_PREFIX = "keeper.";
+	/** 表格渲染 */
+	public static final String RENDER = "render";
+	/** 命令参数解析 */
+	public static final String PARSE = "parse";
+	/** 获取keeper */
+	public static final String GET_KEEPER = "getKeeper";
+	/** 分页数据集翻页 */
+	public static final String GOTO_PAGE = "gotoPage";
+	/** 在本地的微服务注册表缓存中查询 */
+	public static final String CACHE_SEARCH = "cache.search";
+	/** keeper响应在网络上传输的字节数 */
+	public static final String WIRE_BYTES = "transfer.wire";
+	/** keeper响应解压后的字节数 */
+	public static final String DECODED_BYTES = "transfer.decoded";
+	/** 发给keeper的请求在网络上传输的字节数 */
+	public static final String REQUEST_WIRE_BYTES = "transfer.request.wire";
+	/** 发给keeper的请求压缩前的字节数 */
+	public static final String REQUEST_BYTES = "transfer.request";
+
+	static final ConcurrentMap<String, LatencyHistogram> _Histograms = new ConcurrentHashMap<String, LatencyHistogram>();
+	static final ConcurrentMap<String, AtomicLong> _Counters = new ConcurrentHashMap<String, AtomicLong>();
+
+	private Metrics() {
+	}
+
+	/**
+	 * 记录一次耗时
+	 * 
+	 * @param name
+	 *            环节
+	 * @param nanos
+	 *            耗时（纳秒）
+	 */
+	public static void record(String name, long nanos) {
+		get(name).record(nanos);
+		Trace trace = Trace.current();
+		if (null != trace) {
+			trace.add(name, System.nanoTime() - nanos, nanos);
+		}
+	}
+
+	/**
+	 * 获取（或创建）环节的统计
+	 * 
+	 * @param name
+	 * @return
+	 */
+	public static LatencyHistogram get(String name) {
+		LatencyHistogram h = _Histograms.get(name);
+		if (null == h) {
+			h = new LatencyHistogram();
+			LatencyHistogram old = _Histograms.putIfAbsent(name, h);
+			if (null != old) {
+				h = old;
+			}
+		}
+		return h;
+	}
+
+	/**
+	 * 已有统计的环节，按名称排序
+	 * 
+	 * @return
+	 */
+	public static List<String> names() {
+		List<String> names = new ArrayList<String>(_Histograms.keySet());
+		Collections.sort(names);
+		return names;
+	}
+
+	/**
+	 * 累加计数
+	 * 
+	 * @param name
+	 * @param delta
+	 */
+	public static void count(String name, long delta) {
+		AtomicLong counter = _Counters.get(name);
+		if (null == counter) {
+			counter = new AtomicLong();
+			AtomicLong old = _Counters.putIfAbsent(name, counter);
+			if (null != old) {
+				counter = old;
+			}
+		}
+		counter.addAndGet(delta);
+	}
+
+	/**
+	 * 获取计数
+	 * 
+	 * @param name
+	 * @return 没有计数时返回0
+	 */
+	public static long getCount(String name) {
+		AtomicLong counter = _Counters.get(name);
+		return (null == counter) ? 0 : counter.get();
+	}
+
+	public static void reset() {
+		_Histograms.clear();
+		_Counters.clear();
+	}
+}
@@ -0,0 +1,209 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.console.util;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.Date;
+
+import cn.weforward.gateway.console.exception.CommonException;
+
+/**
+ * 以机器可读的格式逐条输出记录（不经过表格渲染）。
+ * <p>
+ * 支持的格式：
+ * <ul>
+ * <li>jsonl：每行一个JSON对象，键为字段名</li>
+ * <li>csv：首行为字段名，按RFC 4180转义</li>
+ * <li>tsv：首行为字段名，值中的\t、\n、\r及\以反斜杠转义</li>
+ * </ul>
+ * 时间输出为毫秒数，集合在jsonl中为数组，在csv/tsv中以空格连接，总以UTF-8编码。
+ * 
+ * @author zhangpengji
+ *
+ */
+public class RecordWriter {
+
+	public static final String FORMAT_JSONL = "jsonl";
+	public static final String FORMAT_CSV = "csv";
+	public static final String FORMAT_TSV = "tsv";
+	static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	final String m_Format;
+	final String[] m_Fields;
+	final Writer m_Writer;
+	final StringBuilder m_Buffer;
+
+	/**
+	 * 构造
+	 * 
+	 * @param format
+	 *            格式，见{@linkplain #isFormat(String)}
+	 * @param out
+	 *            输出流（不会被关闭）
+	 * @param fields
+	 *            字段名
+	 */
+	public RecordWriter(String format, OutputStream out, String... fields) {
+		if (!isFormat(format)) {
+			throw new IllegalArgumentException("不支持的格式：" + format);
+		}
+		m_Format = format;
+		m_Fields = fields;
+		m_Writer = new BufferedWriter(new OutputStreamWriter(out, UTF_8), 8192);
+		m_Buffer = new StringBuilder(256);
+		if (!FORMAT_JSONL.equals(format)) {
+			writeLine(fields);
+		}
+	}
+
+	/**
+	 * 是否为支持的格式
+	 * 
+	 * @param format
+	 * @return
+	 */
+	public static boolean isFormat(String format) {
+		return FORMAT_JSONL.equals(format) || FORMAT_CSV.equals(format) || FORMAT_TSV.equals(format);
+	}
+
+	/**
+	 * 输出一条记录
+	 * 
+	 * @param values
+	 *            与字段名一一对应的值
+	 */
+	public void write(Object... values) {
+		if (FORMAT_JSONL.equals(m_Format)) {
+			StringBuilder sb = m_Buffer;
+			sb.setLength(0);
+			sb.append('{');
+			try {
+				for (int i = 0; i < m_Fields.length; i++) {
+					if (i > 0) {
+						sb.append(',');
+					}
+					SimpleJson.quote(m_Fields[i], sb);
+					sb.append(':');
+					SimpleJson.format(i < values.length ? values[i] : null, sb);
+				}
+			} catch (IOException e) {
+				// StringBuilder不会抛出
+				throw new IllegalStateException(e);
+			}
+			sb.append('}');
+			append(sb);
+		} else {
+			writeLine(values);
+		}
+	}
+
+	/**
+	 * 刷新缓冲（不关闭输出流）
+	 */
+	public void flush() {
+		try {
+			m_Writer.flush();
+		} catch (IOException e) {
+			throw new CommonException("输出失败", e);
+		}
+	}
+
+	private void writeLine(Object[] values) {
+		StringBuilder sb = m_Buffer;
+		sb.setLength(0);
+		char separator = FORMAT_CSV.equals(m_Format) ? ',' : '\t';
+		for (int i = 0; i < m_Fields.length; i++) {
+			if (i > 0) {
+				sb.append(separator);
+			}
+			String value = toText(i < values.length ? values[i] : null);
+			if (FORMAT_CSV.equals(m_Format)) {
+				escapeCsv(value, sb);
+			} else {
+				escapeTsv(value, sb);
+			}
+		}
+		append(sb);
+	}
+
+	private void append(StringBuilder line) {
+		try {
+			m_Writer.append(line);
+			m_Writer.write('\n');
+		} catch (IOException e) {
+			throw new CommonException("输出失败", e);
+		}
+	}
+
+	static String toText(Object value) {
+		if (null == value) {
+			return "";
+		}
+		if (value instanceof Date) {
+			return String.valueOf(((Date) value).getTime());
+		}
+		if (value instanceof Collection) {
+			StringBuilder sb = new StringBuilder();
+			for (Object v : (Collection<?>) value) {
+				if (sb.length() > 0) {
+					sb.append(' ');
+				}
+				sb.append(toText(v));
+			}
+			return sb.toString();
+		}
+		return value.toString();
+	}
+
+	static void escapeCsv(String value, StringBuilder sb) {
+		boolean quote = false;
+		for (int i = 0; i < value.length() && !quote; i++) {
+			char ch = value.charAt(i);
+			quote = (',' == ch || '"' == ch || '\n' == ch || '\r' == ch);
+		}
+		if (!quote) {
+			sb.append(value);
+			return;
+		}
+		sb.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char ch = value.charAt(i);
+			if ('"' == ch) {
+				sb.append('"');
+			}
+			sb.append(ch);
+		}
+		sb.append('"');
+	}
+
+	static void escapeTsv(String value, StringBuilder sb) {
+		for (int i = 0; i < value.length(); i++) {
+			char ch = value.charAt(i);
+			if ('\t' == ch) {
+				sb.append("\\t");
+			} else if ('\n' == ch) {
+				sb.append("\\n");
+			} else if ('\r' == ch) {
+				sb.append("\\r");
+			} else if ('\\' == ch) {
+				sb.append("\\\\");
+			} else {
+				sb.append(ch);
+			}
+		}
+	}
+}
@@ -0,0 +1,330 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.console.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 简单的JSON解析及输出。
+ * <p>
+ * 解析结果：对象为Map，数组为List，数值为Long或Double，其余为String、Boolean、null。
+ * 
+ * @author zhangpengji
+ *
+ */
+public class SimpleJson {
+
+	final CharSequence m_Source;
+	int m_Pos;
+
+	SimpleJson(CharSequence source) {
+		m_Source = source;
+	}
+
+	/**
+	 * 解析JSON
+	 * 
+	 * @param json
+	 * @return
+	 * @throws IllegalArgumentException
+	 *             格式错误时
+	 */
+	public static Object parse(CharSequence json) {
+		SimpleJson parser = new SimpleJson(json);
+		Object value = parser.readValue();
+		parser.skipBlank();
+		if (parser.m_Pos < json.length()) {
+			throw parser.error("多余的内容");
+		}
+		return value;
+	}
+
+	/**
+	 * 输出值，支持Map、Collection、数组、Number、Boolean、Date（毫秒数）及字符串
+	 * 
+	 * @param value
+	 * @param out
+	 * @throws IOException
+	 */
+	public static void format(Object value, Appendable out) throws IOException {
+		if (null == value) {
+			out.append("null");
+		} else if (value instanceof Map) {
+			out.append('{');
+			boolean first = true;
+			for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+				if (!first) {
+					out.append(',');
+				}
+				first = false;
+				quote(String.valueOf(e.getKey()), out);
+				out.append(':');
+				format(e.getValue(), out);
+			}
+			out.append('}');
+		} else if (value instanceof Collection) {
+			out.append('[');
+			boolean first = true;
+			for (Object v : (Collection<?>) value) {
+				if (!first) {
+					out.append(',');
+				}
+				first = false;
+				format(v, out);
+			}
+			out.append(']');
+		} else if (value instanceof Object[]) {
+			out.append('[');
+			Object[] arr = (Object[]) value;
+			for (int i = 0; i < arr.length; i++) {
+				if (i > 0) {
+					out.append(',');
+				}
+				format(arr[i], out);
+			}
+			out.append(']');
+		} else if (value instanceof Number || value instanceof Boolean) {
+			out.append(value.toString());
+		} else if (value instanceof Date) {
+			out.append(String.valueOf(((Date) value).getTime()));
+		} else {
+			quote(value.toString(), out);
+		}
+	}
+
+	public static String toString(Object value) {
+		StringBuilder sb = new StringBuilder();
+		try {
+			format(value, sb);
+		} catch (IOException e) {
+			// StringBuilder不会出现
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * 输出带引号及转义的字符串
+	 * 
+	 * @param str
+	 * @param out
+	 * @throws IOException
+	 */
+	public static void quote(String str, Appendable out) throws IOException {
+		out.append('"');
+		for (int i = 0; i < str.length(); i++) {
+			char ch = str.charAt(i);
+			switch (ch) {
+			case '"':
+				out.append("\\\"");
+				break;
+			case '\\':
+				out.append("\\\\");
+				break;
+			case '\n':
+				out.append("\\n");
+				break;
+			case '\r':
+				out.append("\\r");
+				break;
+			case '\t':
+				out.append("\\t");
+				break;
+			default:
+				if (ch < 0x20) {
+					out.append(String.format("\\u%04x", (int) ch));
+				} else {
+					out.append(ch);
+				}
+			}
+		}
+		out.append('"');
+	}
+
+	Object readValue() {
+		skipBlank();
+		if (m_Pos >= m_Source.length()) {
+			throw error("内容不完整");
+		}
+		char ch = m_Source.charAt(m_Pos);
+		switch (ch) {
+		case '{':
+			return readObject();
+		case '[':
+			return readArray();
+		case '"':
+			return readString();
+		case 't':
+			expect("true");
+			return Boolean.TRUE;
+		case 'f':
+			expect("false");
+			return Boolean.FALSE;
+		case 'n':
+			expect("null");
+			return null;
+		default:
+			return readNumber();
+		}
+	}
+
+	Map<String, Object> readObject() {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		m_Pos++;
+		skipBlank();
+		if (peek('}')) {
+			m_Pos++;
+			return map;
+		}
+		while (true) {
+			skipBlank();
+			String key = readString();
+			skipBlank();
+			if (!peek(':')) {
+				throw error("缺少':'");
+			}
+			m_Pos++;
+			map.put(key, readValue());
+			skipBlank();
+			if (peek(',')) {
+				m_Pos++;
+			} else if (peek('}')) {
+				m_Pos++;
+				return map;
+			} else {
+				throw error("缺少','或'}'");
+			}
+		}
+	}
+
+	List<Object> readArray() {
+		List<Object> list = new ArrayList<Object>();
+		m_Pos++;
+		skipBlank();
+		if (peek(']')) {
+			m_Pos++;
+			return list;
+		}
+		while (true) {
+			list.add(readValue());
+			skipBlank();
+			if (peek(',')) {
+				m_Pos++;
+			} else if (peek(']')) {
+				m_Pos++;
+				return list;
+			} else {
+				throw error("缺少','或']'");
+			}
+		}
+	}
+
+	String readString() {
+		if (!peek('"')) {
+			throw error("缺少'\"'");
+		}
+		m_Pos++;
+		StringBuilder sb = new StringBuilder();
+		while (m_Pos < m_Source.length()) {
+			char ch = m_Source.charAt(m_Pos++);
+			if ('"' == ch) {
+				return sb.toString();
+			}
+			if ('\\' != ch) {
+				sb.append(ch);
+				continue;
+			}
+			if (m_Pos >= m_Source.length()) {
+				break;
+			}
+			ch = m_Source.charAt(m_Pos++);
+			switch (ch) {
+			case 'n':
+				sb.append('\n');
+				break;
+			case 'r':
+				sb.append('\r');
+				break;
+			case 't':
+				sb.append('\t');
+				break;
+			case 'b':
+				sb.append('\b');
+				break;
+			case 'f':
+				sb.append('\f');
+				break;
+			case 'u':
+				if (m_Pos + 4 > m_Source.length()) {
+					throw error("无效的转义");
+				}
+				sb.append((char) Integer.parseInt(m_Source.subSequence(m_Pos, m_Pos + 4).toString(), 16));
+				m_Pos += 4;
+				break;
+			default:
+				sb.append(ch);
+			}
+		}
+		throw error("字符串未结束");
+	}
+
+	Number readNumber() {
+		int begin = m_Pos;
+		boolean decimal = false;
+		while (m_Pos < m_Source.length()) {
+			char ch = m_Source.charAt(m_Pos);
+			if ((ch >= '0' && ch <= '9') || '-' == ch || '+' == ch) {
+				m_Pos++;
+			} else if ('.' == ch || 'e' == ch || 'E' == ch) {
+				decimal = true;
+				m_Pos++;
+			} else {
+				break;
+			}
+		}
+		if (begin == m_Pos) {
+			throw error("无效的字符");
+		}
+		String str = m_Source.subSequence(begin, m_Pos).toString();
+		try {
+			return decimal ? (Number) Double.valueOf(str) : (Number) Long.valueOf(str);
+		} catch (NumberFormatException e) {
+			throw error("无效的数值：" + str);
+		}
+	}
+
+	void expect(String word) {
+		if (m_Pos + word.length() > m_Source.length()
+				|| !word.equals(m_Source.subSequence(m_Pos, m_Pos + word.length()).toString())) {
+			throw error("无效的字符");
+		}
+		m_Pos += word.length();
+	}
+
+	boolean peek(char ch) {
+		return m_Pos < m_Source.length() && ch == m_Source.charAt(m_Pos);
+	}
+
+	void skipBlank() {
+		while (m_Pos < m_Source.length() && Character.isWhitespace(m_Source.charAt(m_Pos))) {
+			m_Pos++;
+		}
+	}
+
+	IllegalArgumentException error(String msg) {
+		return new IllegalArgumentException(msg + "，位置：" + m_Pos);
+	}
+}
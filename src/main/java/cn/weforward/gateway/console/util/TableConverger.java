@@ -0,0 +1,296 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.console.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 计算把表（如流量表、权限表）从现状变为目标所需的最少编辑。
+ * <p>
+ * 与目标项相同的现有项保留，多出的现有项与缺少的目标项按顺序配对替换，剩下的删除或插入；保留及替换的项中，只移动不在最长递增子序列中的。
+ * 编辑按删除、替换、移动、插入的顺序执行，序号都是执行该编辑时表中的序号，移动为先取出再插入到目标序号。
+ * 
+ * @author zhangpengji
+ *
+ * @param <E>
+ */
+public class TableConverger<E> {
+
+	/** 编辑：插入 */
+	public static final int INSERT = 1;
+	/** 编辑：移动 */
+	public static final int MOVE = 2;
+	/** 编辑：替换 */
+	public static final int REPLACE = 3;
+	/** 编辑：删除 */
+	public static final int REMOVE = 4;
+
+	final Equality<E> m_Equality;
+	final Describer<E> m_Describer;
+
+	public TableConverger(Equality<E> equality) {
+		this(equality, null);
+	}
+
+	/**
+	 * 构造
+	 * 
+	 * @param equality
+	 * @param describer
+	 *            编辑的描述中如何显示项，为null时只显示序号
+	 */
+	public TableConverger(Equality<E> equality, Describer<E> describer) {
+		m_Equality = equality;
+		m_Describer = describer;
+	}
+
+	/**
+	 * 计算编辑
+	 * 
+	 * @param current
+	 *            现状
+	 * @param desired
+	 *            目标
+	 * @return 按顺序执行的编辑，没有差异时为空
+	 */
+	public List<Edit<E>> plan(List<? extends E> current, List<? extends E> desired) {
+		int n = current.size();
+		int m = desired.size();
+		// 目标项对应的现有项，-1表示没有
+		int[] source = new int[m];
+		boolean[] used = new boolean[n];
+		Arrays.fill(source, -1);
+		for (int d = 0; d < m; d++) {
+			for (int c = 0; c < n; c++) {
+				if (!used[c] && m_Equality.equals(current.get(c), desired.get(d))) {
+					source[d] = c;
+					used[c] = true;
+					break;
+				}
+			}
+		}
+		// 按顺序配对替换
+		boolean[] replaced = new boolean[m];
+		int c = 0;
+		for (int d = 0; d < m; d++) {
+			if (-1 != source[d]) {
+				continue;
+			}
+			while (c < n && used[c]) {
+				c++;
+			}
+			if (c >= n) {
+				break;
+			}
+			source[d] = c;
+			used[c] = true;
+			replaced[d] = true;
+		}
+
+		List<Edit<E>> edits = new ArrayList<Edit<E>>();
+		// 模拟执行，表中的值为现有项的序号
+		List<Integer> working = new ArrayList<Integer>(n);
+		for (int i = 0; i < n; i++) {
+			working.add(i);
+		}
+		for (int i = n - 1; i >= 0; i--) {
+			if (!used[i]) {
+				working.remove(i);
+				edits.add(new Edit<E>(REMOVE, i, -1, null, current.get(i), m_Describer));
+			}
+		}
+		for (int d = 0; d < m; d++) {
+			if (replaced[d]) {
+				edits.add(new Edit<E>(REPLACE, working.indexOf(source[d]), -1, desired.get(d), current.get(source[d]),
+						m_Describer));
+			}
+		}
+		// 保留及替换的项按目标的顺序排列，不在最长递增子序列中的要移动
+		int[] kept = new int[m];
+		int k = 0;
+		for (int d = 0; d < m; d++) {
+			if (-1 != source[d]) {
+				kept[k++] = source[d];
+			}
+		}
+		boolean[] stable = longestIncreasing(kept, k);
+		for (int i = 0; i < k; i++) {
+			if (stable[i]) {
+				continue;
+			}
+			int from = working.indexOf(kept[i]);
+			working.remove(from);
+			int to = (0 == i) ? 0 : working.indexOf(kept[i - 1]) + 1;
+			working.add(to, kept[i]);
+			if (from != to) {
+				edits.add(new Edit<E>(MOVE, from, to, null, null, m_Describer));
+			}
+		}
+		for (int d = 0; d < m; d++) {
+			if (-1 == source[d]) {
+				edits.add(new Edit<E>(INSERT, d, -1, desired.get(d), null, m_Describer));
+			}
+		}
+		return edits;
+	}
+
+	/**
+	 * 标出最长递增子序列
+	 */
+	static boolean[] longestIncreasing(int[] values, int size) {
+		// tails[len]：长为len+1的递增子序列中，末项最小者的位置
+		int[] tails = new int[size];
+		int[] prev = new int[size];
+		int len = 0;
+		for (int i = 0; i < size; i++) {
+			int lo = 0;
+			int hi = len;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (values[tails[mid]] < values[i]) {
+					lo = mid + 1;
+				} else {
+					hi = mid;
+				}
+			}
+			prev[i] = (lo > 0) ? tails[lo - 1] : -1;
+			tails[lo] = i;
+			if (lo == len) {
+				len++;
+			}
+		}
+		boolean[] marks = new boolean[size];
+		for (int i = (len > 0) ? tails[len - 1] : -1; i >= 0; i = prev[i]) {
+			marks[i] = true;
+		}
+		return marks;
+	}
+
+	/**
+	 * 执行编辑
+	 * 
+	 * @param edits
+	 * @param editor
+	 */
+	public static <E> void apply(List<Edit<E>> edits, Editor<E> editor) {
+		for (Edit<E> e : edits) {
+			switch (e.getKind()) {
+			case INSERT:
+				editor.insert(e.getIndex(), e.getItem());
+				break;
+			case MOVE:
+				editor.move(e.getIndex(), e.getTo());
+				break;
+			case REPLACE:
+				editor.replace(e.getIndex(), e.getItem(), e.getTarget());
+				break;
+			case REMOVE:
+				editor.remove(e.getIndex(), e.getTarget());
+				break;
+			}
+		}
+	}
+
+	/**
+	 * 判断两项是否相同
+	 */
+	public interface Equality<E> {
+		boolean equals(E a, E b);
+	}
+
+	/**
+	 * 描述一项，用于显示编辑
+	 */
+	public interface Describer<E> {
+		String describe(E item);
+	}
+
+	/**
+	 * 执行编辑，替换、删除时传入计划时该序号上的项，用于让keeper拒绝过时的修改
+	 */
+	public interface Editor<E> {
+		void insert(int index, E item);
+
+		void move(int from, int to);
+
+		void replace(int index, E item, E target);
+
+		void remove(int index, E target);
+	}
+
+	/**
+	 * 一项编辑
+	 */
+	public static class Edit<E> {
+		final int m_Kind;
+		final int m_Index;
+		final int m_To;
+		final E m_Item;
+		final E m_Target;
+		final Describer<E> m_Describer;
+
+		Edit(int kind, int index, int to, E item, E target, Describer<E> describer) {
+			m_Kind = kind;
+			m_Index = index;
+			m_To = to;
+			m_Item = item;
+			m_Target = target;
+			m_Describer = describer;
+		}
+
+		public int getKind() {
+			return m_Kind;
+		}
+
+		/** 插入、替换、删除的序号，或移动的当前序号 */
+		public int getIndex() {
+			return m_Index;
+		}
+
+		/** 移动的目标序号 */
+		public int getTo() {
+			return m_To;
+		}
+
+		/** 插入或替换的项 */
+		public E getItem() {
+			return m_Item;
+		}
+
+		/** 被替换或删除的（计划时的）现有项 */
+		public E getTarget() {
+			return m_Target;
+		}
+
+		String describe(E item) {
+			return (null == m_Describer) ? "" : "：" + m_Describer.describe(item);
+		}
+
+		@Override
+		public String toString() {
+			switch (m_Kind) {
+			case INSERT:
+				return "插入 " + m_Index + describe(m_Item);
+			case MOVE:
+				return "移动 " + m_Index + " -> " + m_To;
+			case REPLACE:
+				return "替换 " + m_Index + describe(m_Item)
+						+ ((null == m_Describer) ? "" : "（原" + m_Describer.describe(m_Target) + "）");
+			case REMOVE:
+				return "删除 " + m_Index + describe(m_Target);
+			default:
+				return String.valueOf(m_Kind);
+			}
+		}
+	}
+}
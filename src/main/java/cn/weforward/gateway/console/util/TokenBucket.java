@@ -0,0 +1,62 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.console.util;
+
+/**
+ * 令牌桶，限制调用的速率并允许一定的突发。
+ * <p>
+ * 令牌不足时预支，调用方按返回的时长等待，多个线程按取令牌的先后依次放行。
+ * 
+ * @author zhangpengji
+ *
+ */
+public class TokenBucket {
+
+	/** 每毫秒补充的令牌数 */
+	final double m_RatePerMillis;
+	final double m_Capacity;
+	double m_Tokens;
+	long m_Last;
+
+	/**
+	 * 构造
+	 * 
+	 * @param ratePerSecond
+	 *            每秒补充的令牌数
+	 * @param capacity
+	 *            最多积攒的令牌数，即允许的突发量
+	 */
+	public TokenBucket(double ratePerSecond, int capacity) {
+		if (ratePerSecond <= 0) {
+			throw new IllegalArgumentException("速率须大于0：" + ratePerSecond);
+		}
+		m_RatePerMillis = ratePerSecond / 1000;
+		m_Capacity = Math.max(1, capacity);
+		m_Tokens = m_Capacity;
+		m_Last = System.currentTimeMillis();
+	}
+
+	/**
+	 * 取一个令牌
+	 * 
+	 * @return 须等待的毫秒数，0表示可马上调用
+	 */
+	public synchronized long reserve() {
+		long now = System.currentTimeMillis();
+		m_Tokens = Math.min(m_Capacity, m_Tokens + (now - m_Last) * m_RatePerMillis);
+		m_Last = now;
+		m_Tokens -= 1;
+		if (m_Tokens >= 0) {
+			return 0;
+		}
+		return (long) Math.ceil(-m_Tokens / m_RatePerMillis);
+	}
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.console.util;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 单个命令的耗时追踪，按环节输出瀑布图
+ * <p>
+ * 追踪绑定在线程上，经{@linkplain Metrics#record(String, long)}记录的耗时同时记入当前追踪；
+ * 在其它线程执行的环节，需先{@linkplain #attach(Trace)}。
+ * 
+ * @author zhangpengji
+ *
+ */
+public class Trace {
+
+	/** 瀑布图的宽度（字符数） */
+	static final int BAR_WIDTH = 40;
+
+	static final ThreadLocal<Trace> _Current = new ThreadLocal<Trace>();
+
+	final long m_Begin;
+	final List<Span> m_Spans;
+	long m_End;
+
+	Trace() {
+		m_Begin = System.nanoTime();
+		m_Spans = new ArrayList<Span>();
+	}
+
+	/**
+	 * 在当前线程开始追踪
+	 * 
+	 * @return
+	 */
+	public static Trace start() {
+		Trace trace = new Trace();
+		_Current.set(trace);
+		return trace;
+	}
+
+	/**
+	 * 结束当前线程的追踪
+	 * 
+	 * @return 没有追踪时返回null
+	 */
+	public static Trace stop() {
+		Trace trace = _Current.get();
+		_Current.remove();
+		if (null != trace) {
+			trace.m_End = System.nanoTime();
+		}
+		return trace;
+	}
+
+	public static Trace current() {
+		return _Current.get();
+	}
+
+	/**
+	 * 使当前线程记入指定的追踪
+	 * 
+	 * @param trace
+	 */
+	public static void attach(Trace trace) {
+		_Current.set(trace);
+	}
+
+	public static void detach() {
+		_Current.remove();
+	}
+
+	/**
+	 * 记入一个环节
+	 * 
+	 * @param name
+	 * @param begin
+	 *            开始时间（System.nanoTime()）
+	 * @param nanos
+	 *            耗时（纳秒）
+	 */
+	void add(String name, long begin, long nanos) {
+		Span span = new Span(name, Thread.currentThread().getName(), begin - m_Begin, nanos);
+		synchronized (m_Spans) {
+			m_Spans.add(span);
+		}
+	}
+
+	public void print(PrintStream ps) {
+		List<Span> spans;
+		synchronized (m_Spans) {
+			spans = new ArrayList<Span>(m_Spans);
+		}
+		long total = ((0 == m_End) ? System.nanoTime() : m_End) - m_Begin;
+		ps.println("总耗时：" + toMillis(total) + "ms");
+		if (spans.isEmpty()) {
+			return;
+		}
+		FitTable table = new FitTable(true, 1, 1);
+		table.addCell("开始");
+		table.addCell("耗时");
+		table.addCell("线程");
+		table.addCell("环节");
+		table.addCell("");
+		double scale = (total > 0) ? (double) BAR_WIDTH / total : 0;
+		StringBuilder bar = new StringBuilder(BAR_WIDTH);
+		for (Span s : spans) {
+			table.nextRow();
+			table.addCell(toMillis(s.m_Offset));
+			table.addCell(toMillis(s.m_Nanos));
+			table.addCell(s.m_Thread);
+			table.addCell(s.m_Name);
+			int from = (int) (s.m_Offset * scale);
+			int len = Math.max(1, (int) (s.m_Nanos * scale));
+			bar.setLength(0);
+			for (int i = 0; i < from && i < BAR_WIDTH; i++) {
+				bar.append('.');
+			}
+			for (int i = 0; i < len && bar.length() < BAR_WIDTH; i++) {
+				bar.append('#');
+			}
+			table.addCell(bar.toString());
+		}
+		table.print(ps);
+	}
+
+	static String toMillis(long nanos) {
+		return String.format("%.3f", nanos / 1000000.0);
+	}
+
+	static class Span {
+		final String m_Name;
+		final String m_Thread;
+		/** 相对追踪开始的偏移（纳秒） */
+		final long m_Offset;
+		final long m_Nanos;
+
+		Span(String name, String thread, long offset, long nanos) {
+			m_Name = name;
+			m_Thread = thread;
+			m_Offset = offset;
+			m_Nanos = nanos;
+		}
+	}
+}
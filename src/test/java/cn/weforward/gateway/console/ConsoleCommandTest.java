@@ -0,0 +1,116 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.console;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * 经内存keeper执行命令的测试
+ * 
+ * @author zhangpengji
+ *
+ */
+public class ConsoleCommandTest {
+
+	static final String URL = "mem://?services=5&instances=2";
+
+	@Rule
+	public TemporaryFolder m_Folder = new TemporaryFolder();
+
+	Console m_Console;
+
+	@Before
+	public void setUp() throws IOException {
+		m_Console = new Console();
+		m_Console.setApiPreUrl(URL);
+	}
+
+	/**
+	 * 执行命令，返回其输出（含错误输出）
+	 */
+	String run(String... args) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(buffer, true, "UTF-8");
+		m_Console.m_Context.set(new Console.Context(URL, out));
+		try {
+			m_Console.execute(Arrays.asList(args));
+		} finally {
+			m_Console.m_Context.remove();
+		}
+		return new String(buffer.toByteArray(), "UTF-8");
+	}
+
+	static String[] lines(String output) {
+		return output.trim().split("\r?\n");
+	}
+
+	@Test
+	public void listServices() throws IOException {
+		String[] lines = lines(run("svc", "-P", "--output", "csv", "--page-size", "3"));
+		assertEquals(1 + 3, lines.length);
+		assertTrue(lines[0].startsWith("name,no,version"));
+		assertTrue(lines[1].startsWith("svc0000,x000,1.0.0,"));
+	}
+
+	@Test
+	public void trafficRules() throws IOException {
+		run("tt", "-A", "--name", "svc0001", "--version", "1.0.0", "--weight", "80");
+		run("tt", "-A", "--name", "svc0001", "--version", "1.0.1", "--weight", "20");
+		run("tt", "-M", "--name", "svc0001", "--from-index", "1", "--to-index", "0");
+		String[] lines = lines(run("tt", "-P", "--name", "svc0001", "--output", "tsv"));
+		assertEquals(3, lines.length);
+		assertTrue(lines[1], lines[1].startsWith("svc0001\t0\t\t\t1.0.1\t20\t"));
+		assertTrue(lines[2], lines[2].startsWith("svc0001\t1\t\t\t1.0.0\t80\t"));
+	}
+
+	@Test
+	public void applyTrafficTable() throws IOException {
+		run("tt", "-A", "--name", "svc0002", "--version", "1.0.0", "--weight", "50");
+		File file = m_Folder.newFile("tt.jsonl");
+		PrintStream out = new PrintStream(file, "UTF-8");
+		out.println("{\"version\":\"1.0.1\",\"weight\":10}");
+		out.println("{\"version\":\"1.0.0\",\"weight\":50}");
+		out.close();
+		String dryRun = run("tt", "--apply", file.getPath(), "--name", "svc0002", "--dry-run");
+		assertTrue(dryRun, dryRun.contains("插入 0：no= version=1.0.1 weight=10 name="));
+		run("tt", "--apply", file.getPath(), "--name", "svc0002");
+		String[] lines = lines(run("tt", "-P", "--name", "svc0002", "--output", "csv"));
+		assertEquals(3, lines.length);
+		assertTrue(lines[1], lines[1].contains(",1.0.1,10,"));
+		assertTrue(lines[2], lines[2].contains(",1.0.0,50,"));
+	}
+
+	@Test
+	public void unsupportedAsKeeperError() throws IOException {
+		String output = run("servicedebug", "-name", "svc0001", "-no", "x000", "-class", "HelloWorld");
+		assertTrue(output, output.startsWith("网关执行出错:内存keeper不支持：debugService"));
+	}
+
+	@Test
+	public void missingOptionValue() throws IOException {
+		String output = run("svc", "-P", "--output");
+		assertTrue(output, output.contains("--output"));
+		// 控制台仍可继续执行命令
+		assertEquals(1 + 2, lines(run("svc", "-P", "--output", "csv", "--page-size", "2")).length);
+	}
+}
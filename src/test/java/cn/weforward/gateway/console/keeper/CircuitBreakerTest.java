@@ -0,0 +1,67 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.console.keeper;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+import cn.weforward.gateway.console.exception.CommonException;
+
+public class CircuitBreakerTest {
+
+	/** DeadlineKeeperHandler超出调用时限时的异常 */
+	static CommonException callTimeout() {
+		return new CommonException("调用keeper超时（100ms）：getTrafficTable",
+				new SocketTimeoutException("connect or read timed out after 100ms"));
+	}
+
+	/** DeadlineKeeperHandler超出命令期限时的异常 */
+	static CommonException deadlineExceeded() {
+		return new CommonException("已超过命令期限，取消调用keeper：getTrafficTable", new TimeoutException());
+	}
+
+	@Test
+	public void callTimeoutOpens() {
+		CircuitBreaker breaker = new CircuitBreaker("http://keeper/", 2, 60 * 1000);
+		for (int i = 0; i < 2; i++) {
+			boolean probe = breaker.acquire();
+			breaker.onFailure(callTimeout(), probe);
+		}
+		assertTrue(breaker.isOpen());
+		try {
+			breaker.acquire();
+			fail();
+		} catch (CommonException e) {
+		}
+	}
+
+	@Test
+	public void probeTimeoutKeepsOpen() throws InterruptedException {
+		CircuitBreaker breaker = new CircuitBreaker("http://keeper/", 1, 1);
+		breaker.onFailure(callTimeout(), breaker.acquire());
+		assertTrue(breaker.isOpen());
+		Thread.sleep(10);
+		assertTrue(breaker.acquire());
+		breaker.onFailure(deadlineExceeded(), true);
+		assertTrue(breaker.isOpen());
+		Thread.sleep(10);
+		assertTrue(breaker.acquire());
+		// 业务错误说明能连上
+		breaker.onFailure(new CommonException("规则不存在"), true);
+		assertFalse(breaker.isOpen());
+	}
+}
@@ -0,0 +1,210 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.console.keeper;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * 压缩中转的测试，上游是校验签名的keeper（签名覆盖请求内容，校验路径、查询串及Host与直连时一致）
+ * 
+ * @author zhangpengji
+ *
+ */
+public class CompressingRelayTest {
+
+	static final String PATH = "/__keeper/";
+	static final byte[] KEY = "relay-test-key".getBytes();
+
+	HttpServer m_Keeper;
+	String m_KeeperUrl;
+	CompressingRelay m_Relay;
+	/** keeper是否声明接受压缩的请求 */
+	volatile boolean m_AcceptGzip;
+	volatile String m_RequestEncoding;
+
+	@Before
+	public void setUp() throws IOException {
+		m_Keeper = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 0);
+		m_KeeperUrl = "http://127.0.0.1:" + m_Keeper.getAddress().getPort() + PATH;
+		m_Keeper.createContext("/", new SigningKeeper());
+		m_Keeper.start();
+		m_Relay = new CompressingRelay();
+	}
+
+	@After
+	public void tearDown() {
+		m_Relay.stop();
+		m_Keeper.stop(0);
+	}
+
+	@Test
+	public void signedCall() throws IOException {
+		String local = m_Relay.getLocalUrl(m_KeeperUrl);
+		assertTrue(local.endsWith(PATH));
+		byte[] content = "{\"method\":\"searchService\"}".getBytes("UTF-8");
+		HttpURLConnection conn = post(local + "?a=1", content);
+		assertEquals(200, conn.getResponseCode());
+		assertArrayEquals(expected(content), readAll(conn.getInputStream()));
+		assertNull(m_RequestEncoding);
+	}
+
+	@Test
+	public void badSignature() throws IOException {
+		HttpURLConnection conn = (HttpURLConnection) new URL(m_Relay.getLocalUrl(m_KeeperUrl) + "?a=1")
+				.openConnection();
+		conn.setDoOutput(true);
+		conn.setRequestProperty("WF-Sign", "00");
+		conn.getOutputStream().write(1);
+		assertEquals(401, conn.getResponseCode());
+	}
+
+	@Test
+	public void wrongToken() throws IOException {
+		String local = m_Relay.getLocalUrl(m_KeeperUrl);
+		String port = String.valueOf(new URL(local).getPort());
+		HttpURLConnection conn = post("http://127.0.0.1:" + port + "/0123" + PATH + "?a=1", new byte[] { 1 });
+		assertEquals(403, conn.getResponseCode());
+		conn = post("http://127.0.0.1:" + port + PATH + "?a=1", new byte[] { 1 });
+		assertEquals(403, conn.getResponseCode());
+	}
+
+	@Test
+	public void compressRequestAfterAccepted() throws IOException {
+		m_AcceptGzip = true;
+		String local = m_Relay.getLocalUrl(m_KeeperUrl);
+		byte[] content = new byte[CompressingRelay.REQUEST_COMPRESS_MIN * 4];
+		Arrays.fill(content, (byte) 'a');
+		// 首个请求时还不知道keeper接受压缩的请求
+		HttpURLConnection conn = post(local + "?a=1", content);
+		assertEquals(200, conn.getResponseCode());
+		assertNull(m_RequestEncoding);
+		conn = post(local + "?a=1", content);
+		assertEquals(200, conn.getResponseCode());
+		assertEquals("gzip", m_RequestEncoding);
+		assertArrayEquals(expected(content), readAll(conn.getInputStream()));
+	}
+
+	@Test
+	public void connectFailure() throws IOException {
+		ServerSocket socket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+		String upstream = "http://127.0.0.1:" + socket.getLocalPort() + PATH;
+		socket.close();
+		long begin = System.nanoTime();
+		HttpURLConnection conn = post(m_Relay.getLocalUrl(upstream), new byte[] { 1 });
+		assertEquals(502, conn.getResponseCode());
+		IOException failure = m_Relay.getConnectFailure(upstream, begin);
+		assertNotNull(failure);
+		assertTrue(CircuitBreaker.isConnectFailure(failure));
+		assertNull(m_Relay.getConnectFailure(upstream, System.nanoTime()));
+	}
+
+	static HttpURLConnection post(String url, byte[] content) throws IOException {
+		HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+		conn.setDoOutput(true);
+		conn.setRequestProperty("WF-Sign", sign(content));
+		OutputStream out = conn.getOutputStream();
+		out.write(content);
+		out.close();
+		return conn;
+	}
+
+	static String sign(byte[] content) {
+		try {
+			Mac mac = Mac.getInstance("HmacSHA256");
+			mac.init(new SecretKeySpec(KEY, "HmacSHA256"));
+			StringBuilder sb = new StringBuilder();
+			for (byte b : mac.doFinal(content)) {
+				sb.append(String.format("%02x", b));
+			}
+			return sb.toString();
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static byte[] expected(byte[] content) {
+		return ("ok:" + content.length).getBytes();
+	}
+
+	static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		CompressingRelay.copy(in, out);
+		in.close();
+		return out.toByteArray();
+	}
+
+	/**
+	 * 校验签名的keeper，响应总是gzip压缩
+	 */
+	class SigningKeeper implements HttpHandler {
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				String expectHost = "127.0.0.1:" + m_Keeper.getAddress().getPort();
+				if (!PATH.equals(exchange.getRequestURI().getRawPath())
+						|| !"a=1".equals(exchange.getRequestURI().getRawQuery())
+						|| !expectHost.equals(exchange.getRequestHeaders().getFirst("Host"))) {
+					exchange.sendResponseHeaders(400, -1);
+					return;
+				}
+				String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+				m_RequestEncoding = encoding;
+				InputStream in = exchange.getRequestBody();
+				if ("gzip".equals(encoding)) {
+					in = new GZIPInputStream(in);
+				}
+				byte[] content = readAll(in);
+				if (!sign(content).equals(exchange.getRequestHeaders().getFirst("WF-Sign"))) {
+					exchange.sendResponseHeaders(401, -1);
+					return;
+				}
+				if (m_AcceptGzip) {
+					exchange.getResponseHeaders().set("Accept-Encoding", "gzip");
+				}
+				exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+				exchange.sendResponseHeaders(200, 0);
+				GZIPOutputStream out = new GZIPOutputStream(exchange.getResponseBody());
+				out.write(expected(content));
+				out.close();
+			} finally {
+				exchange.close();
+			}
+		}
+	}
+}
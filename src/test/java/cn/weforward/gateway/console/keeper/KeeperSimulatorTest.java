@@ -0,0 +1,100 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.console.keeper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+import cn.weforward.gateway.console.util.SimpleJson;
+
+/**
+ * keeper模拟服务的测试，只固定其自身约定的包结构，不代表与网关协议一致
+ * 
+ * @author zhangpengji
+ *
+ */
+public class KeeperSimulatorTest {
+
+	KeeperSimulator m_Simulator;
+	HttpServer m_Server;
+	String m_Url;
+
+	@Before
+	public void setUp() throws IOException {
+		m_Simulator = new KeeperSimulator(MemKeeper.URL_PREFIX + "?services=3&instances=2", "test-id");
+		m_Server = m_Simulator.start(0, 2);
+		m_Url = "http://127.0.0.1:" + m_Server.getAddress().getPort() + "/";
+	}
+
+	@After
+	public void tearDown() {
+		m_Server.stop(0);
+	}
+
+	@Test
+	public void invoke() throws IOException {
+		Map<?, ?> response = post("{\"invoke\":{\"method\":\"search_service\",\"params\":{\"page_size\":2}}}",
+				"WF-SHA2 test-id:sign");
+		assertEquals(0, ((Number) wfResp(response).get("wf_code")).intValue());
+		Map<?, ?> result = (Map<?, ?>) response.get("result");
+		assertEquals(0, ((Number) result.get("code")).intValue());
+		Map<?, ?> content = (Map<?, ?>) result.get("content");
+		assertEquals(2, ((List<?>) content.get("items")).size());
+		assertTrue(((Number) content.get("count")).intValue() > 2);
+	}
+
+	@Test
+	public void unknownMethod() throws IOException {
+		Map<?, ?> response = post("{\"invoke\":{\"method\":\"debug_service\"}}", "WF-SHA2 test-id:sign");
+		assertEquals(2001, ((Number) ((Map<?, ?>) response.get("result")).get("code")).intValue());
+	}
+
+	@Test
+	public void unauthorized() throws IOException {
+		Map<?, ?> response = post("{\"invoke\":{\"method\":\"search_service\"}}", null);
+		assertEquals(1001, ((Number) wfResp(response).get("wf_code")).intValue());
+		response = post("{\"invoke\":{\"method\":\"search_service\"}}", "WF-SHA2 other:sign");
+		assertEquals(1001, ((Number) wfResp(response).get("wf_code")).intValue());
+	}
+
+	static Map<?, ?> wfResp(Map<?, ?> response) {
+		return (Map<?, ?>) response.get("wf_resp");
+	}
+
+	Map<?, ?> post(String body, String auth) throws IOException {
+		HttpURLConnection conn = (HttpURLConnection) new URL(m_Url).openConnection();
+		conn.setDoOutput(true);
+		if (null != auth) {
+			conn.setRequestProperty("Authorization", auth);
+		}
+		OutputStream out = conn.getOutputStream();
+		out.write(body.getBytes("UTF-8"));
+		out.close();
+		assertEquals(200, conn.getResponseCode());
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		CompressingRelay.copy(conn.getInputStream(), buffer);
+		return (Map<?, ?>) SimpleJson.parse(new String(buffer.toByteArray(), "UTF-8"));
+	}
+}
@@ -0,0 +1,203 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.console.registry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * 快照文件的测试
+ * 
+ * @author zhangpengji
+ *
+ */
+public class RegistrySnapshotTest {
+
+	@Rule
+	public TemporaryFolder m_Folder = new TemporaryFolder();
+
+	static ServiceInstance instance(String name, String no, String version, int state) {
+		return new ServiceInstance(name, no, version, 1000, state, Arrays.asList("http://" + no + ":8080/" + name));
+	}
+
+	static List<ServiceInstance> instances(int count) {
+		List<ServiceInstance> list = new ArrayList<ServiceInstance>(count);
+		for (int i = count - 1; i >= 0; i--) {
+			list.add(instance(String.format("svc%04d", i), "x001", "1.0.0", 0));
+		}
+		return list;
+	}
+
+	@Test
+	public void writeAndRead() throws IOException {
+		File file = m_Folder.newFile("a.snapshot");
+		RegistrySnapshot.write(file, instances(3), 123);
+		RegistrySnapshot.Reader reader = new RegistrySnapshot.Reader(file);
+		try {
+			assertEquals(123, reader.getTime());
+			assertEquals(3, reader.getCount());
+			// 按名称排序
+			assertEquals("svc0000", reader.next().getName());
+			assertEquals("svc0001", reader.next().getName());
+			ServiceInstance last = reader.next();
+			assertEquals("svc0002", last.getName());
+			assertEquals(Collections.singletonList("http://x001:8080/svc0002"), last.getUrls());
+			assertNull(reader.next());
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void replaceWhileReading() throws IOException {
+		File file = m_Folder.newFile("a.snapshot");
+		RegistrySnapshot.write(file, instances(2), 1);
+		RegistrySnapshot.Reader old = new RegistrySnapshot.Reader(file);
+		try {
+			RegistrySnapshot.write(file, instances(5), 2);
+			// 已打开的读取器仍读旧文件
+			assertEquals(2, old.getCount());
+			assertEquals("svc0000", old.next().getName());
+		} finally {
+			old.close();
+		}
+		RegistrySnapshot.Reader reader = new RegistrySnapshot.Reader(file);
+		try {
+			assertEquals(5, reader.getCount());
+		} finally {
+			reader.close();
+		}
+		assertFalse(new File(file.getParentFile(), file.getName() + ".tmp").exists());
+	}
+
+	@Test(expected = IOException.class)
+	public void notSnapshot() throws IOException {
+		File file = m_Folder.newFile("b.snapshot");
+		FileOutputStream out = new FileOutputStream(file);
+		out.write("not a snapshot file".getBytes());
+		out.close();
+		new RegistrySnapshot.Reader(file);
+	}
+
+	@Test
+	public void diff() throws IOException {
+		List<ServiceInstance> old = new ArrayList<ServiceInstance>();
+		old.add(instance("a", "x1", "1.0", 0));
+		old.add(instance("b", "x1", "1.0", 0));
+		old.add(instance("c", "x1", "1.0", 0));
+		old.add(instance("d", "x1", "1.0", 0));
+		List<ServiceInstance> now = new ArrayList<ServiceInstance>();
+		// a移除，b版本变化，c只有心跳变化，d状态变化，e新增
+		now.add(instance("b", "x1", "1.1", 0));
+		now.add(new ServiceInstance("c", "x1", "1.0", 2000, 0, Arrays.asList("http://x1:8080/c")));
+		now.add(instance("d", "x1", "1.0", ServiceInstance.STATE_OVERLOAD));
+		now.add(instance("e", "x1", "1.0", 0));
+		File from = m_Folder.newFile("old.snapshot");
+		File to = m_Folder.newFile("now.snapshot");
+		RegistrySnapshot.write(from, old, 1);
+		RegistrySnapshot.write(to, now, 2);
+
+		final StringBuilder sb = new StringBuilder();
+		RegistrySnapshot.Reader a = new RegistrySnapshot.Reader(from);
+		RegistrySnapshot.Reader b = new RegistrySnapshot.Reader(to);
+		int changes;
+		try {
+			changes = RegistrySnapshot.diff(a, b, new RegistrySnapshot.DiffVisitor() {
+
+				@Override
+				public void added(ServiceInstance now) {
+					sb.append("+").append(now.getName()).append(' ');
+				}
+
+				@Override
+				public void removed(ServiceInstance old) {
+					sb.append("-").append(old.getName()).append(' ');
+				}
+
+				@Override
+				public void changed(ServiceInstance old, ServiceInstance now) {
+					sb.append("~").append(now.getName()).append(' ');
+				}
+			});
+		} finally {
+			a.close();
+			b.close();
+		}
+		assertEquals("-a ~b ~d +e ", sb.toString());
+		assertEquals(4, changes);
+	}
+
+	@Test
+	public void truncated() throws IOException {
+		File file = m_Folder.newFile("c.snapshot");
+		RegistrySnapshot.write(file, instances(3), 1);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(raf.length() - 5);
+		raf.close();
+		RegistrySnapshot.Reader reader = new RegistrySnapshot.Reader(file);
+		try {
+			reader.next();
+			reader.next();
+			reader.next();
+			fail("截断的快照应读取失败");
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("不完整"));
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void unsorted() throws IOException {
+		File file = m_Folder.newFile("d.snapshot");
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+		out.writeInt(RegistrySnapshot.MAGIC);
+		out.writeShort(RegistrySnapshot.VERSION);
+		out.writeLong(1);
+		out.writeInt(2);
+		for (String name : new String[] { "b", "a" }) {
+			RegistrySnapshot.writeString(out, name);
+			RegistrySnapshot.writeString(out, "x1");
+			RegistrySnapshot.writeString(out, "1.0");
+			out.writeLong(0);
+			out.writeByte(0);
+			out.writeShort(0);
+		}
+		out.close();
+		RegistrySnapshot.Reader reader = new RegistrySnapshot.Reader(file);
+		try {
+			assertEquals("b", reader.next().getName());
+			reader.next();
+			fail("无序的快照应读取失败");
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("未排序"));
+		} finally {
+			reader.close();
+		}
+	}
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.console.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+
+import org.junit.Test;
+
+/**
+ * 表格流式输出的测试
+ * 
+ * @author zhangpengji
+ *
+ */
+public class FixTableTest {
+
+	@Test
+	public void streamingKeepsWidths() throws UnsupportedEncodingException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		PrintStream ps = new PrintStream(bytes, true, "UTF-8");
+		FixTable table = new FixTable(true, 1, 1);
+		table.setStreaming(ps, 2);
+		table.addCell("n");
+		table.addCell("");
+		table.addCell("name");
+		table.nextRow();
+		table.addCell("1");
+		table.addCell("");
+		table.addCell("ab");
+		table.nextRow();
+		// 已开始输出，以下内容都超出列宽
+		table.addCell("中文");
+		table.addCell("xyz");
+		table.addCell("abcdefghij");
+		table.nextRow();
+		table.print(ps);
+
+		String[] lines = new String(bytes.toByteArray(), "UTF-8").split("\n");
+		int width = -1;
+		for (String line : lines) {
+			int w = 0;
+			for (int i = 0; i < line.length(); i++) {
+				char ch = line.charAt(i);
+				// 制表符（边框）占1个宽度
+				w += (ch >= 0x2500 && ch <= 0x257F) ? 1 : FixTable.Cell.getCharWidth(ch);
+			}
+			if (-1 == width) {
+				width = w;
+			}
+			assertEquals(line, width, w);
+		}
+		// 3行表头及样例，"abcdefghij"按4列宽换成3行
+		assertTrue(lines.length >= 1 + 1 + 1 + 1 + 1 + 3 + 1);
+		assertTrue(lines[lines.length - 2].contains("ij"));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void streamingRejectsNewColumn() {
+		FixTable table = new FixTable(true, 1, 1);
+		table.setStreaming(new PrintStream(new ByteArrayOutputStream()), 1);
+		table.addCell("a");
+		table.nextRow();
+		table.addCell("b");
+		table.addCell("c");
+	}
+
+	@Test
+	public void truncate() {
+		FixTable.Cell cell = FixTable.Cell.valueOf("中a", 1);
+		assertEquals(2, cell.getWidth());
+		cell = cell.truncate(1);
+		assertEquals(1, cell.getWidth());
+		assertEquals("", cell.getLine(0));
+		assertEquals("a", cell.getLine(1));
+	}
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.console.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * 耗时分布统计的测试
+ * 
+ * @author zhangpengji
+ *
+ */
+public class LatencyHistogramTest {
+
+	@Test
+	public void empty() {
+		LatencyHistogram h = new LatencyHistogram();
+		assertEquals(0, h.getCount());
+		assertEquals(0, h.getMean());
+		assertEquals(0, h.getPercentile(99));
+	}
+
+	@Test
+	public void percentileWithinBucketError() {
+		LatencyHistogram h = new LatencyHistogram();
+		// 1~10000微秒各一次
+		for (int i = 1; i <= 10000; i++) {
+			h.record(i * 1000L);
+		}
+		assertEquals(10000, h.getCount());
+		assertEquals(10000, h.getMax());
+		assertEquals(5000, h.getMean());
+		for (double p : new double[] { 50, 90, 99, 99.9 }) {
+			long exact = (long) Math.ceil(p * 100);
+			long v = h.getPercentile(p);
+			// 取桶的上界，不小于实际值，误差不超过12.5%
+			assertTrue(p + ": " + v, v >= exact && v <= exact * 1.125 + 1);
+		}
+		assertEquals(10000, h.getPercentile(100));
+	}
+
+	@Test
+	public void bucketBounds() {
+		Random random = new Random(3);
+		for (int i = 0; i < 10000; i++) {
+			long micros = random.nextInt(Integer.MAX_VALUE);
+			int index = LatencyHistogram.indexOf(micros);
+			assertTrue(micros + "", LatencyHistogram.lowerBound(index) <= micros);
+			assertTrue(micros + "", micros <= LatencyHistogram.upperBound(index));
+		}
+	}
+
+	@Test
+	public void concurrentRecord() throws InterruptedException {
+		final LatencyHistogram h = new LatencyHistogram();
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 10000; i++) {
+						h.record(1000);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		assertEquals(40000, h.getCount());
+		assertEquals(40000, h.getSum());
+		h.reset();
+		assertEquals(0, h.getCount());
+		assertEquals(0, h.getMax());
+	}
+}
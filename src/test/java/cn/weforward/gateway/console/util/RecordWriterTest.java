@@ -0,0 +1,52 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.console.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * 记录输出的测试
+ * 
+ * @author zhangpengji
+ *
+ */
+public class RecordWriterTest {
+
+	static String write(String format, Object... values) throws UnsupportedEncodingException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		RecordWriter writer = new RecordWriter(format, out, "name", "tags");
+		writer.write(values);
+		writer.flush();
+		return new String(out.toByteArray(), "UTF-8");
+	}
+
+	@Test
+	public void jsonl() throws UnsupportedEncodingException {
+		assertEquals("{\"name\":\"服务\\\"a\\\"\",\"tags\":[\"x\",\"y\"]}\n",
+				write(RecordWriter.FORMAT_JSONL, "服务\"a\"", Arrays.asList("x", "y")));
+	}
+
+	@Test
+	public void csv() throws UnsupportedEncodingException {
+		assertEquals("name,tags\n\"服务,a\",x y\n", write(RecordWriter.FORMAT_CSV, "服务,a", Arrays.asList("x", "y")));
+	}
+
+	@Test
+	public void tsv() throws UnsupportedEncodingException {
+		assertEquals("name\ttags\n服务\\ta\\n\t\n", write(RecordWriter.FORMAT_TSV, "服务\ta\n", null));
+	}
+}
@@ -0,0 +1,152 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.console.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * 表编辑计算的测试
+ * 
+ * @author zhangpengji
+ *
+ */
+public class TableConvergerTest {
+
+	static final TableConverger<String> CONVERGER = new TableConverger<String>(
+			new TableConverger.Equality<String>() {
+
+				@Override
+				public boolean equals(String a, String b) {
+					return a.equals(b);
+				}
+			}, new TableConverger.Describer<String>() {
+
+				@Override
+				public String describe(String item) {
+					return "[" + item + "]";
+				}
+			});
+
+	/**
+	 * 在列表上执行编辑，替换、删除时检查序号上的项与计划时的相同
+	 */
+	static List<String> apply(List<String> current, List<TableConverger.Edit<String>> edits) {
+		final List<String> table = new ArrayList<String>(current);
+		TableConverger.apply(edits, new TableConverger.Editor<String>() {
+
+			@Override
+			public void insert(int index, String item) {
+				table.add(index, item);
+			}
+
+			@Override
+			public void move(int from, int to) {
+				table.add(to, table.remove(from));
+			}
+
+			@Override
+			public void replace(int index, String item, String target) {
+				assertEquals(target, table.get(index));
+				table.set(index, item);
+			}
+
+			@Override
+			public void remove(int index, String target) {
+				assertEquals(target, table.remove(index));
+			}
+		});
+		return table;
+	}
+
+	static int count(List<TableConverger.Edit<String>> edits, int kind) {
+		int count = 0;
+		for (TableConverger.Edit<String> e : edits) {
+			if (kind == e.getKind()) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	@Test
+	public void same() {
+		List<String> table = Arrays.asList("a", "b", "c");
+		assertTrue(CONVERGER.plan(table, table).isEmpty());
+	}
+
+	@Test
+	public void moveOnlyOutOfOrder() {
+		List<String> current = Arrays.asList("a", "b", "c", "d", "e");
+		List<String> desired = Arrays.asList("b", "c", "d", "e", "a");
+		List<TableConverger.Edit<String>> edits = CONVERGER.plan(current, desired);
+		assertEquals(1, edits.size());
+		assertEquals(TableConverger.MOVE, edits.get(0).getKind());
+		assertEquals(desired, apply(current, edits));
+	}
+
+	@Test
+	public void replaceBeforeInsertAndRemove() {
+		List<String> current = Arrays.asList("a", "x", "c");
+		List<String> desired = Arrays.asList("a", "y", "c");
+		List<TableConverger.Edit<String>> edits = CONVERGER.plan(current, desired);
+		assertEquals(1, edits.size());
+		assertEquals(TableConverger.REPLACE, edits.get(0).getKind());
+		assertEquals(1, edits.get(0).getIndex());
+		assertEquals("x", edits.get(0).getTarget());
+		assertEquals("替换 1：[y]（原[x]）", edits.get(0).toString());
+
+		current = Arrays.asList("a", "b", "c", "d");
+		desired = Arrays.asList("e");
+		edits = CONVERGER.plan(current, desired);
+		assertEquals(3, count(edits, TableConverger.REMOVE));
+		assertEquals(1, count(edits, TableConverger.REPLACE));
+		assertEquals(desired, apply(current, edits));
+
+		current = Collections.emptyList();
+		desired = Arrays.asList("a", "b");
+		edits = CONVERGER.plan(current, desired);
+		assertEquals(2, count(edits, TableConverger.INSERT));
+		assertEquals("插入 0：[a]", edits.get(0).toString());
+		assertEquals(desired, apply(current, edits));
+	}
+
+	@Test
+	public void random() {
+		Random random = new Random(7);
+		for (int round = 0; round < 2000; round++) {
+			List<String> current = randomTable(random);
+			List<String> desired = randomTable(random);
+			List<TableConverger.Edit<String>> edits = CONVERGER.plan(current, desired);
+			assertEquals(current + " -> " + desired + " " + edits, desired, apply(current, edits));
+			// 插入与删除不会同时出现（能替换的都替换）
+			assertTrue(0 == count(edits, TableConverger.INSERT) || 0 == count(edits, TableConverger.REMOVE));
+		}
+	}
+
+	static List<String> randomTable(Random random) {
+		int size = random.nextInt(8);
+		List<String> table = new ArrayList<String>(size);
+		for (int i = 0; i < size; i++) {
+			// 取值范围小，有重复项
+			table.add(String.valueOf((char) ('a' + random.nextInt(6))));
+		}
+		return table;
+	}
+}
@@ -0,0 +1,51 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.console.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * 令牌桶的测试
+ * 
+ * @author zhangpengji
+ *
+ */
+public class TokenBucketTest {
+
+	@Test
+	public void burstThenWait() {
+		TokenBucket bucket = new TokenBucket(10, 3);
+		for (int i = 0; i < 3; i++) {
+			assertEquals(0, bucket.reserve());
+		}
+		// 每个令牌100毫秒，预支的依次排队
+		long first = bucket.reserve();
+		long second = bucket.reserve();
+		assertTrue(String.valueOf(first), first > 50 && first <= 100);
+		assertTrue(String.valueOf(second), second > first && second <= 200);
+	}
+
+	@Test
+	public void refill() throws InterruptedException {
+		TokenBucket bucket = new TokenBucket(100, 1);
+		assertEquals(0, bucket.reserve());
+		Thread.sleep(30);
+		assertEquals(0, bucket.reserve());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void invalidRate() {
+		new TokenBucket(0, 1);
+	}
+}